@@ -228,5 +228,35 @@ public abstract class AbstractFile implements IAbstractFile
 		return setBytes(bytes, false);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#readBytes(long, int)
+	 */
+	public byte[] readBytes(long offset, int length)
+	{
+		throw new UnsupportedMethodException("Reading a part of a file is only supported on local files"); //$NON-NLS-1$
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#writeBytes(long, byte[])
+	 */
+	public boolean writeBytes(long offset, byte[] bytes)
+	{
+		throw new UnsupportedMethodException("Writing a part of a file is only supported on local files"); //$NON-NLS-1$
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#indexOf(byte[], long)
+	 */
+	public long indexOf(byte[] pattern, long offset)
+	{
+		throw new UnsupportedMethodException("Searching a file is only supported on local files"); //$NON-NLS-1$
+	}
+
 
 }
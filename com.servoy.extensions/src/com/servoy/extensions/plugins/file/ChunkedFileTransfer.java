@@ -0,0 +1,422 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Streams files between the client and the server in chunks using the {@link IFileService}.<br/>
+ * Several chunks of a file are in flight at the same time so the transfer is not bound by the latency of the connection.
+ * Uploaded chunks carry a checksum that is verified by the server, failed chunks are retried and
+ * when that does not help the transfer is resumed from the last offset that was acknowledged.<br/>
+ * When the server stores files content addressed the file is hashed first, content that the server already has is not uploaded again.
+ */
+@SuppressWarnings("nls")
+class ChunkedFileTransfer
+{
+	private static final int MAX_CHUNK_RETRIES = 3;
+	private static final int MAX_RESUMES = 3;
+	private static final long RETRY_DELAY = 500;
+
+	private final IFileService service;
+	private final String clientId;
+	private final int chunkSize;
+	private final int chunksInFlight;
+	private final Executor executor;
+	private final JSProgressMonitor progressMonitor;
+	private final AtomicLong totalTransferred;
+
+	/**
+	 * The hash algorithm of the content addressed storage of the server, an empty string when the server does not have one
+	 */
+	private volatile String contentHashAlgorithm;
+
+	/**
+	 * @param service the file service
+	 * @param clientId the id of the client
+	 * @param chunkSize the size of the chunks
+	 * @param chunksInFlight the number of chunks of one file that are transferred at the same time
+	 * @param executor executes the chunk transfers
+	 * @param progressMonitor the monitor to report the progress to
+	 * @param totalTransferred the number of bytes transferred of all files
+	 */
+	ChunkedFileTransfer(IFileService service, String clientId, int chunkSize, int chunksInFlight, Executor executor, JSProgressMonitor progressMonitor,
+		AtomicLong totalTransferred)
+	{
+		this.service = service;
+		this.clientId = clientId;
+		this.chunkSize = Math.max(1, Math.min(chunkSize, IFileService.MAX_CHUNK_SIZE));
+		this.chunksInFlight = Math.max(1, chunksInFlight);
+		this.executor = executor;
+		this.progressMonitor = progressMonitor;
+		this.totalTransferred = totalTransferred;
+	}
+
+	/**
+	 * Upload the file to the server.
+	 *
+	 * @param file the local file
+	 * @param serverFileName the path of the file on the server
+	 * @return the server file
+	 */
+	RemoteFileData upload(final File file, final String serverFileName) throws Exception
+	{
+		final AtomicLong currentTransferred = new AtomicLong();
+		String algorithm = getContentHashAlgorithm();
+		if (algorithm != null)
+		{
+			RemoteFileData linked = service.linkContent(clientId, serverFileName, ContentStore.hash(file, algorithm), file.length());
+			if (linked != null)
+			{
+				transferred(currentTransferred, file.length());
+				return linked;
+			}
+		}
+		UUID uuid = service.openTransfer(clientId, serverFileName, false);
+		RemoteFileData remoteFile = null;
+		try
+		{
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try
+			{
+				TransferOffset transferOffset = new TransferOffset(0);
+				int resumes = 0;
+				Exception error;
+				while ((error = sendChunks(uuid, channel, transferOffset, currentTransferred)) != null && !progressMonitor.js_isCanceled())
+				{
+					if (resumes++ == MAX_RESUMES) throw error;
+					Debug.warn("Resuming transfer of " + file.getAbsolutePath() + " after error: " + error.getMessage());
+					Thread.sleep(RETRY_DELAY * resumes);
+					try
+					{
+						transferOffset = new TransferOffset(service.getTransferOffset(uuid));
+					}
+					catch (RemoteException e)
+					{
+						// the server cannot be reached, try again after the chunks it acknowledged
+					}
+					catch (IOException e)
+					{
+						// the transfer is not known anymore on the server, continue with a new one
+						uuid = service.openTransfer(clientId, serverFileName, true);
+						transferOffset = new TransferOffset(service.getTransferOffset(uuid));
+					}
+					resetTransferred(currentTransferred, transferOffset.get());
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		finally
+		{
+			try
+			{
+				remoteFile = (RemoteFileData)service.closeTransfer(uuid);
+			}
+			catch (RemoteException ignore)
+			{
+			}
+		}
+		return remoteFile;
+	}
+
+	/**
+	 * @return the hash algorithm of the content addressed storage of the server or null when the server does not have one
+	 */
+	private String getContentHashAlgorithm() throws RemoteException
+	{
+		if (contentHashAlgorithm == null)
+		{
+			String algorithm = service.getContentHashAlgorithm(clientId);
+			contentHashAlgorithm = algorithm == null ? "" : algorithm;
+		}
+		return contentHashAlgorithm.length() == 0 ? null : contentHashAlgorithm;
+	}
+
+	/**
+	 * Download the file from the server, a download that is canceled or does not receive all bytes of the file removes the local file.
+	 *
+	 * @param remote the server file
+	 * @param file the local file
+	 * @throws IOException when not all bytes of the file were received
+	 */
+	void download(final RemoteFile remote, final File file) throws Exception
+	{
+		final AtomicLong currentTransferred = new AtomicLong();
+		final TransferOffset transferOffset = new TransferOffset(0);
+		final long size = remote.size();
+		UUID uuid = service.openTransfer(clientId, remote.getAbsolutePath());
+		FileChannel channel = null;
+		try
+		{
+			ContentStore.detach(file, false);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try
+			{
+				int resumes = 0;
+				Exception error;
+				while ((error = receiveChunks(uuid, channel, transferOffset, size, currentTransferred)) != null && !progressMonitor.js_isCanceled())
+				{
+					if (resumes++ == MAX_RESUMES) throw error;
+					Debug.warn("Resuming transfer of " + remote.getAbsolutePath() + " after error: " + error.getMessage());
+					Thread.sleep(RETRY_DELAY * resumes);
+					// reads do not change the transfer, so it can always be replaced by a new one
+					try
+					{
+						service.closeTransfer(uuid);
+					}
+					catch (RemoteException ignore)
+					{
+					}
+					uuid = service.openTransfer(clientId, remote.getAbsolutePath());
+					resetTransferred(currentTransferred, transferOffset.get());
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+			if (transferOffset.get() != size && !progressMonitor.js_isCanceled())
+			{
+				throw new IOException("Received " + transferOffset.get() + " of " + size + " bytes of " + remote.getAbsolutePath());
+			}
+		}
+		finally
+		{
+			if (channel != null && transferOffset.get() != size)
+			{
+				// a partial file with holes must not look like a downloaded file, a new download starts from the beginning anyway
+				file.delete();
+			}
+			try
+			{
+				service.closeTransfer(uuid);
+			}
+			catch (RemoteException ignore)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Send the chunks of the file after the transfer offset, at most chunksInFlight at the same time.
+	 *
+	 * @return the error that stopped the transfer or null
+	 */
+	private Exception sendChunks(final UUID uuid, FileChannel channel, final TransferOffset transferOffset, final AtomicLong currentTransferred)
+		throws Exception
+	{
+		final Semaphore inFlight = new Semaphore(chunksInFlight);
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		final long size = channel.size();
+		long position = transferOffset.get();
+		try
+		{
+			// an empty chunk is written for an empty file, that truncates an existing file on the server
+			do
+			{
+				final int length = (int)Math.min(chunkSize, size - position);
+				final ByteBuffer buffer = ByteBuffer.allocate(length);
+				while (buffer.hasRemaining())
+				{
+					if (channel.read(buffer, position + buffer.position()) == -1) throw new IOException("Unexpected end of file");
+				}
+				final CRC32 crc = new CRC32();
+				crc.update(buffer.array(), 0, length);
+				final long chunkOffset = position;
+				final long checksum = crc.getValue();
+				execute(inFlight, new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							if (error.get() == null)
+							{
+								writeChunk(uuid, chunkOffset, buffer.array(), checksum);
+								transferOffset.add(chunkOffset, chunkOffset + length);
+								transferred(currentTransferred, length);
+							}
+						}
+						catch (Exception e)
+						{
+							error.compareAndSet(null, e);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+				position += length;
+			}
+			while (position < size && error.get() == null && !progressMonitor.js_isCanceled());
+		}
+		finally
+		{
+			// wait for the chunks that are still in flight
+			inFlight.acquire(chunksInFlight);
+		}
+		return error.get();
+	}
+
+	/**
+	 * Receive the chunks of the file after the transfer offset, at most chunksInFlight at the same time.
+	 *
+	 * @return the error that stopped the transfer or null
+	 */
+	private Exception receiveChunks(final UUID uuid, final FileChannel channel, final TransferOffset transferOffset, long size,
+		final AtomicLong currentTransferred) throws Exception
+	{
+		final Semaphore inFlight = new Semaphore(chunksInFlight);
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		long position = transferOffset.get();
+		try
+		{
+			while (position < size && error.get() == null && !progressMonitor.js_isCanceled())
+			{
+				final int length = (int)Math.min(chunkSize, size - position);
+				final long chunkOffset = position;
+				execute(inFlight, new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							if (error.get() == null)
+							{
+								byte[] bytes = readChunk(uuid, chunkOffset, length);
+								if (bytes == null || bytes.length != length)
+								{
+									// the file changed on the server or the read was cut short, the transfer is resumed from the last complete chunk
+									throw new IOException("Received " + (bytes == null ? 0 : bytes.length) + " of " + length + " bytes at offset " + chunkOffset);
+								}
+								ByteBuffer buffer = ByteBuffer.wrap(bytes);
+								while (buffer.hasRemaining())
+								{
+									channel.write(buffer, chunkOffset + buffer.position());
+								}
+								transferOffset.add(chunkOffset, chunkOffset + bytes.length);
+								transferred(currentTransferred, bytes.length);
+							}
+						}
+						catch (Exception e)
+						{
+							error.compareAndSet(null, e);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+				position += length;
+			}
+		}
+		finally
+		{
+			// wait for the chunks that are still in flight
+			inFlight.acquire(chunksInFlight);
+		}
+		return error.get();
+	}
+
+	/**
+	 * Execute the chunk transfer when less than chunksInFlight are running, the transfer must release the permit when done.
+	 */
+	private void execute(Semaphore inFlight, Runnable transfer) throws InterruptedException
+	{
+		inFlight.acquire();
+		try
+		{
+			executor.execute(transfer);
+		}
+		catch (RuntimeException e)
+		{
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private void writeChunk(UUID uuid, long offset, byte[] bytes, long checksum) throws Exception
+	{
+		for (int attempt = 1;; attempt++)
+		{
+			try
+			{
+				service.writeChunk(uuid, offset, bytes, bytes.length, checksum);
+				return;
+			}
+			catch (IOException e)
+			{
+				if (attempt == MAX_CHUNK_RETRIES || progressMonitor.js_isCanceled()) throw e;
+				Thread.sleep(RETRY_DELAY * attempt);
+			}
+		}
+	}
+
+	private byte[] readChunk(UUID uuid, long offset, int length) throws Exception
+	{
+		for (int attempt = 1;; attempt++)
+		{
+			try
+			{
+				return service.readChunk(uuid, offset, length);
+			}
+			catch (IOException e)
+			{
+				if (attempt == MAX_CHUNK_RETRIES || progressMonitor.js_isCanceled()) throw e;
+				Thread.sleep(RETRY_DELAY * attempt);
+			}
+		}
+	}
+
+	private void transferred(AtomicLong currentTransferred, long length) throws InterruptedException
+	{
+		progressMonitor.setCurrentTransferred(currentTransferred.addAndGet(length));
+		progressMonitor.setTotalTransferred(totalTransferred.addAndGet(length));
+		if (progressMonitor.getDelay() > 0)
+		{
+			Thread.sleep(progressMonitor.getDelay()); // to test the process
+		}
+	}
+
+	/**
+	 * The transfer is resumed from offset, the bytes after it will be transferred again.
+	 */
+	private void resetTransferred(AtomicLong currentTransferred, long offset)
+	{
+		long resent = currentTransferred.getAndSet(offset) - offset;
+		progressMonitor.setCurrentTransferred(offset);
+		progressMonitor.setTotalTransferred(totalTransferred.addAndGet(-resent));
+	}
+}
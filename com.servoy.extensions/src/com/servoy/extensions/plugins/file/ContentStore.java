@@ -0,0 +1,447 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Content addressed store for the files in the default folder, so files with the same content are stored only once.<br/>
+ * The content of a file is stored in a blob named after its hash, the files in the default folder are hard links to these blobs.
+ * The file system counts the links to a blob, a blob that is only linked from the store is removed when its last file is deleted or replaced.
+ * Because all files are plain (linked) files, everything that reads files from the default folder keeps working.
+ * <p>
+ * Files in the store must never be written in place, uploads are written to a temporary file that is stored when the transfer is closed.
+ * Code of the file plugin that writes a file in place (or changes its last modified date or permissions) first calls {@link #detach(File, boolean)},
+ * which gives the file its own copy of the content. Other code that writes files in the default folder in place would change all files with the same content,
+ * that is why the store is only used when it is enabled with {@link IFileService#CONTENT_ADDRESSED_STORAGE_PROPERTY}.
+ * <p>
+ * All links to a blob share its last modified date and permissions. The last modified date is set when the first file is linked to the blob
+ * and is not changed when more files are linked to it, so files that had the content already keep their date.
+ * A new file linked to a blob reports the time the content was first stored, an existing file that would get an older date than it had
+ * gets its own copy of the content instead, so its date never goes back.
+ */
+@SuppressWarnings("nls")
+class ContentStore
+{
+	/**
+	 * Name of the folder of the store in the default folder
+	 */
+	static final String FOLDER_NAME = ".content";
+
+	static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * The store of the file server plugin in this jvm, null when files are not stored content addressed
+	 */
+	private static volatile ContentStore active;
+
+	private final File folder;
+	private final File tempFolder;
+
+	/**
+	 * The blobs by the file key (device and inode) they share with the files linked to them
+	 */
+	private final Map<Object, File> blobs = new HashMap<Object, File>();
+
+	private ContentStore(File folder)
+	{
+		this.folder = folder;
+		this.tempFolder = new File(folder, "tmp");
+	}
+
+	/**
+	 * Create the store in the default folder.
+	 *
+	 * @return the store or null when the file system does not support hard links with link counts
+	 */
+	static ContentStore create(File defaultFolder)
+	{
+		ContentStore store = new ContentStore(new File(defaultFolder, FOLDER_NAME));
+		try
+		{
+			if (!Files.getFileStore(defaultFolder.toPath()).supportsFileAttributeView("unix"))
+			{
+				Debug.warn("The file system of the default folder does not report hard link counts, content addressed storage of the file plugin is disabled");
+				return null;
+			}
+			store.load();
+		}
+		catch (IOException e)
+		{
+			Debug.error("Content addressed storage of the file plugin is disabled", e);
+			return null;
+		}
+		active = store;
+		return store;
+	}
+
+	/**
+	 * Stop using the store, files are not detached from it anymore.
+	 */
+	void close()
+	{
+		if (active == this) active = null;
+	}
+
+	/**
+	 * Give the file its own copy of its content when it is linked to a blob of the store, so it can be written in place
+	 * (or its last modified date or permissions can be changed) without changing the other files with the same content.
+	 * This must be called before every in-place write of a file that can be in the default folder, it does nothing when the store is not used.
+	 *
+	 * @param keepContent false when the file is overwritten anyway, the link is then only removed
+	 */
+	static void detach(File file, boolean keepContent) throws IOException
+	{
+		ContentStore store = active;
+		if (store != null && file != null)
+		{
+			store.detachFile(file, keepContent);
+		}
+	}
+
+	private synchronized void detachFile(File file, boolean keepContent) throws IOException
+	{
+		Object key = getFileKey(file);
+		if (key == null || !blobs.containsKey(key))
+		{
+			return;
+		}
+		if (keepContent)
+		{
+			// copy next to the file, so the copy can replace the link in one step
+			Path copy = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + "." + System.nanoTime() + ".tmp").toPath();
+			Files.copy(file.toPath(), copy, StandardCopyOption.COPY_ATTRIBUTES);
+			try
+			{
+				Files.move(copy, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (IOException e)
+			{
+				Files.deleteIfExists(copy);
+				throw e;
+			}
+		}
+		else
+		{
+			Files.delete(file.toPath());
+		}
+		release(key);
+	}
+
+	/**
+	 * Remove the temporary files and the blobs that are not used anymore, that are left when the server stopped during a transfer.
+	 */
+	private synchronized void load() throws IOException
+	{
+		if (!tempFolder.isDirectory() && !tempFolder.mkdirs())
+		{
+			throw new IOException("Cannot create folder " + tempFolder.getAbsolutePath());
+		}
+		File[] tempFiles = tempFolder.listFiles();
+		if (tempFiles != null)
+		{
+			for (File tempFile : tempFiles)
+			{
+				tempFile.delete();
+			}
+		}
+		final Path tempPath = tempFolder.toPath();
+		Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+			{
+				return dir.equals(tempPath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+			{
+				if (getLinkCount(file) <= 1)
+				{
+					Files.delete(file);
+				}
+				else if (attrs.fileKey() != null)
+				{
+					blobs.put(attrs.fileKey(), file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @return true when the file is the store folder or in it
+	 */
+	boolean contains(File canonicalFile)
+	{
+		for (File f = canonicalFile; f != null; f = f.getParentFile())
+		{
+			if (f.equals(folder)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return a new temporary file in the store to write an upload to
+	 */
+	File createTempFile() throws IOException
+	{
+		return File.createTempFile("upload", ".tmp", tempFolder);
+	}
+
+	/**
+	 * Store the content of the temporary file and replace the target with a link to it.
+	 * The temporary file is moved to the store or deleted when the store already has the content.
+	 *
+	 * @param tempFile the temporary file created by {@link #createTempFile()}
+	 * @param hash the hash of the content
+	 * @param target the file in the default folder
+	 */
+	synchronized void store(File tempFile, String hash, File target) throws IOException
+	{
+		File blob = getBlob(hash);
+		if (blob.exists())
+		{
+			Files.delete(tempFile.toPath());
+		}
+		else
+		{
+			File dir = blob.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs())
+			{
+				throw new IOException("Cannot create folder " + dir.getAbsolutePath());
+			}
+			Files.move(tempFile.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			Object key = getFileKey(blob);
+			if (key != null) blobs.put(key, blob);
+		}
+		replace(blob, target);
+	}
+
+	/**
+	 * Replace the target with a link to the content with the hash, when the store has it.
+	 *
+	 * @return true when the store has the content and the target is replaced
+	 */
+	synchronized boolean link(String hash, long size, File target) throws IOException
+	{
+		File blob = getBlob(hash);
+		if (!blob.isFile() || blob.length() != size)
+		{
+			return false;
+		}
+		File dir = target.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+		{
+			throw new IOException("Cannot create folder " + dir.getAbsolutePath());
+		}
+		replace(blob, target);
+		return true;
+	}
+
+	/**
+	 * The file with the key was deleted or replaced, remove its blob when no other file uses it.
+	 *
+	 * @param key the key of the file, see {@link #getFileKey(File)}
+	 */
+	synchronized void release(Object key)
+	{
+		if (key == null) return;
+		File blob = blobs.get(key);
+		if (blob == null) return;
+		try
+		{
+			if (getLinkCount(blob.toPath()) <= 1)
+			{
+				Files.delete(blob.toPath());
+				blobs.remove(key);
+			}
+		}
+		catch (IOException e)
+		{
+			Debug.warn("Could not remove unused content " + blob.getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the key that identifies the content of the file (the same for all links to a blob) or null when the file does not exist
+	 */
+	Object getFileKey(File file)
+	{
+		try
+		{
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Link the target to the blob, the new link replaces the target in one step so readers never see a missing or partial file.
+	 */
+	private void replace(File blob, File target) throws IOException
+	{
+		Object oldKey = getFileKey(target);
+		if (oldKey != null && !oldKey.equals(getFileKey(blob)) && getLinkCount(blob.toPath()) > 1 && target.lastModified() >= blob.lastModified())
+		{
+			// the date of the blob is shared with its other files and cannot be changed, the target would get an older date
+			copy(blob, target);
+			release(oldKey);
+			return;
+		}
+		Path link = new File(tempFolder, "link" + System.nanoTime() + ".tmp").toPath();
+		try
+		{
+			Files.createLink(link, blob.toPath());
+		}
+		catch (FileAlreadyExistsException e)
+		{
+			link = createTempFile().toPath();
+			Files.delete(link);
+			Files.createLink(link, blob.toPath());
+		}
+		try
+		{
+			Files.move(link, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			if (getLinkCount(blob.toPath()) <= 2)
+			{
+				// the only file of the blob has the time it was stored, once other files use the blob its date is not changed anymore
+				Files.setLastModifiedTime(blob.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+			}
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			// the target is on another file store (a mounted folder) that cannot link to the blob, it gets its own copy
+			Files.delete(link);
+			copy(blob, target);
+			release(getFileKey(blob));
+		}
+		if (oldKey != null && !oldKey.equals(getFileKey(target)))
+		{
+			release(oldKey);
+		}
+	}
+
+	/**
+	 * Replace the target with a copy of the blob that is not linked to it, the copy has the current time as last modified date.
+	 */
+	private static void copy(File blob, File target) throws IOException
+	{
+		Path copy = new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + "." + System.nanoTime() + ".tmp").toPath();
+		Files.copy(blob.toPath(), copy);
+		try
+		{
+			Files.setLastModifiedTime(copy, FileTime.fromMillis(System.currentTimeMillis()));
+			Files.move(copy, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException ex)
+		{
+			Files.deleteIfExists(copy);
+			throw ex;
+		}
+	}
+
+	private File getBlob(String hash)
+	{
+		if (hash == null || hash.length() < 8 || !hash.matches("[0-9a-f]+"))
+		{
+			throw new IllegalArgumentException("Invalid content hash " + hash);
+		}
+		return new File(new File(new File(folder, hash.substring(0, 2)), hash.substring(2, 4)), hash);
+	}
+
+	private static int getLinkCount(Path path) throws IOException
+	{
+		return ((Number)Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue();
+	}
+
+	static MessageDigest createDigest(String algorithm)
+	{
+		try
+		{
+			return MessageDigest.getInstance(algorithm);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] digest)
+	{
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++)
+		{
+			chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Hash the content of the file.
+	 *
+	 * @param algorithm the name of the {@link MessageDigest} algorithm
+	 * @return the hex encoded hash
+	 */
+	static String hash(File file, String algorithm) throws IOException
+	{
+		MessageDigest digest = createDigest(algorithm);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer buffer = DirectBufferPool.acquire();
+		try
+		{
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			DirectBufferPool.release(buffer);
+			channel.close();
+		}
+		return toHex(digest.digest());
+	}
+}
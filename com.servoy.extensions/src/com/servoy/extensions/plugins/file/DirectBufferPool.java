@@ -0,0 +1,70 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers used for file channel reads and writes.<br/>
+ * Reading or writing a file channel with a heap buffer makes the jvm copy it to a temporary direct buffer that is cached per thread,
+ * with large chunks and many threads that cache can hold a lot of memory. Large reads and writes are done in pieces through a pooled buffer instead.
+ */
+final class DirectBufferPool
+{
+	static final int BUFFER_SIZE = FileProvider.CHUNK_BUFFER_SIZE;
+
+	private static final int MAX_POOLED_BUFFERS = 32;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	private DirectBufferPool()
+	{
+	}
+
+	/**
+	 * Get a cleared buffer of {@link #BUFFER_SIZE} bytes, it must be released after use.
+	 */
+	static ByteBuffer acquire()
+	{
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+		{
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give the buffer back to the pool.
+	 */
+	static void release(ByteBuffer buffer)
+	{
+		if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS)
+		{
+			buffers.offer(buffer);
+		}
+		else
+		{
+			pooled.decrementAndGet();
+		}
+	}
+}
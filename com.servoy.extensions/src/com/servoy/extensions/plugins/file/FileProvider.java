@@ -21,6 +21,7 @@ import java.awt.Window;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -34,14 +35,24 @@ import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.rmi.RemoteException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
-import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -79,6 +90,9 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 	private static final JSFile[] EMPTY = new JSFile[0];
 	private final Timer timer;
 	private final List<JSFile> trackedFiles = new ArrayList<JSFile>();
+	private ExecutorService transferExecutor;
+	private ForkJoinPool copyPool;
+	private final Set<Closeable> openStreams = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Closeable, Boolean>()));
 
 	/**
 	 * Line Separator constant, used to append to Text file
@@ -92,6 +106,11 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 	 */
 	static final int CHUNK_BUFFER_SIZE = 64 * 1024;
 
+	/**
+	 * Default number of chunks of a file that are streamed at the same time
+	 */
+	static final int DEFAULT_CHUNKS_IN_FLIGHT = 4;
+
 	public FileProvider(FilePlugin plugin)
 	{
 		this.plugin = plugin;
@@ -805,27 +824,74 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 		File destFile = convertToFile(destination);
 		if (sourceFile == null || destFile == null) return false;
 
-		if (destFile.exists())
+		if (sourceFile.equals(destFile)) return false;
+
+		try
 		{
-			destFile.delete();
+			if (FileTreeCopy.isInside(sourceFile, destFile)) return false;
+			// an atomic rename within the file system, else copied and deleted
+			new FileTreeCopy(getCopyPool(), false, null).move(sourceFile, destFile);
+			return true;
 		}
-		else
+		catch (Exception e)
 		{
-			destFile.getAbsoluteFile().getParentFile().mkdirs();
+			Debug.error(e);
 		}
+		return false;
+	}
 
-		if (sourceFile.equals(destFile)) return false;
+	/**
+	 * Moves the file or folder from the source to the destination place in the background, the progress can be followed with the returned monitor.
+	 * Within one file system the file or folder is renamed in one atomic step, else all files are copied in parallel and the source is deleted when the copy succeeded.
+	 * When verify is true the checksum of every copy is compared with its source before the source is deleted.
+	 * The callback function is called when the move is done, with the destination and an exception when the move failed.
+	 *
+	 * @sample
+	 * var monitor = plugins.file.moveFileAsync('/data/archive/2023', '/mnt/backup/2023', moveDone, true);
+	 * monitor.setProgressCallBack(progressCallbackFunction, 2);
+	 *
+	 * function moveDone(destination, exception)
+	 * {
+	 * 	if (exception) application.output('move failed: ' + exception);
+	 * 	else application.output('moved to ' + destination.getAbsolutePath());
+	 * }
+	 *
+	 * @param source the file or folder to move
+	 * @param destination the new file or folder
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_moveFileAsync(Object source, Object destination)
+	{
+		return js_moveFileAsync(source, destination, null, false);
+	}
 
-		if (!sourceFile.renameTo(destFile))
-		{
-			// rename wouldn't work copy it
-			if (!js_copyFile(sourceFile, destFile))
-			{
-				return false;
-			}
-			sourceFile.delete();
-		}
-		return true;
+	/**
+	 * @clonedesc js_moveFileAsync(Object, Object)
+	 * @sampleas js_moveFileAsync(Object, Object)
+	 *
+	 * @param source the file or folder to move
+	 * @param destination the new file or folder
+	 * @param callback the {@link Function} to be called back when the move is done
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_moveFileAsync(Object source, Object destination, Function callback)
+	{
+		return js_moveFileAsync(source, destination, callback, false);
+	}
+
+	/**
+	 * @clonedesc js_moveFileAsync(Object, Object)
+	 * @sampleas js_moveFileAsync(Object, Object)
+	 *
+	 * @param source the file or folder to move
+	 * @param destination the new file or folder
+	 * @param callback the {@link Function} to be called back when the move is done
+	 * @param verify true to compare the checksum of every copied file with its source
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_moveFileAsync(Object source, Object destination, Function callback, boolean verify)
+	{
+		return copyAsync(source, destination, callback, verify, true);
 	}
 
 	/**
@@ -902,41 +968,127 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 			return js_copyFile(sourceDir, destDir);
 		}
 
-		if (destDir.exists())
+		try
 		{
-			if (!destDir.isDirectory())
-			{
-				return false;
-			}
+			// the files are copied in parallel
+			new FileTreeCopy(getCopyPool(), false, null).copy(sourceDir, destDir);
+			return true;
 		}
-		else if (!destDir.mkdirs())
+		catch (Exception e)
 		{
-			return false;
+			Debug.error(e);
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the source folder to the destination folder in the background, the progress can be followed with the returned monitor.
+	 * The files are copied in parallel, when verify is true the checksum of every copy is compared with its source.
+	 * The callback function is called when the copy is done, with the destination and an exception when the copy failed.
+	 *
+	 * @sample
+	 * var monitor = plugins.file.copyFolderAsync('/data/projects', '/mnt/backup/projects', copyDone, true);
+	 * monitor.setProgressCallBack(progressCallbackFunction, 2);
+	 *
+	 * function copyDone(destination, exception)
+	 * {
+	 * 	if (exception) application.output('copy failed: ' + exception);
+	 * 	else application.output('copied to ' + destination.getAbsolutePath());
+	 * }
+	 *
+	 * function progressCallbackFunction(monitor)
+	 * {
+	 * 	application.output(monitor.getTotalTransferredBytes() + ' / ' + monitor.getTotalBytesToTransfer() + ' bytes copied');
+	 * }
+	 *
+	 * @param source the folder (or file) to copy
+	 * @param destination the destination folder (or file)
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_copyFolderAsync(Object source, Object destination)
+	{
+		return js_copyFolderAsync(source, destination, null, false);
+	}
+
+	/**
+	 * @clonedesc js_copyFolderAsync(Object, Object)
+	 * @sampleas js_copyFolderAsync(Object, Object)
+	 *
+	 * @param source the folder (or file) to copy
+	 * @param destination the destination folder (or file)
+	 * @param callback the {@link Function} to be called back when the copy is done
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_copyFolderAsync(Object source, Object destination, Function callback)
+	{
+		return js_copyFolderAsync(source, destination, callback, false);
+	}
+
+	/**
+	 * @clonedesc js_copyFolderAsync(Object, Object)
+	 * @sampleas js_copyFolderAsync(Object, Object)
+	 *
+	 * @param source the folder (or file) to copy
+	 * @param destination the destination folder (or file)
+	 * @param callback the {@link Function} to be called back when the copy is done
+	 * @param verify true to compare the checksum of every copied file with its source
+	 * @return a {@link JSProgressMonitor} object to allow client to subscribe to progress notifications
+	 */
+	public JSProgressMonitor js_copyFolderAsync(Object source, Object destination, Function callback, boolean verify)
+	{
+		return copyAsync(source, destination, callback, verify, false);
+	}
+
+	private JSProgressMonitor copyAsync(Object source, Object destination, Function callback, final boolean verify, final boolean move)
+	{
+		final File sourceFile = convertToFile(source);
+		final File destFile = convertToFile(destination);
+		if (sourceFile == null || destFile == null || sourceFile.equals(destFile) || !sourceFile.exists()) return null;
+		try
+		{
+			// a folder moved into itself would be deleted together with its copy
+			if (move && FileTreeCopy.isInside(sourceFile, destFile)) return null;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return null;
 		}
 
-		boolean succes = true;
-		File[] files = sourceDir.listFiles();
-		if (files != null && files.length > 0)
+		final FunctionDefinition function = (callback == null) ? null : new FunctionDefinition(callback);
+		final JSProgressMonitor progressMonitor = new JSProgressMonitor(this, 0, 0);
+		plugin.getClientPluginAccess().getExecutor().execute(new Runnable()
 		{
-			for (File file : files)
+			public void run()
 			{
-				File dest = new File(destDir, file.getName());
-				if (file.isDirectory())
+				Exception ex = null;
+				try
+				{
+					FileTreeCopy copy = new FileTreeCopy(getCopyPool(), verify, progressMonitor);
+					if (move) copy.move(sourceFile, destFile);
+					else copy.copy(sourceFile, destFile);
+				}
+				catch (Exception e)
+				{
+					Debug.error(e);
+					ex = e;
+				}
+				finally
 				{
-					if (!file.equals(destDir))
+					if (!progressMonitor.js_isCanceled())
 					{
-						succes = (js_copyFolder(file, dest) && succes);
-						if (!succes) return false;
+						progressMonitor.setFinished(true);
 					}
+					progressMonitor.run();
+					progressMonitor.cancel(); // stops the TimerTask
 				}
-				else
+				if (function != null)
 				{
-					succes = (js_copyFile(file, dest) && succes);
-					if (!succes) return false;
+					function.executeAsync(plugin.getClientPluginAccess(), new Object[] { new JSFile(destFile), ex });
 				}
 			}
-		}
-		return succes;
+		});
+		return progressMonitor;
 	}
 
 	/**
@@ -965,68 +1117,8 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 
 		try
 		{
-			if (destFile.exists())
-			{
-				destFile.delete();
-			}
-			else
-			{
-				destFile.getAbsoluteFile().getParentFile().mkdirs();
-			}
-			if (destFile.createNewFile())
-			{
-				FileInputStream fis = null;
-				FileOutputStream fos = null;
-				FileChannel sourceChannel = null;
-				FileChannel destinationChannel = null;
-
-
-				try
-				{
-					fis = new FileInputStream(sourceFile);
-					fos = new FileOutputStream(destFile);
-					sourceChannel = fis.getChannel();
-					destinationChannel = fos.getChannel();
-					// Copy source file to destination file
-					destinationChannel.transferFrom(sourceChannel, 0, sourceChannel.size());
-				}
-				catch (Exception e1)
-				{
-					throw e1;
-				}
-				finally
-				{
-					try
-					{
-						if (sourceChannel != null) sourceChannel.close();
-					}
-					catch (Exception e)
-					{
-					}
-					try
-					{
-						if (destinationChannel != null) destinationChannel.close();
-					}
-					catch (Exception e)
-					{
-					}
-					try
-					{
-						if (fis != null) fis.close();
-					}
-					catch (Exception e)
-					{
-					}
-					try
-					{
-						if (fos != null) fos.close();
-					}
-					catch (Exception e)
-					{
-					}
-				}
-				return true;
-			}
+			new FileTreeCopy(getCopyPool(), false, null).copy(sourceFile, destFile);
+			return true;
 		}
 		catch (Exception e)
 		{
@@ -1034,7 +1126,6 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 			Debug.error(e);
 		}
 		return false;
-
 	}
 
 	/**
@@ -1357,6 +1448,7 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 
 			if (file != null)
 			{
+				ContentStore.detach(file, false);
 				FileOutputStream fos = new FileOutputStream(file);
 				try
 				{
@@ -1579,6 +1671,7 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 			}
 			if (file != null && !file.isDirectory())
 			{
+				ContentStore.detach(file, false);
 				FileOutputStream fos = new FileOutputStream(file);
 				BufferedOutputStream bos = new BufferedOutputStream(fos);
 				bos.write(data);
@@ -1877,152 +1970,392 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 	}
 
 	/**
-	 * Shows a file save dialog. File save is only supported in the SmartClient.
+	 * Opens a text file for reading it line by line, record by record or in chunks, so large files can be processed without loading them in memory.
+	 * The file is read with the default platform encoding or the given charset. The reader must be closed when done.
 	 *
 	 * @sample
-	 * var file = plugins.file.showFileSaveDialog();
-	 * application.output("you've selected file: " + file.getAbsolutePath());
-	 */
-	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
-	public JSFile js_showFileSaveDialog()
-	{
-		return js_showFileSaveDialog((String)null, null);
-	}
-
-	/**
-	 * @clonedesc js_showFileSaveDialog()
-	 * @sampleas js_showFileSaveDialog()
+	 * // process a large comma separated file one record at a time
+	 * var reader = plugins.file.openReader('/import/orders.csv', 'UTF-8');
+	 * if (reader)
+	 * {
+	 * 	try
+	 * 	{
+	 * 		var record;
+	 * 		while ((record = reader.readRecord()) != null)
+	 * 		{
+	 * 			application.output(record.join(' | '));
+	 * 		}
+	 * 	}
+	 * 	finally
+	 * 	{
+	 * 		reader.close();
+	 * 	}
+	 * }
 	 *
-	 * @param fileNameDir JSFile to save.
+	 * @param file JSFile.
+	 * @return the reader or null when the file cannot be read
 	 */
-	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
-	public JSFile js_showFileSaveDialog(JSFile fileNameDir)
+	public JSFileReader js_openReader(JSFile file)
 	{
-		return js_showFileSaveDialog(fileNameDir, null);
+		return openReader(file, null);
 	}
 
 	/**
-	 * @clonedesc js_showFileSaveDialog()
-	 * @sampleas js_showFileSaveDialog()
+	 * @clonedesc js_openReader(JSFile)
+	 * @sampleas js_openReader(JSFile)
 	 *
-	 * @param fileNameDir File (give as file path) to save.
+	 * @param file the file path.
+	 * @return the reader or null when the file cannot be read
 	 */
-	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
-	public JSFile js_showFileSaveDialog(String fileNameDir)
+	public JSFileReader js_openReader(String file)
 	{
-		return js_showFileSaveDialog(fileNameDir, null);
+		return openReader(file, null);
 	}
 
 	/**
-	 * @clonedesc js_showFileSaveDialog()
-	 * @sampleas js_showFileSaveDialog()
-	 * @param fileNameDir JSFile to save
-	 * @param title Dialog title.
+	 * @clonedesc js_openReader(JSFile)
+	 * @sampleas js_openReader(JSFile)
+	 *
+	 * @param file JSFile.
+	 * @param charsetname Charset name.
+	 * @return the reader or null when the file cannot be read
 	 */
-	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
-	public JSFile js_showFileSaveDialog(JSFile fileNameDir, String title)
+	public JSFileReader js_openReader(JSFile file, String charsetname)
 	{
-		return showFileSaveDialog(fileNameDir, title);
+		return openReader(file, charsetname);
 	}
 
 	/**
-	 * @clonedesc js_showFileSaveDialog()
-	 * @sampleas js_showFileSaveDialog()
-	 * @param fileNameDir File to save (specified as file path)
-	 * @param title Dialog title.
+	 * @clonedesc js_openReader(JSFile)
+	 * @sampleas js_openReader(JSFile)
+	 *
+	 * @param file the file path.
+	 * @param charsetname Charset name.
+	 * @return the reader or null when the file cannot be read
 	 */
-	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
-	public JSFile js_showFileSaveDialog(String fileNameDir, String title)
+	public JSFileReader js_openReader(String file, String charsetname)
 	{
-		return showFileSaveDialog(fileNameDir, title);
+		return openReader(file, charsetname);
 	}
 
-	private JSFile showFileSaveDialog(Object fileNameDir, String title)
+	private JSFileReader openReader(Object file, String charsetname)
 	{
-		File file = null;
-		if (fileNameDir != null)
+		try
 		{
-			file = getFileFromArg(fileNameDir, true);
+			File f = getLocalFile(file);
+			Charset cs = getCharset(charsetname);
+			if (f == null || cs == null || !f.isFile()) return null;
+			JSFileReader reader = new JSFileReader(this, FileChannel.open(f.toPath(), StandardOpenOption.READ), cs);
+			openStreams.add(reader);
+			return reader;
 		}
-
-		IClientPluginAccess access = plugin.getClientPluginAccess();
-		if (access.getApplicationType() != IClientPluginAccess.CLIENT && access.getApplicationType() != IClientPluginAccess.RUNTIME)
-			throw new UnsupportedMethodException("File save is only supported in the SmartClient (not in web or headless client)"); //$NON-NLS-1$
-		IRuntimeWindow runtimeWindow = access.getCurrentRuntimeWindow();
-		Window currentWindow = null;
-		if (runtimeWindow instanceof ISmartRuntimeWindow) currentWindow = ((ISmartRuntimeWindow)runtimeWindow).getWindow();
-		File f = FileChooserUtils.getAWriteFile(currentWindow, file, true, title);
-		if (f != null)
+		catch (Exception e)
 		{
-			return new JSFile(f);
+			Debug.error(e);
+			return null;
 		}
-		return null;
 	}
 
 	/**
-	 * Shows a directory selector dialog.
+	 * Opens a text file for writing it piece by piece, so large files can be written without building the whole text in memory.
+	 * The file is written with the default platform encoding or the given charset, an existing file is replaced unless append is true.
+	 * The writer must be closed when done.
 	 *
 	 * @sample
-	 * var dir = plugins.file.showDirectorySelectDialog();
-	 * application.output("you've selected folder: " + dir.getAbsolutePath());
+	 * // export a foundset as a comma separated file
+	 * var writer = plugins.file.openWriter('/export/orders.csv', 'UTF-8');
+	 * if (writer)
+	 * {
+	 * 	try
+	 * 	{
+	 * 		for (var i = 1; i <= foundset.getSize(); i++)
+	 * 		{
+	 * 			var record = foundset.getRecord(i);
+	 * 			writer.writeRecord([record.order_id, record.customer_name, record.amount]);
+	 * 		}
+	 * 	}
+	 * 	finally
+	 * 	{
+	 * 		writer.close();
+	 * 	}
+	 * }
+	 *
+	 * @param file JSFile.
+	 * @return the writer or null when the file cannot be written
 	 */
-	@ServoyClientSupport(ng = false, wc = false, sc = true)
-	public JSFile js_showDirectorySelectDialog()
+	public JSFileWriter js_openWriter(JSFile file)
 	{
-		return js_showDirectorySelectDialog((String)null, null);
+		return openWriter(file, null, false);
 	}
 
 	/**
-	 * @clonedesc js_showDirectorySelectDialog()
-	 * @sampleas js_showDirectorySelectDialog()
+	 * @clonedesc js_openWriter(JSFile)
+	 * @sampleas js_openWriter(JSFile)
 	 *
-	 * @param directory Default directory as JSFile.
+	 * @param file the file path.
+	 * @return the writer or null when the file cannot be written
 	 */
-	@ServoyClientSupport(ng = false, wc = false, sc = true)
-	public JSFile js_showDirectorySelectDialog(JSFile directory)
+	public JSFileWriter js_openWriter(String file)
 	{
-		return js_showDirectorySelectDialog(directory, null);
+		return openWriter(file, null, false);
 	}
 
 	/**
-	 * @clonedesc js_showDirectorySelectDialog()
-	 * @sampleas js_showDirectorySelectDialog()
+	 * @clonedesc js_openWriter(JSFile)
+	 * @sampleas js_openWriter(JSFile)
 	 *
-	 * @param directory Default directory as file path.
+	 * @param file JSFile.
+	 * @param charsetname Charset name.
+	 * @return the writer or null when the file cannot be written
 	 */
-	@ServoyClientSupport(ng = false, wc = false, sc = true)
-	public JSFile js_showDirectorySelectDialog(String directory)
+	public JSFileWriter js_openWriter(JSFile file, String charsetname)
 	{
-		return js_showDirectorySelectDialog(directory, null);
+		return openWriter(file, charsetname, false);
 	}
 
 	/**
-	 * @clonedesc js_showDirectorySelectDialog()
-	 * @sampleas js_showDirectorySelectDialog()
+	 * @clonedesc js_openWriter(JSFile)
+	 * @sampleas js_openWriter(JSFile)
 	 *
-	 * @param directory Default directory as JSFile.
-	 * @param title Dialog title.
+	 * @param file the file path.
+	 * @param charsetname Charset name.
+	 * @return the writer or null when the file cannot be written
 	 */
-	@ServoyClientSupport(ng = false, wc = false, sc = true)
-	public JSFile js_showDirectorySelectDialog(JSFile directory, String title)
+	public JSFileWriter js_openWriter(String file, String charsetname)
 	{
-		return showDirectorySelectDialog(directory, title);
+		return openWriter(file, charsetname, false);
 	}
 
 	/**
-	 * @clonedesc js_showDirectorySelectDialog()
-	 * @sampleas js_showDirectorySelectDialog()
+	 * @clonedesc js_openWriter(JSFile)
+	 * @sampleas js_openWriter(JSFile)
 	 *
-	 * @param directory Default directory as file path.
-	 * @param title Dialog title.
+	 * @param file JSFile.
+	 * @param charsetname Charset name.
+	 * @param append true to write after the content of an existing file
+	 * @return the writer or null when the file cannot be written
 	 */
-	@ServoyClientSupport(ng = false, wc = false, sc = true)
-	public JSFile js_showDirectorySelectDialog(String directory, String title)
+	public JSFileWriter js_openWriter(JSFile file, String charsetname, boolean append)
 	{
-		return showDirectorySelectDialog(directory, title);
+		return openWriter(file, charsetname, append);
 	}
 
-	private JSFile showDirectorySelectDialog(Object directory, String title)
+	/**
+	 * @clonedesc js_openWriter(JSFile)
+	 * @sampleas js_openWriter(JSFile)
+	 *
+	 * @param file the file path.
+	 * @param charsetname Charset name.
+	 * @param append true to write after the content of an existing file
+	 * @return the writer or null when the file cannot be written
+	 */
+	public JSFileWriter js_openWriter(String file, String charsetname, boolean append)
+	{
+		return openWriter(file, charsetname, append);
+	}
+
+	private JSFileWriter openWriter(Object file, String charsetname, boolean append)
+	{
+		try
+		{
+			File f = getLocalFile(file);
+			Charset cs = getCharset(charsetname);
+			if (f == null || cs == null || f.isDirectory()) return null;
+			File dir = f.getAbsoluteFile().getParentFile();
+			if (dir != null && !dir.exists()) dir.mkdirs();
+			ContentStore.detach(f, append);
+			FileChannel channel = append
+				? FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+				: FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			JSFileWriter writer = new JSFileWriter(this, channel, cs);
+			openStreams.add(writer);
+			return writer;
+		}
+		catch (Exception e)
+		{
+			Debug.error(e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the local file of the argument
+	 * @throws IllegalArgumentException when the argument is a server file
+	 */
+	@SuppressWarnings("nls")
+	private File getLocalFile(Object file)
+	{
+		if (file instanceof JSFile && ((JSFile)file).getAbstractFile() instanceof RemoteFile)
+		{
+			throw new IllegalArgumentException("Only local files can be opened for reading or writing");
+		}
+		return file == null ? null : getFileFromArg(file, true);
+	}
+
+	/**
+	 * @return the charset with the name, the default charset for null or null when the charset is not supported
+	 */
+	private static Charset getCharset(String charsetname)
+	{
+		if (charsetname == null) return Charset.defaultCharset();
+		return Charset.isSupported(charsetname) ? Charset.forName(charsetname) : null;
+	}
+
+	/**
+	 * The reader or writer is closed
+	 */
+	void closed(Closeable stream)
+	{
+		openStreams.remove(stream);
+	}
+
+	/**
+	 * Shows a file save dialog. File save is only supported in the SmartClient.
+	 *
+	 * @sample
+	 * var file = plugins.file.showFileSaveDialog();
+	 * application.output("you've selected file: " + file.getAbsolutePath());
+	 */
+	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
+	public JSFile js_showFileSaveDialog()
+	{
+		return js_showFileSaveDialog((String)null, null);
+	}
+
+	/**
+	 * @clonedesc js_showFileSaveDialog()
+	 * @sampleas js_showFileSaveDialog()
+	 *
+	 * @param fileNameDir JSFile to save.
+	 */
+	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
+	public JSFile js_showFileSaveDialog(JSFile fileNameDir)
+	{
+		return js_showFileSaveDialog(fileNameDir, null);
+	}
+
+	/**
+	 * @clonedesc js_showFileSaveDialog()
+	 * @sampleas js_showFileSaveDialog()
+	 *
+	 * @param fileNameDir File (give as file path) to save.
+	 */
+	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
+	public JSFile js_showFileSaveDialog(String fileNameDir)
+	{
+		return js_showFileSaveDialog(fileNameDir, null);
+	}
+
+	/**
+	 * @clonedesc js_showFileSaveDialog()
+	 * @sampleas js_showFileSaveDialog()
+	 * @param fileNameDir JSFile to save
+	 * @param title Dialog title.
+	 */
+	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
+	public JSFile js_showFileSaveDialog(JSFile fileNameDir, String title)
+	{
+		return showFileSaveDialog(fileNameDir, title);
+	}
+
+	/**
+	 * @clonedesc js_showFileSaveDialog()
+	 * @sampleas js_showFileSaveDialog()
+	 * @param fileNameDir File to save (specified as file path)
+	 * @param title Dialog title.
+	 */
+	@ServoyClientSupport(mc = false, wc = false, sc = true, ng = false)
+	public JSFile js_showFileSaveDialog(String fileNameDir, String title)
+	{
+		return showFileSaveDialog(fileNameDir, title);
+	}
+
+	private JSFile showFileSaveDialog(Object fileNameDir, String title)
+	{
+		File file = null;
+		if (fileNameDir != null)
+		{
+			file = getFileFromArg(fileNameDir, true);
+		}
+
+		IClientPluginAccess access = plugin.getClientPluginAccess();
+		if (access.getApplicationType() != IClientPluginAccess.CLIENT && access.getApplicationType() != IClientPluginAccess.RUNTIME)
+			throw new UnsupportedMethodException("File save is only supported in the SmartClient (not in web or headless client)"); //$NON-NLS-1$
+		IRuntimeWindow runtimeWindow = access.getCurrentRuntimeWindow();
+		Window currentWindow = null;
+		if (runtimeWindow instanceof ISmartRuntimeWindow) currentWindow = ((ISmartRuntimeWindow)runtimeWindow).getWindow();
+		File f = FileChooserUtils.getAWriteFile(currentWindow, file, true, title);
+		if (f != null)
+		{
+			return new JSFile(f);
+		}
+		return null;
+	}
+
+	/**
+	 * Shows a directory selector dialog.
+	 *
+	 * @sample
+	 * var dir = plugins.file.showDirectorySelectDialog();
+	 * application.output("you've selected folder: " + dir.getAbsolutePath());
+	 */
+	@ServoyClientSupport(ng = false, wc = false, sc = true)
+	public JSFile js_showDirectorySelectDialog()
+	{
+		return js_showDirectorySelectDialog((String)null, null);
+	}
+
+	/**
+	 * @clonedesc js_showDirectorySelectDialog()
+	 * @sampleas js_showDirectorySelectDialog()
+	 *
+	 * @param directory Default directory as JSFile.
+	 */
+	@ServoyClientSupport(ng = false, wc = false, sc = true)
+	public JSFile js_showDirectorySelectDialog(JSFile directory)
+	{
+		return js_showDirectorySelectDialog(directory, null);
+	}
+
+	/**
+	 * @clonedesc js_showDirectorySelectDialog()
+	 * @sampleas js_showDirectorySelectDialog()
+	 *
+	 * @param directory Default directory as file path.
+	 */
+	@ServoyClientSupport(ng = false, wc = false, sc = true)
+	public JSFile js_showDirectorySelectDialog(String directory)
+	{
+		return js_showDirectorySelectDialog(directory, null);
+	}
+
+	/**
+	 * @clonedesc js_showDirectorySelectDialog()
+	 * @sampleas js_showDirectorySelectDialog()
+	 *
+	 * @param directory Default directory as JSFile.
+	 * @param title Dialog title.
+	 */
+	@ServoyClientSupport(ng = false, wc = false, sc = true)
+	public JSFile js_showDirectorySelectDialog(JSFile directory, String title)
+	{
+		return showDirectorySelectDialog(directory, title);
+	}
+
+	/**
+	 * @clonedesc js_showDirectorySelectDialog()
+	 * @sampleas js_showDirectorySelectDialog()
+	 *
+	 * @param directory Default directory as file path.
+	 * @param title Dialog title.
+	 */
+	@ServoyClientSupport(ng = false, wc = false, sc = true)
+	public JSFile js_showDirectorySelectDialog(String directory, String title)
+	{
+		return showDirectorySelectDialog(directory, title);
+	}
+
+	private JSFile showDirectorySelectDialog(Object directory, String title)
 	{
 		File f = null;
 		if (directory != null)
@@ -2149,7 +2482,7 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 
 	public Class< ? >[] getAllReturnedTypes()
 	{
-		return new Class[] { JSFile.class, JSProgressMonitor.class };
+		return new Class[] { JSFile.class, JSProgressMonitor.class, JSFileReader.class, JSFileWriter.class };
 	}
 
 
@@ -2233,6 +2566,7 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 					if (runtimeWindow instanceof ISmartRuntimeWindow) currentWindow = ((ISmartRuntimeWindow)runtimeWindow).getWindow();
 					f = FileChooserUtils.getAWriteFile(currentWindow, f, false);
 				}
+				ContentStore.detach(f, true);
 				FileOutputStream fos = new FileOutputStream(f, true);
 				try
 				{
@@ -2431,6 +2765,118 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 		return getRemoteFolderContents(targetFolder, fileFilter, fileOption, visibleOption, lockedOption);
 	}
 
+	/**
+	 * Returns one page of the content of the specified folder on the server side, so folders with many files can be browsed page by page.
+	 * The content can be filtered by a glob pattern on the name and by type, and sorted by name, size or lastModified (prefixed by - for descending order).
+	 * Folder listings are cached on the server and updated when the folder changes.
+	 *
+	 * @sample
+	 * // browse the pdf files in the default upload folder, newest first, 100 at a time:
+	 * var offset = 0;
+	 * var files;
+	 * do
+	 * {
+	 * 	files = plugins.file.getRemoteFolderContentsPage(plugins.file.convertToRemoteJSFile('/'), '*.pdf', 1, '-lastModified', offset, 100);
+	 * 	for (var i = 0; i < files.length; i++)
+	 * 	{
+	 * 		application.output(files[i].getName());
+	 * 	}
+	 * 	offset += files.length;
+	 * }
+	 * while (files.length == 100);
+	 *
+	 * @param targetFolder Folder as JSFile object.
+	 * @param glob Glob pattern the file names must match, for example *.{png,jpg}, null for all files.
+	 * @param fileOption 0=all, 1=files, 2=dirs
+	 * @param sort name, size or lastModified, prefixed by - for descending order, null for the order of the file system.
+	 * @param offset The number of matching files to skip.
+	 * @param limit The maximum number of files to return, 0 for all files after the offset.
+	 * @return the array of files of the page
+	 */
+	public JSFile[] js_getRemoteFolderContentsPage(JSFile targetFolder, String glob, Number fileOption, String sort, Number offset, Number limit)
+	{
+		return getRemoteFolderContentsPage(targetFolder, glob, fileOption, sort, offset, limit);
+	}
+
+	/**
+	 * Returns one page of the content of the specified folder on the server side, so folders with many files can be browsed page by page.
+	 * The content can be filtered by a glob pattern on the name and by type, and sorted by name, size or lastModified (prefixed by - for descending order).
+	 * Folder listings are cached on the server and updated when the folder changes.
+	 *
+	 * @sample
+	 * // browse the pdf files in the default upload folder, newest first, 100 at a time:
+	 * var offset = 0;
+	 * var files;
+	 * do
+	 * {
+	 * 	files = plugins.file.getRemoteFolderContentsPage('/', '*.pdf', 1, '-lastModified', offset, 100);
+	 * 	for (var i = 0; i < files.length; i++)
+	 * 	{
+	 * 		application.output(files[i].getName());
+	 * 	}
+	 * 	offset += files.length;
+	 * }
+	 * while (files.length == 100);
+	 *
+	 * @param targetFolder Folder path.
+	 * @param glob Glob pattern the file names must match, for example *.{png,jpg}, null for all files.
+	 * @param fileOption 0=all, 1=files, 2=dirs
+	 * @param sort name, size or lastModified, prefixed by - for descending order, null for the order of the file system.
+	 * @param offset The number of matching files to skip.
+	 * @param limit The maximum number of files to return, 0 for all files after the offset.
+	 * @return the array of files of the page
+	 */
+	public JSFile[] js_getRemoteFolderContentsPage(String targetFolder, String glob, Number fileOption, String sort, Number offset, Number limit)
+	{
+		return getRemoteFolderContentsPage(targetFolder, glob, fileOption, sort, offset, limit);
+	}
+
+	private JSFile[] getRemoteFolderContentsPage(Object targetFolder, String glob, Number fileOption, String sort, Number offset, Number limit)
+	{
+		if (targetFolder == null) return EMPTY;
+		final String serverFileName = getRemoteFolderPath(targetFolder);
+		try
+		{
+			final IFileService service = getFileService();
+			final String clientId = plugin.getClientPluginAccess().getClientID();
+			final RemoteFileData[] remoteList = service.getRemoteFolderContent(clientId, serverFileName, glob, getNumberAsInt(fileOption, AbstractFile.ALL),
+				AbstractFile.ALL, AbstractFile.ALL, sort, getNumberAsInt(offset, 0), getNumberAsInt(limit, 0));
+			if (remoteList != null)
+			{
+				final JSFile[] files = new JSFile[remoteList.length];
+				for (int i = 0; i < files.length; i++)
+				{
+					files[i] = new JSFile(new RemoteFile(remoteList[i], service, clientId));
+				}
+				return files;
+			}
+			else
+			{
+				return EMPTY;
+			}
+		}
+		catch (Exception ex)
+		{
+			Debug.error(ex);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("nls")
+	private String getRemoteFolderPath(Object targetFolder)
+	{
+		if (targetFolder instanceof JSFile)
+		{
+			IAbstractFile abstractFile = ((JSFile)targetFolder).getAbstractFile();
+			if (abstractFile instanceof RemoteFile)
+			{
+				return ((RemoteFile)abstractFile).getAbsolutePath();
+			}
+			throw new IllegalArgumentException("Local file path doesn't make sense for the getRemoteDirList method");
+		}
+		return targetFolder.toString();
+	}
+
 	@SuppressWarnings("nls")
 	private JSFile[] getRemoteFolderContents(Object targetFolder, Object fileFilter, Number fileOption, Number visibleOption, Number lockedOption)
 	{
@@ -2457,23 +2903,7 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 			}
 		}
 
-		String serverFileName = null;
-		if (targetFolder instanceof JSFile)
-		{
-			IAbstractFile abstractFile = ((JSFile)targetFolder).getAbstractFile();
-			if (abstractFile instanceof RemoteFile)
-			{
-				serverFileName = ((RemoteFile)abstractFile).getAbsolutePath();
-			}
-			else
-			{
-				throw new IllegalArgumentException("Local file path doesn't make sense for the getRemoteDirList method");
-			}
-		}
-		else
-		{
-			serverFileName = targetFolder.toString();
-		}
+		String serverFileName = getRemoteFolderPath(targetFolder);
 		try
 		{
 			final IFileService service = getFileService();
@@ -2971,139 +3401,237 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 		{
 			timer.cancel();
 		}
+		Closeable[] streams;
+		synchronized (openStreams)
+		{
+			streams = openStreams.toArray(new Closeable[openStreams.size()]);
+		}
+		for (Closeable stream : streams)
+		{
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+				Debug.error(e);
+			}
+		}
+		synchronized (this)
+		{
+			if (transferExecutor != null)
+			{
+				transferExecutor.shutdown();
+				transferExecutor = null;
+			}
+			if (copyPool != null)
+			{
+				copyPool.shutdown();
+				copyPool = null;
+			}
+		}
 	}
 
-	private final class FromServerWorker implements Runnable
+	/**
+	 * The pool that copies the files of folders in parallel, copying is io bound so it uses at least 4 threads
+	 */
+	synchronized ForkJoinPool getCopyPool()
 	{
-		private final File[] files;
-		private final RemoteFile[] remoteFiles;
-		private final FunctionDefinition function;
-		private final JSProgressMonitor progressMonitor;
-		private final IFileService service;
+		if (copyPool == null)
+		{
+			copyPool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+		}
+		return copyPool;
+	}
+
+	/**
+	 * The executor for the chunks and files that are streamed at the same time, threads are created when needed
+	 */
+	synchronized Executor getTransferExecutor()
+	{
+		if (transferExecutor == null)
+		{
+			transferExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+			{
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "File plugin transfer"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return transferExecutor;
+	}
+
+	/**
+	 * Get a numeric transfer setting from the client settings
+	 *
+	 * @param property the property key, see {@link IFileService}
+	 * @param defaultValue the value when the property is not set
+	 */
+	private int getTransferSetting(String property, int defaultValue)
+	{
+		String value = plugin.getClientPluginAccess().getSettings().getProperty(property);
+		if (value != null)
+		{
+			try
+			{
+				return Integer.parseInt(value.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				Debug.warn("Invalid value '" + value + "' for property " + property); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Streams the files in chunks, the configured number of files at the same time
+	 */
+	private abstract class TransferWorker implements Runnable
+	{
+		protected final FunctionDefinition function;
+		protected final JSProgressMonitor progressMonitor;
+		protected final IFileService service;
+		protected final String clientId;
+		protected final ChunkedFileTransfer transfer;
+		private final int fileCount;
+		private final AtomicInteger nextFile = new AtomicInteger();
 
 		/**
-		 * @param files
-		 * @param remoteFiles
+		 * @param fileCount
 		 * @param function
 		 * @param progressMonitor
 		 * @param service
 		 */
-		public FromServerWorker(final File[] files, RemoteFile[] remoteFiles, final FunctionDefinition function, final JSProgressMonitor progressMonitor,
-			final IFileService service)
+		TransferWorker(final int fileCount, final FunctionDefinition function, final JSProgressMonitor progressMonitor, final IFileService service)
 		{
-			this.files = files;
-			this.remoteFiles = remoteFiles;
+			this.fileCount = fileCount;
 			this.function = function;
 			this.progressMonitor = progressMonitor;
 			this.service = service;
+			this.clientId = plugin.getClientPluginAccess().getClientID();
+			this.transfer = new ChunkedFileTransfer(service, clientId, getTransferSetting(IFileService.TRANSFER_CHUNK_SIZE_PROPERTY, CHUNK_BUFFER_SIZE),
+				getTransferSetting(IFileService.TRANSFER_CHUNKS_IN_FLIGHT_PROPERTY, DEFAULT_CHUNKS_IN_FLIGHT), getTransferExecutor(), progressMonitor,
+				new AtomicLong());
 		}
 
 		public void run()
 		{
 			try
 			{
-				long totalTransfered = 0L;
-				final String clientId = plugin.getClientPluginAccess().getClientID();
-				for (int i = 0; i < files.length; i++)
+				int parallelFiles = Math.min(getTransferSetting(IFileService.TRANSFER_PARALLEL_FILES_PROPERTY, 1), fileCount);
+				final CountDownLatch done = new CountDownLatch(Math.max(parallelFiles - 1, 0));
+				for (int i = 1; i < parallelFiles; i++)
 				{
-					UUID uuid = null;
-					OutputStream os = null;
-					Exception ex = null;
-					File file = files[i];
-					if (file != null)
+					getTransferExecutor().execute(new Runnable()
 					{
-						RemoteFile remote = remoteFiles[i];
-						try
-						{
-							if (file.exists() || file.createNewFile())
-							{
-								long currentTransferred = 0L;
-								progressMonitor.setCurrentFileName(remote.getAbsolutePath());
-								progressMonitor.setCurrentBytes(remote.size());
-								progressMonitor.setCurrentFileIndex(i + 1);
-								progressMonitor.setCurrentTransferred(0L);
-
-								os = new FileOutputStream(file);
-								uuid = service.openTransfer(clientId, remote.getAbsolutePath());
-								if (uuid != null)
-								{
-									byte[] bytes = service.readBytes(uuid, CHUNK_BUFFER_SIZE);
-									while (bytes != null && !progressMonitor.js_isCanceled())
-									{
-										os.write(bytes);
-										totalTransfered += bytes.length;
-										currentTransferred += bytes.length;
-										progressMonitor.setTotalTransferred(totalTransfered);
-										progressMonitor.setCurrentTransferred(currentTransferred);
-										if (progressMonitor.getDelay() > 0)
-										{
-											Thread.sleep(progressMonitor.getDelay()); // to test the process
-										}
-										// check for the length (this results in 1 less call to the server)
-										if (bytes.length == CHUNK_BUFFER_SIZE)
-										{
-											bytes = service.readBytes(uuid, CHUNK_BUFFER_SIZE);
-										}
-										else break;
-									}
-								}
-							}
-						}
-						catch (final Exception e)
-						{
-							Debug.error(e);
-							ex = e;
-						}
-						finally
+						public void run()
 						{
 							try
 							{
-								if (uuid != null) service.closeTransfer(uuid);
-							}
-							catch (final RemoteException ignore)
-							{
-							}
-							try
-							{
-								if (os != null) os.close();
-							}
-							catch (final IOException ignore)
-							{
+								transferFiles();
 							}
-							if (function != null && !progressMonitor.js_isCanceled())
+							finally
 							{
-								function.executeAsync(plugin.getClientPluginAccess(), new Object[] { new JSFile(file), ex });
-							}
-							if (progressMonitor.js_isCanceled())
-							{
-								file.delete();
-								progressMonitor.run();
-								break;
+								done.countDown();
 							}
 						}
-					}
+					});
 				}
+				transferFiles();
+				done.await();
+			}
+			catch (final InterruptedException e)
+			{
+				Debug.error(e);
 			}
 			finally
 			{
 				if (!progressMonitor.js_isCanceled())
 				{
 					progressMonitor.setFinished(true);
-					progressMonitor.run();
 				}
+				progressMonitor.run();
 				progressMonitor.cancel(); // stops the TimerTask
 			}
 		}
+
+		private void transferFiles()
+		{
+			int index;
+			while (!progressMonitor.js_isCanceled() && (index = nextFile.getAndIncrement()) < fileCount)
+			{
+				transferFile(index);
+			}
+		}
+
+		/**
+		 * Stream the file at the given index
+		 */
+		protected abstract void transferFile(int index);
 	}
 
-	private final class ToServerWorker implements Runnable
+	private final class FromServerWorker extends TransferWorker
 	{
+		private final File[] files;
+		private final RemoteFile[] remoteFiles;
+
+		/**
+		 * @param files
+		 * @param remoteFiles
+		 * @param function
+		 * @param progressMonitor
+		 * @param service
+		 */
+		public FromServerWorker(final File[] files, RemoteFile[] remoteFiles, final FunctionDefinition function, final JSProgressMonitor progressMonitor,
+			final IFileService service)
+		{
+			super(files.length, function, progressMonitor, service);
+			this.files = files;
+			this.remoteFiles = remoteFiles;
+		}
+
+		@Override
+		protected void transferFile(int index)
+		{
+			final File file = files[index];
+			if (file != null)
+			{
+				final RemoteFile remote = remoteFiles[index];
+				Exception ex = null;
+				try
+				{
+					progressMonitor.setCurrentFileName(remote.getAbsolutePath());
+					progressMonitor.setCurrentBytes(remote.size());
+					progressMonitor.setCurrentFileIndex(index + 1);
+					progressMonitor.setCurrentTransferred(0L);
+
+					transfer.download(remote, file);
+				}
+				catch (final Exception e)
+				{
+					Debug.error(e);
+					ex = e;
+				}
+				if (function != null && !progressMonitor.js_isCanceled())
+				{
+					function.executeAsync(plugin.getClientPluginAccess(), new Object[] { new JSFile(file), ex });
+				}
+				if (progressMonitor.js_isCanceled())
+				{
+					file.delete();
+				}
+			}
+		}
+	}
 
+	private final class ToServerWorker extends TransferWorker
+	{
 		private final File[] files;
 		private final Object[] serverFiles;
-		private final FunctionDefinition function;
-		private final JSProgressMonitor progressMonitor;
-		private final IFileService service;
 
 		/**
 		 * @param files
@@ -3115,139 +3643,75 @@ public class FileProvider implements IReturnedTypesProvider, IScriptable
 		public ToServerWorker(final File[] files, final Object[] serverFiles, final FunctionDefinition function, final JSProgressMonitor progressMonitor,
 			final IFileService service)
 		{
+			super(files.length, function, progressMonitor, service);
 			this.files = files;
 			this.serverFiles = serverFiles;
-			this.function = function;
-			this.progressMonitor = progressMonitor;
-			this.service = service;
 		}
 
-		public void run()
+		@Override
+		protected void transferFile(int index)
 		{
-			try
+			final File file = files[index];
+			if (file != null)
 			{
-				long totalTransfered = 0L;
-				for (int i = 0; i < files.length; i++)
+				// the serverName can be derived from an Array of String, at the same index as the file
+				String serverFileName = null;
+				if (serverFiles != null && index < serverFiles.length)
 				{
-					final File file = files[i];
-					if (file != null)
+					if (serverFiles[index] instanceof JSFile)
 					{
-						// the serverName can be derived from an Array of String, at the same index as the file
-						String serverFileName = null;
-						if (serverFiles != null && i < serverFiles.length)
+						JSFile jsFile = (JSFile)serverFiles[index];
+						IAbstractFile abstractFile = jsFile.getAbstractFile();
+						if (abstractFile instanceof RemoteFile)
 						{
-							if (serverFiles[i] instanceof JSFile)
-							{
-								JSFile jsFile = (JSFile)serverFiles[i];
-								IAbstractFile abstractFile = jsFile.getAbstractFile();
-								if (abstractFile instanceof RemoteFile)
-								{
-									serverFileName = ((RemoteFile)abstractFile).getAbsolutePath();
-								}
-								else
-								{
-									serverFileName = abstractFile.getName();
-								}
-							}
-							else
-							{
-								serverFileName = serverFiles[i].toString();
-							}
+							serverFileName = ((RemoteFile)abstractFile).getAbsolutePath();
 						}
 						else
 						{
-							serverFileName = "/" + file.getName(); //$NON-NLS-1$
-						}
-
-						long currentTransferred = 0L;
-						progressMonitor.setCurrentFileName(file.getAbsolutePath());
-						progressMonitor.setCurrentBytes(file.length());
-						progressMonitor.setCurrentFileIndex(i + 1);
-						progressMonitor.setCurrentTransferred(0L);
-
-						final String clientId = plugin.getClientPluginAccess().getClientID();
-						UUID uuid = null;
-						RemoteFileData remoteFile = null;
-						InputStream is = null;
-						Exception ex = null;
-						try
-						{
-							is = new FileInputStream(file);
-							uuid = service.openTransfer(clientId, serverFileName);
-							if (uuid != null)
-							{
-								byte[] buffer = new byte[CHUNK_BUFFER_SIZE];
-								int read = is.read(buffer);
-								while (read > -1 && !progressMonitor.js_isCanceled())
-								{
-									service.writeBytes(uuid, buffer, 0, read);
-									totalTransfered += read;
-									currentTransferred += read;
-									progressMonitor.setTotalTransferred(totalTransfered);
-									progressMonitor.setCurrentTransferred(currentTransferred);
-
-									if (progressMonitor.getDelay() > 0)
-									{
-										Thread.sleep(progressMonitor.getDelay()); // to test the process
-									}
-
-									read = is.read(buffer);
-								}
-							}
-						}
-						catch (final Exception e)
-						{
-							Debug.error(e);
-							ex = e;
-						}
-						finally
-						{
-							try
-							{
-								if (uuid != null)
-								{
-									remoteFile = (RemoteFileData)service.closeTransfer(uuid);
-								}
-							}
-							catch (final RemoteException ignore)
-							{
-							}
-							try
-							{
-								if (is != null) is.close();
-							}
-							catch (final IOException ignore)
-							{
-							}
-							if (function != null && !progressMonitor.js_isCanceled())
-							{
-								final JSFile returnedFile = (remoteFile == null) ? null : new JSFile(new RemoteFile(remoteFile, service, clientId));
-								function.executeAsync(plugin.getClientPluginAccess(), new Object[] { returnedFile, ex });
-							}
-							if (progressMonitor.js_isCanceled())
-							{
-								try
-								{
-									service.delete(clientId, remoteFile.getAbsolutePath());
-									progressMonitor.run();
-									break;
-								}
-								catch (final IOException ignore)
-								{
-								}
-							}
+							serverFileName = abstractFile.getName();
 						}
 					}
+					else
+					{
+						serverFileName = serverFiles[index].toString();
+					}
 				}
-			}
-			finally
-			{
-				if (!progressMonitor.js_isCanceled())
+				else
 				{
-					progressMonitor.setFinished(true);
-					progressMonitor.run();
+					serverFileName = "/" + file.getName(); //$NON-NLS-1$
+				}
+
+				progressMonitor.setCurrentFileName(file.getAbsolutePath());
+				progressMonitor.setCurrentBytes(file.length());
+				progressMonitor.setCurrentFileIndex(index + 1);
+				progressMonitor.setCurrentTransferred(0L);
+
+				RemoteFileData remoteFile = null;
+				Exception ex = null;
+				try
+				{
+					remoteFile = transfer.upload(file, serverFileName);
+				}
+				catch (final Exception e)
+				{
+					Debug.error(e);
+					ex = e;
+				}
+				if (function != null && !progressMonitor.js_isCanceled())
+				{
+					final JSFile returnedFile = (remoteFile == null) ? null : new JSFile(new RemoteFile(remoteFile, service, clientId));
+					function.executeAsync(plugin.getClientPluginAccess(), new Object[] { returnedFile, ex });
+				}
+				if (progressMonitor.js_isCanceled() && remoteFile != null)
+				{
+					try
+					{
+						service.delete(clientId, remoteFile.getAbsolutePath());
+					}
+					catch (final IOException ignore)
+					{
+					}
 				}
-				progressMonitor.cancel(); // stops the TimerTask
 			}
 		}
 	}
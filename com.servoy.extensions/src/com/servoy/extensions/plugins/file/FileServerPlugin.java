@@ -18,8 +18,10 @@
 package com.servoy.extensions.plugins.file;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -27,7 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 import com.servoy.j2db.plugins.IServerAccess;
 import com.servoy.j2db.plugins.IServerPlugin;
@@ -42,10 +44,36 @@ import com.servoy.j2db.util.Debug;
  */
 public class FileServerPlugin implements IServerPlugin, IFileService
 {
+	/**
+	 * Default time in seconds after which an unused transfer is aborted
+	 */
+	private static final int DEFAULT_TRANSFER_IDLE_TIMEOUT = 600;
+
+	/**
+	 * Default maximum number of open transfers of one client
+	 */
+	private static final int DEFAULT_MAX_TRANSFERS_PER_CLIENT = 100;
+
+	/**
+	 * Default maximum number of files and folders in the cached folder listings
+	 */
+	private static final int DEFAULT_LISTING_CACHE_SIZE = 200000;
+
 	/**
 	 * Contains the ITransferObject used per client/file to transfer the byte chunks
 	 */
-	private final Map<UUID, ITransferObject> transferMap = new ConcurrentHashMap<UUID, ITransferObject>();
+	private volatile TransferRegistry transfers;
+
+	/**
+	 * Contains the listings of the server folders that were browsed
+	 */
+	private volatile FolderListingCache listingCache;
+
+	/**
+	 * The store of the file contents or null when files are stored directly
+	 */
+	private volatile ContentStore contentStore;
+	private volatile boolean linkUploads;
 
 	/**
 	 * The default location where files will be saved (or related to it)
@@ -61,6 +89,29 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		final Map<String, String> req = new HashMap<String, String>();
 		req.put(IFileService.DEFAULT_FOLDER_PROPERTY,
 			"Set the default folder path (absolute path on the server) to save files sent by clients (will default to user.home/.servoy/uploads/UUID/)");
+		req.put(IFileService.TRANSFER_CHUNK_SIZE_PROPERTY, "The size in bytes of the chunks used to stream files between client and server (default " +
+			FileProvider.CHUNK_BUFFER_SIZE + ", max " + IFileService.MAX_CHUNK_SIZE + ")");
+		req.put(IFileService.TRANSFER_CHUNKS_IN_FLIGHT_PROPERTY,
+			"The number of chunks of one file that are streamed at the same time, higher values make better use of high latency connections (default " +
+				FileProvider.DEFAULT_CHUNKS_IN_FLIGHT + ")");
+		req.put(IFileService.TRANSFER_PARALLEL_FILES_PROPERTY, "The number of files that are streamed at the same time (default 1)");
+		req.put(IFileService.IMMUTABLE_PATHS_PROPERTY,
+			"Comma separated list of folders (relative to the default folder) with files that never change, these are cached by browsers without checking for changes");
+		req.put(IFileService.TRANSFER_IDLE_TIMEOUT_PROPERTY,
+			"Time in seconds after which a file transfer that is not used anymore is aborted, a partially uploaded file is kept so it can be resumed, 0 to never abort transfers (default " +
+				DEFAULT_TRANSFER_IDLE_TIMEOUT + ")");
+		req.put(IFileService.MAX_TRANSFERS_PER_CLIENT_PROPERTY,
+			"The maximum number of open file transfers of one client, 0 for no maximum (default " + DEFAULT_MAX_TRANSFERS_PER_CLIENT + ")");
+		req.put(IFileService.LISTING_CACHE_SIZE_PROPERTY,
+			"The maximum number of files and folders kept in the cache of server folder listings, the cache is updated when folders change; 0 disables the cache (default " +
+				DEFAULT_LISTING_CACHE_SIZE + ")");
+		req.put(IFileService.CONTENT_ADDRESSED_STORAGE_PROPERTY,
+			"Set to true to store files with the same content only once (as hard links to the content in the " + ContentStore.FOLDER_NAME +
+				" folder of the default folder). Files with the same content share their last modified date and permissions, " +
+				"only enable this when files in the default folder are not written in place by other code than the file plugin (default false)");
+		req.put(IFileService.CONTENT_LINK_UPLOADS_PROPERTY,
+			"Set to true to skip uploads of content that is already stored (with content addressed storage), " +
+				"a client can then find out whether a file with the same content is stored on the server (default false)");
 		return req;
 	}
 
@@ -71,6 +122,14 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	{
 		this.application = app;
 		setDefaultFolder(app.getSettings().getProperty(IFileService.DEFAULT_FOLDER_PROPERTY));
+		transfers = new TransferRegistry(getIntSetting(IFileService.TRANSFER_IDLE_TIMEOUT_PROPERTY, DEFAULT_TRANSFER_IDLE_TIMEOUT) * 1000L,
+			getIntSetting(IFileService.MAX_TRANSFERS_PER_CLIENT_PROPERTY, DEFAULT_MAX_TRANSFERS_PER_CLIENT));
+		listingCache = new FolderListingCache(getIntSetting(IFileService.LISTING_CACHE_SIZE_PROPERTY, DEFAULT_LISTING_CACHE_SIZE));
+		if (defaultFolder != null && Boolean.parseBoolean(app.getSettings().getProperty(IFileService.CONTENT_ADDRESSED_STORAGE_PROPERTY)))
+		{
+			contentStore = ContentStore.create(defaultFolder);
+			linkUploads = Boolean.parseBoolean(app.getSettings().getProperty(IFileService.CONTENT_LINK_UPLOADS_PROPERTY));
+		}
 		try
 		{
 			app.registerRemoteService(IFileService.class.getName(), this);
@@ -82,6 +141,24 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		app.registerWebService("file", new FileServlet(this, app));
 	}
 
+	@SuppressWarnings("nls")
+	private int getIntSetting(String property, int defaultValue)
+	{
+		String value = application.getSettings().getProperty(property);
+		if (value != null)
+		{
+			try
+			{
+				return Integer.parseInt(value.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				Debug.warn("Invalid value '" + value + "' for property " + property);
+			}
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Initializes the default folder (where the files will be saved)<br/>
 	 * First tries to use the folder received in parameter (if not null)<br/>
@@ -162,16 +239,23 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 
 	/**
 	 * Takes care of releasing resources, especially in case transfers are still on-going,<br/>
-	 * by first closing any opened OutputStream with the help of the ITransferObject<br/>
-	 * then deleting the reference to the {@link ConcurrentHashMap}
+	 * by closing any opened transfer with the help of the ITransferObject
 	 */
 	public void unload() throws PluginException
 	{
 		defaultFolder = null;
-		for (final UUID key : transferMap.keySet())
+		if (contentStore != null)
+		{
+			contentStore.close();
+			contentStore = null;
+		}
+		if (transfers != null)
 		{
-			ITransferObject trans = transferMap.remove(key);
-			trans.close();
+			transfers.closeAll();
+		}
+		if (listingCache != null)
+		{
+			listingCache.close();
 		}
 	}
 
@@ -180,8 +264,18 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	 *
 	 * @see com.servoy.extensions.plugins.file.IFileService#openTransfer(String,String)
 	 */
-	@SuppressWarnings("nls")
 	public UUID openTransfer(final String clientId, final String filePath) throws IOException, SecurityException
+	{
+		return openTransfer(clientId, filePath, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#openTransfer(String,String,boolean)
+	 */
+	@SuppressWarnings("nls")
+	public UUID openTransfer(final String clientId, final String filePath, final boolean resume) throws IOException, SecurityException
 	{
 		securityCheck(clientId, filePath);
 		final File f = new File(defaultFolder, filePath);
@@ -191,10 +285,16 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		}
 		final RemoteFileData parent = FilePluginUtils.constructHierarchy(f, defaultFolder);
 		final RemoteFileData fileData = new RemoteFileData(f, parent);
-		final ITransferObject to = new ToFileTransferObject(f, fileData);
-		final UUID id = UUID.randomUUID();
-		transferMap.put(id, to);
-		return id;
+		final String key = f.getCanonicalPath();
+		if (resume)
+		{
+			// a client that lost its transfer continues from the bytes received by it, the old transfer must not write or remove them anymore
+			transfers.takeOver(key);
+		}
+		final ITransferObject to = new ToFileTransferObject(f, fileData, resume, contentStore);
+		final UUID uuid = transfers.open(clientId, key, to);
+		invalidateListing(f);
+		return uuid;
 	}
 
 	/*
@@ -212,52 +312,16 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		{
 			throw new SecurityException("Browsing on the server out of the defaultFolder is not allowed");
 		}
-		final RemoteFileData parent = FilePluginUtils.constructHierarchy(f, defaultFolder);
 		if (f.isDirectory())
 		{
 			final List<RemoteFileData> list = new ArrayList<RemoteFileData>();
-			final FileFilter ff = new FileFilter()
+			final boolean inDefaultFolder = defaultFolder.equals(f.getCanonicalFile());
+			for (RemoteFileData file : listingCache.get(f, f.getCanonicalFile(), defaultFolder).entries)
 			{
-				public boolean accept(File pathname)
+				if (!(inDefaultFolder && isContentStore(file)) && accept(file, fileFilter, filesOption, visibleOption, lockedOption))
 				{
-					boolean retVal = true;
-					if (fileFilter != null)
-					{
-						String name = pathname.getName().toLowerCase();
-						for (String element : fileFilter)
-						{
-							retVal = name.endsWith(element);
-							if (retVal) break;
-						}
-					}
-					if (!retVal) return retVal;
-
-					// file or folder
-					if (filesOption == AbstractFile.FILES)
-					{
-						retVal = pathname.isFile();
-					}
-					else if (filesOption == AbstractFile.FOLDERS)
-					{
-						retVal = pathname.isDirectory();
-					}
-					if (!retVal) return false;
-
-					boolean hidden = pathname.isHidden();
-					if (visibleOption == AbstractFile.VISIBLE) retVal = !hidden;
-					else if (visibleOption == AbstractFile.NON_VISIBLE) retVal = hidden;
-					if (!retVal) return false;
-
-					boolean canWrite = pathname.canWrite();
-					if (lockedOption == AbstractFile.LOCKED) retVal = !canWrite;
-					else if (lockedOption == AbstractFile.NON_LOCKED) retVal = canWrite;
-					return retVal;
+					list.add(file);
 				}
-			};
-			final File[] files = f.listFiles(ff);
-			for (final File file : files)
-			{
-				list.add(new RemoteFileData(file, parent));
 			}
 			return list.toArray(new RemoteFileData[0]);
 		}
@@ -265,6 +329,7 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		{
 			if (f.exists())
 			{
+				final RemoteFileData parent = FilePluginUtils.constructHierarchy(f, defaultFolder);
 				if (filesOption == AbstractFile.ALL || filesOption == AbstractFile.FILES)
 				{
 					if (visibleOption == AbstractFile.ALL || (visibleOption == AbstractFile.VISIBLE && !f.isHidden()) ||
@@ -282,6 +347,116 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#getRemoteFolderContent(String,String,String,int,int,int,String,int,int)
+	 */
+	@SuppressWarnings("nls")
+	public RemoteFileData[] getRemoteFolderContent(final String clientId, final String path, final String glob, final int filesOption,
+		final int visibleOption, final int lockedOption, final String sort, final int offset, final int limit)
+		throws RemoteException, IOException, SecurityException
+	{
+		securityCheck(clientId, path);
+		final File f = new File(defaultFolder, path);
+		if (!FilePluginUtils.checkParentFile(f.getCanonicalFile(), defaultFolder))
+		{
+			throw new SecurityException("Browsing on the server out of the defaultFolder is not allowed");
+		}
+		if (!f.isDirectory())
+		{
+			return null;
+		}
+		if (offset < 0 || limit < 0)
+		{
+			throw new IllegalArgumentException("Invalid page with offset " + offset + " and limit " + limit);
+		}
+		final PathMatcher matcher = (glob == null || glob.length() == 0) ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		final RemoteFileData[] entries = listingCache.get(f, f.getCanonicalFile(), defaultFolder).getEntries(sort);
+		final boolean inDefaultFolder = defaultFolder.equals(f.getCanonicalFile());
+		// offset + limit can overflow
+		final int end = limit == 0 || offset > Integer.MAX_VALUE - limit ? Integer.MAX_VALUE : offset + limit;
+		final List<RemoteFileData> page = new ArrayList<RemoteFileData>(Math.min(limit == 0 ? entries.length : limit, entries.length));
+		int matched = 0;
+		for (int i = 0; i < entries.length && matched < end; i++)
+		{
+			RemoteFileData file = entries[i];
+			if (!(inDefaultFolder && isContentStore(file)) && (matcher == null || matcher.matches(Paths.get(file.getName()))) &&
+				accept(file, null, filesOption, visibleOption, lockedOption))
+			{
+				if (matched >= offset) page.add(file);
+				matched++;
+			}
+		}
+		return page.toArray(new RemoteFileData[page.size()]);
+	}
+
+	/**
+	 * Test the file against the filter and options of a folder listing.
+	 */
+	private static boolean accept(RemoteFileData file, String[] fileFilter, int filesOption, int visibleOption, int lockedOption)
+	{
+		boolean retVal = true;
+		if (fileFilter != null)
+		{
+			String name = file.getName().toLowerCase();
+			for (String element : fileFilter)
+			{
+				retVal = name.endsWith(element);
+				if (retVal) break;
+			}
+		}
+		if (!retVal) return retVal;
+
+		// file or folder
+		if (filesOption == AbstractFile.FILES)
+		{
+			retVal = file.isFile();
+		}
+		else if (filesOption == AbstractFile.FOLDERS)
+		{
+			retVal = file.isDirectory();
+		}
+		if (!retVal) return false;
+
+		boolean hidden = file.isHidden();
+		if (visibleOption == AbstractFile.VISIBLE) retVal = !hidden;
+		else if (visibleOption == AbstractFile.NON_VISIBLE) retVal = hidden;
+		if (!retVal) return false;
+
+		boolean canWrite = file.canWrite();
+		if (lockedOption == AbstractFile.LOCKED) retVal = !canWrite;
+		else if (lockedOption == AbstractFile.NON_LOCKED) retVal = canWrite;
+		return retVal;
+	}
+
+	/**
+	 * @return true when the file of the default folder is the folder of the content store
+	 */
+	private boolean isContentStore(RemoteFileData file)
+	{
+		return contentStore != null && file.isDirectory() && ContentStore.FOLDER_NAME.equals(file.getName());
+	}
+
+	/**
+	 * The folder of the file changed, remove its listing from the cache.
+	 */
+	private void invalidateListing(File file)
+	{
+		File folder = file.getParentFile();
+		if (folder != null && listingCache != null)
+		{
+			try
+			{
+				listingCache.invalidate(folder.getCanonicalFile());
+			}
+			catch (IOException e)
+			{
+				Debug.error(e);
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -348,6 +523,10 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 			throw new SecurityException("Rejected unauthenticated access");
 		}
 		FilePluginUtils.filePathCheck(filePath);
+		if (contentStore != null && contentStore.contains(new File(defaultFolder, filePath).getCanonicalFile()))
+		{
+			throw new SecurityException("Access to the content store is not allowed");
+		}
 	}
 
 	/*
@@ -359,7 +538,7 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	public void writeBytes(final UUID uuid, final byte[] bytes, final long start, final long length) throws IOException
 	{
 		if (defaultFolder == null) throw new IOException("File Plugin is unloaded");
-		final ITransferObject to = transferMap.get(uuid);
+		final ITransferObject to = transfers.get(uuid);
 		if (to == null) throw new IOException("Unkown uuid for writeBytes");
 		to.write(bytes, start, length);
 	}
@@ -373,11 +552,67 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	public byte[] readBytes(final UUID uuid, final long length) throws RemoteException, IOException
 	{
 		if (defaultFolder == null) throw new IOException("File Plugin is unloaded");
-		final ITransferObject to = transferMap.get(uuid);
+		final ITransferObject to = transfers.get(uuid);
 		if (to == null) throw new IOException("Unkown uuid for readBytes");
 		return to.read(length);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#writeChunk(UUID,long,byte[],int,long)
+	 */
+	@SuppressWarnings("nls")
+	public void writeChunk(final UUID uuid, final long offset, final byte[] bytes, final int length, final long checksum) throws IOException
+	{
+		if (defaultFolder == null) throw new IOException("File Plugin is unloaded");
+		final ITransferObject to = transfers.get(uuid);
+		if (to == null) throw new IOException("Unkown uuid for writeChunk");
+		if (offset < 0 || length < 0 || length > bytes.length || length > MAX_CHUNK_SIZE)
+		{
+			throw new IOException("Invalid chunk at offset " + offset + " with length " + length);
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, length);
+		if (crc.getValue() != checksum)
+		{
+			throw new IOException("Checksum mismatch for chunk at offset " + offset);
+		}
+		to.writeChunk(offset, bytes, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#readChunk(UUID,long,int)
+	 */
+	@SuppressWarnings("nls")
+	public byte[] readChunk(final UUID uuid, final long offset, final int length) throws IOException
+	{
+		if (defaultFolder == null) throw new IOException("File Plugin is unloaded");
+		final ITransferObject to = transfers.get(uuid);
+		if (to == null) throw new IOException("Unkown uuid for readChunk");
+		if (offset < 0 || length < 0 || length > MAX_CHUNK_SIZE)
+		{
+			throw new IOException("Invalid chunk at offset " + offset + " with length " + length);
+		}
+		return to.readChunk(offset, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#getTransferOffset(UUID)
+	 */
+	@SuppressWarnings("nls")
+	public long getTransferOffset(final UUID uuid) throws IOException
+	{
+		if (defaultFolder == null) throw new IOException("File Plugin is unloaded");
+		final ITransferObject to = transfers.get(uuid);
+		if (to == null) throw new IOException("Unkown uuid for getTransferOffset");
+		return to.getTransferOffset();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -385,8 +620,12 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	 */
 	public Object closeTransfer(final UUID uuid)
 	{
-		final ITransferObject to = transferMap.remove(uuid);
-		return (to == null) ? null : to.close();
+		Object result = transfers.close(uuid);
+		if (result instanceof RemoteFileData && ((RemoteFileData)result).getFile() != null)
+		{
+			invalidateListing(((RemoteFileData)result).getFile());
+		}
+		return result;
 	}
 
 	/*
@@ -403,7 +642,54 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 		{
 			throw new SecurityException("Delete  on the server out of the defaultFolder is not allowed");
 		}
-		return f.delete();
+		final ContentStore store = contentStore;
+		final Object key = store != null ? store.getFileKey(f) : null;
+		boolean deleted = f.delete();
+		if (deleted)
+		{
+			invalidateListing(f);
+			if (store != null) store.release(key);
+		}
+		return deleted;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#getContentHashAlgorithm(String)
+	 */
+	public String getContentHashAlgorithm(final String clientId) throws RemoteException
+	{
+		if (!application.isServerProcess(clientId) && !application.isAuthenticated(clientId))
+		{
+			throw new SecurityException("Rejected unauthenticated access");
+		}
+		return contentStore != null && linkUploads ? ContentStore.HASH_ALGORITHM : null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IFileService#linkContent(String,String,String,long)
+	 */
+	@SuppressWarnings("nls")
+	public RemoteFileData linkContent(final String clientId, final String filePath, final String hash, final long size)
+		throws RemoteException, IOException, SecurityException
+	{
+		securityCheck(clientId, filePath);
+		final ContentStore store = contentStore;
+		if (store == null || !linkUploads) return null;
+		final File f = new File(defaultFolder, filePath);
+		if (!FilePluginUtils.checkParentFile(f.getCanonicalFile(), defaultFolder))
+		{
+			throw new SecurityException("Saving  on the server out of the defaultFolder is not allowed");
+		}
+		if (f.isDirectory() || !store.link(hash, size, f))
+		{
+			return null;
+		}
+		invalidateListing(f);
+		return new RemoteFileData(f, FilePluginUtils.constructHierarchy(f, defaultFolder));
 	}
 
 	/*
@@ -432,7 +718,7 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 	public RemoteFileData renameTo(final String clientId, final String srcPath, final String destPath) throws RemoteException, IOException
 	{
 		securityCheck(clientId, srcPath);
-		FilePluginUtils.filePathCheck(destPath);
+		securityCheck(clientId, destPath);
 		// extra check: we don't want the destPath to be '/'
 		if (destPath.equals("/"))
 		{
@@ -445,13 +731,19 @@ public class FileServerPlugin implements IServerPlugin, IFileService
 			throw new SecurityException("Cannot rename a file/folder out of the defaultFolder");
 		}
 		boolean result = false;
+		final ContentStore store = contentStore;
+		final Object destKey = store != null ? store.getFileKey(dest) : null;
 		// the next two lines might throw SecurityException/IOException:
 		if (!dest.exists() || dest.delete())
 		{
 			result = src.renameTo(dest);
 		}
+		// the replaced destination does not use its content anymore
+		if (store != null) store.release(destKey);
 		if (result)
 		{
+			invalidateListing(src);
+			invalidateListing(dest);
 			final RemoteFileData parent = FilePluginUtils.constructHierarchy(dest.getParentFile(), defaultFolder);
 			return new RemoteFileData(dest, parent);
 		}
@@ -17,10 +17,19 @@
 
 package com.servoy.extensions.plugins.file;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -28,14 +37,31 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.servoy.j2db.plugins.IServerAccess;
-import com.servoy.j2db.util.Utils;
 
 /**
  * @author jcompagner
  *
  */
+@SuppressWarnings("nls")
 public class FileServlet extends HttpServlet
 {
+	/**
+	 * Request attribute set by Tomcat when the connector can send files itself
+	 */
+	private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+	/**
+	 * Files smaller than this are written to the response, like the Tomcat default servlet does
+	 */
+	private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+	/**
+	 * Requests with more ranges (after overlapping and adjacent ranges are merged) are answered with the whole file
+	 */
+	private static final int MAX_RANGES = 16;
+
+	private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
 	private final FileServerPlugin fileServerPlugin;
 	private final IServerAccess app;
 
@@ -56,21 +82,49 @@ public class FileServlet extends HttpServlet
 		if (pathInfo.startsWith("/file/"))
 		{
 
-			RemoteFileData remoteFileData = fileServerPlugin.getRemoteFileData(app.getServerLocalClientID(), pathInfo.substring(5));
+			String path = pathInfo.substring(5);
+			RemoteFileData remoteFileData = fileServerPlugin.getRemoteFileData(app.getServerLocalClientID(), path);
 			File file = remoteFileData.getFile();
 			if (file != null && file.exists() && file.isFile())
 			{
+				long length = file.length();
+				long lastModified = file.lastModified();
+				String etag = "\"" + Long.toHexString(lastModified) + '-' + Long.toHexString(length) + '"';
+				resp.setHeader("Accept-Ranges", "bytes");
+				resp.setHeader("ETag", etag);
+				resp.setDateHeader("Last-Modified", lastModified);
+				resp.setHeader("Cache-Control", isImmutable(path) ? IMMUTABLE_CACHE_CONTROL : "no-cache");
+				if (isNotModified(req, etag, lastModified))
+				{
+					resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+
 				String contentType = AbstractFile.getContentType(file);
-				if (contentType != null) resp.setContentType(contentType);
-				resp.setContentLength((int)file.length());
-				BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
-				try
+				List<long[]> ranges = getRanges(req, etag, lastModified, length);
+				if (ranges == null)
+				{
+					resp.setHeader("Content-Range", "bytes */" + length);
+					resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				}
+				else if (ranges.isEmpty())
 				{
-					Utils.streamCopy(bis, resp.getOutputStream());
+					if (contentType != null) resp.setContentType(contentType);
+					resp.setContentLengthLong(length);
+					sendFile(req, resp, file, 0, length);
 				}
-				finally
+				else if (ranges.size() == 1)
 				{
-					bis.close();
+					long[] range = ranges.get(0);
+					resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					if (contentType != null) resp.setContentType(contentType);
+					resp.setHeader("Content-Range", "bytes " + range[0] + '-' + range[1] + '/' + length);
+					resp.setContentLengthLong(range[1] - range[0] + 1);
+					sendFile(req, resp, file, range[0], range[1] - range[0] + 1);
+				}
+				else
+				{
+					sendMultipleRanges(resp, file, contentType, ranges, length);
 				}
 			}
 			else
@@ -84,4 +138,262 @@ public class FileServlet extends HttpServlet
 		}
 
 	}
+
+	/**
+	 * Check the If-None-Match and If-Modified-Since headers of the request
+	 */
+	private static boolean isNotModified(HttpServletRequest req, String etag, long lastModified)
+	{
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+		{
+			for (String tag : ifNoneMatch.split(","))
+			{
+				String t = tag.trim();
+				if (t.equals("*") || t.equals(etag) || t.equals("W/" + etag))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		long ifModifiedSince;
+		try
+		{
+			ifModifiedSince = req.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+		// http dates have a precision of seconds
+		return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Parse the Range header of the request.
+	 *
+	 * @return the ranges (first and last byte) to send, empty when the whole file must be sent or null when none of the ranges can be satisfied
+	 */
+	private static List<long[]> getRanges(HttpServletRequest req, String etag, long lastModified, long length)
+	{
+		List<long[]> ranges = new ArrayList<long[]>();
+		String range = req.getHeader("Range");
+		if (range == null || !range.startsWith("bytes="))
+		{
+			return ranges;
+		}
+
+		// only send the ranges when the file did not change since the client got the other parts
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange != null)
+		{
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+			{
+				if (!ifRange.equals(etag)) return ranges;
+			}
+			else
+			{
+				try
+				{
+					if (lastModified / 1000 > req.getDateHeader("If-Range") / 1000) return ranges;
+				}
+				catch (IllegalArgumentException e)
+				{
+					return ranges;
+				}
+			}
+		}
+
+		for (String spec : range.substring(6).split(","))
+		{
+			String s = spec.trim();
+			int dash = s.indexOf('-');
+			long first;
+			long last;
+			try
+			{
+				if (dash == 0)
+				{
+					// the last n bytes
+					long suffix = Long.parseLong(s.substring(1));
+					if (suffix <= 0) continue;
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				}
+				else if (dash > 0)
+				{
+					first = Long.parseLong(s.substring(0, dash));
+					if (dash == s.length() - 1)
+					{
+						last = length - 1;
+					}
+					else
+					{
+						last = Long.parseLong(s.substring(dash + 1));
+						if (last < first)
+						{
+							// invalid range header, ignore it
+							ranges.clear();
+							return ranges;
+						}
+						last = Math.min(last, length - 1);
+					}
+				}
+				else
+				{
+					// invalid range header, ignore it
+					ranges.clear();
+					return ranges;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				ranges.clear();
+				return ranges;
+			}
+			if (first < length)
+			{
+				ranges.add(new long[] { first, last });
+			}
+		}
+		if (ranges.isEmpty())
+		{
+			return null;
+		}
+		ranges = mergeRanges(ranges);
+		if (ranges.size() > MAX_RANGES)
+		{
+			ranges.clear();
+		}
+		return ranges;
+	}
+
+	/**
+	 * Merge overlapping and adjacent ranges, so no part of the file is sent more than once (RFC 7233 section 6.1).
+	 *
+	 * @return the ranges ordered by their first byte
+	 */
+	private static List<long[]> mergeRanges(List<long[]> ranges)
+	{
+		if (ranges.size() < 2) return ranges;
+		Collections.sort(ranges, new Comparator<long[]>()
+		{
+			public int compare(long[] r1, long[] r2)
+			{
+				return Long.compare(r1[0], r2[0]);
+			}
+		});
+		List<long[]> merged = new ArrayList<long[]>(ranges.size());
+		long[] current = ranges.get(0);
+		for (int i = 1; i < ranges.size(); i++)
+		{
+			long[] range = ranges.get(i);
+			if (range[0] <= current[1] + 1)
+			{
+				current[1] = Math.max(current[1], range[1]);
+			}
+			else
+			{
+				merged.add(current);
+				current = range;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+
+	/**
+	 * Files in one of the folders configured as immutable never change, clients may cache them without checking.
+	 */
+	private boolean isImmutable(String path)
+	{
+		String immutablePaths = app.getSettings().getProperty(IFileService.IMMUTABLE_PATHS_PROPERTY);
+		if (immutablePaths != null)
+		{
+			for (String immutablePath : immutablePaths.split(","))
+			{
+				String prefix = immutablePath.trim();
+				if (prefix.length() == 0) continue;
+				if (!prefix.startsWith("/")) prefix = "/" + prefix;
+				if (prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+				// a folder prefix, /exports should not match /exports2
+				if (path.equals(prefix) || path.startsWith(prefix + "/"))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Send the ranges as a multipart/byteranges response
+	 */
+	private static void sendMultipleRanges(HttpServletResponse resp, File file, String contentType, List<long[]> ranges, long length) throws IOException
+	{
+		String boundary = UUID.randomUUID().toString().replace("-", "");
+		resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		resp.setContentType("multipart/byteranges; boundary=" + boundary);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			OutputStream os = resp.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(os);
+			for (long[] range : ranges)
+			{
+				StringBuilder header = new StringBuilder();
+				header.append("\r\n--").append(boundary).append("\r\n");
+				if (contentType != null) header.append("Content-Type: ").append(contentType).append("\r\n");
+				header.append("Content-Range: bytes ").append(range[0]).append('-').append(range[1]).append('/').append(length).append("\r\n\r\n");
+				os.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+				transfer(channel, range[0], range[1] - range[0] + 1, target);
+			}
+			os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			os.flush();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Send count bytes of the file starting at position.<br/>
+	 * When the servlet container supports it the file is sent by the connector (sendfile), else the file channel
+	 * transfers the bytes to the response without copying them through an input stream.
+	 */
+	private void sendFile(HttpServletRequest req, HttpServletResponse resp, File file, long position, long count) throws IOException
+	{
+		if (count >= SENDFILE_MIN_SIZE && "GET".equals(req.getMethod()) && Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE)))
+		{
+			req.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+			req.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(position));
+			req.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(position + count));
+			return;
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			OutputStream os = resp.getOutputStream();
+			transfer(channel, position, count, Channels.newChannel(os));
+			os.flush();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException
+	{
+		long transferred = 0;
+		while (transferred < count)
+		{
+			long n = channel.transferTo(position + transferred, count - transferred, target);
+			if (n <= 0) break;
+			transferred += n;
+		}
+	}
 }
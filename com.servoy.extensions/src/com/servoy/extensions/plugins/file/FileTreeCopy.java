@@ -0,0 +1,347 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Copies and moves files and folders.<br/>
+ * The files of a folder tree are copied in parallel on a {@link ForkJoinPool}, every file is copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so the bytes are not copied through the heap. Copies can be verified by comparing the checksums of the source and the copy.
+ * A move within one file system is an atomic rename, else (or when the rename fails) the tree is copied and the source is deleted after the copy succeeded.
+ */
+@SuppressWarnings("nls")
+class FileTreeCopy
+{
+	/**
+	 * The number of bytes transferred at once, the progress is reported after each part
+	 */
+	private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
+	private final ForkJoinPool pool;
+	private final boolean verify;
+	private final JSProgressMonitor progressMonitor;
+
+	private final AtomicLong totalTransferred = new AtomicLong();
+	private final AtomicInteger fileIndex = new AtomicInteger();
+	private final AtomicReference<IOException> error = new AtomicReference<IOException>();
+	private File destinationRoot;
+
+	/**
+	 * @param pool the pool that copies the files of a folder, can be null when only files are copied
+	 * @param verify true to compare the checksum of every copy with its source
+	 * @param progressMonitor the monitor to report the progress to or null
+	 */
+	FileTreeCopy(ForkJoinPool pool, boolean verify, JSProgressMonitor progressMonitor)
+	{
+		this.pool = pool;
+		this.verify = verify;
+		this.progressMonitor = progressMonitor;
+	}
+
+	/**
+	 * Copy the file or the folder with all its content.
+	 *
+	 * @throws IOException when a file could not be copied or the copy was canceled
+	 */
+	void copy(File source, File destination) throws IOException
+	{
+		if (progressMonitor != null)
+		{
+			long[] size = measure(source);
+			progressMonitor.setTotalBytes(size[0]);
+			progressMonitor.setTotalFiles((int)size[1]);
+		}
+		if (source.isDirectory())
+		{
+			destinationRoot = destination.getAbsoluteFile();
+			pool.invoke(new CopyFolder(source, destination));
+		}
+		else
+		{
+			copyFile(source, destination);
+		}
+		IOException e = error.get();
+		if (e != null) throw e;
+		if (isCanceled()) throw new InterruptedIOException("Copy of " + source.getAbsolutePath() + " was canceled");
+	}
+
+	/**
+	 * Move the file or the folder with all its content, an existing destination file is replaced.
+	 *
+	 * @throws IOException when the file could not be moved or the move was canceled
+	 */
+	void move(File source, File destination) throws IOException
+	{
+		if (isInside(source, destination))
+		{
+			// the copy would be deleted together with the source
+			throw new IOException("Cannot move " + source.getAbsolutePath() + " into itself: " + destination.getAbsolutePath());
+		}
+		File parent = destination.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) parent.mkdirs();
+		try
+		{
+			Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			if (progressMonitor != null)
+			{
+				progressMonitor.setTotalFiles(1);
+				progressMonitor.setCurrentFileIndex(1);
+				progressMonitor.setCurrentFileName(source.getAbsolutePath());
+			}
+			return;
+		}
+		catch (IOException e)
+		{
+			// the destination is on another file system or cannot be replaced in one step (a folder that is not empty, a file that is in use)
+			if (!source.exists()) throw e;
+		}
+		// like a rename, a folder replaces an existing file
+		if (source.isDirectory() && destination.isFile()) Files.delete(destination.toPath());
+		copy(source, destination);
+		delete(source);
+	}
+
+	/**
+	 * @return true when the file is the folder or is inside the folder
+	 */
+	static boolean isInside(File folder, File file) throws IOException
+	{
+		return file.getCanonicalFile().toPath().startsWith(folder.getCanonicalFile().toPath());
+	}
+
+	private boolean isCanceled()
+	{
+		return progressMonitor != null && progressMonitor.js_isCanceled();
+	}
+
+	private boolean isStopped()
+	{
+		return error.get() != null || isCanceled();
+	}
+
+	private void copyFile(File source, File destination) throws IOException
+	{
+		long size = source.length();
+		if (progressMonitor != null)
+		{
+			progressMonitor.setCurrentFileName(source.getAbsolutePath());
+			progressMonitor.setCurrentFileIndex(fileIndex.incrementAndGet());
+			progressMonitor.setCurrentBytes(size);
+			progressMonitor.setCurrentTransferred(0);
+		}
+		File parent = destination.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) parent.mkdirs();
+
+		ContentStore.detach(destination, false);
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try
+		{
+			FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+			try
+			{
+				size = in.size();
+				long position = 0;
+				while (position < size && !isStopped())
+				{
+					long n = in.transferTo(position, Math.min(TRANSFER_SIZE, size - position), out);
+					if (n <= 0) break;
+					position += n;
+					if (progressMonitor != null)
+					{
+						progressMonitor.setCurrentTransferred(position);
+						progressMonitor.setTotalTransferred(totalTransferred.addAndGet(n));
+					}
+				}
+				if (position < size && !isStopped())
+				{
+					throw new IOException("Could only copy " + position + " of " + size + " bytes of " + source.getAbsolutePath());
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		if (verify && !isStopped() && checksum(source) != checksum(destination))
+		{
+			throw new IOException("Checksum of the copy " + destination.getAbsolutePath() + " differs from " + source.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @return the CRC32 checksum of the content of the file
+	 */
+	private static long checksum(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer buffer = DirectBufferPool.acquire();
+		try
+		{
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			DirectBufferPool.release(buffer);
+			channel.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the number of bytes and the number of files of the file or folder
+	 */
+	private static long[] measure(File file) throws IOException
+	{
+		final long[] size = new long[2];
+		Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
+			{
+				size[0] += attrs.size();
+				size[1]++;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return size;
+	}
+
+	/**
+	 * Delete the file or the folder with all its content.
+	 */
+	private static void delete(File file) throws IOException
+	{
+		Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(path);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException
+			{
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private class CopyFolder extends RecursiveAction
+	{
+		private final File source;
+		private final File destination;
+
+		CopyFolder(File source, File destination)
+		{
+			this.source = source;
+			this.destination = destination;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (isStopped()) return;
+			if (destination.exists() ? !destination.isDirectory() : !destination.mkdirs())
+			{
+				error.compareAndSet(null, new IOException("Cannot create folder " + destination.getAbsolutePath()));
+				return;
+			}
+			File[] files = source.listFiles();
+			if (files == null)
+			{
+				error.compareAndSet(null, new IOException("Cannot list folder " + source.getAbsolutePath()));
+				return;
+			}
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(files.length);
+			for (File file : files)
+			{
+				File dest = new File(destination, file.getName());
+				if (file.isDirectory())
+				{
+					// a folder copied into itself must not copy the copy
+					if (!file.getAbsoluteFile().equals(destinationRoot)) tasks.add(new CopyFolder(file, dest));
+				}
+				else
+				{
+					tasks.add(new CopyFile(file, dest));
+				}
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	private class CopyFile extends RecursiveAction
+	{
+		private final File source;
+		private final File destination;
+
+		CopyFile(File source, File destination)
+		{
+			this.source = source;
+			this.destination = destination;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (isStopped()) return;
+			try
+			{
+				copyFile(source, destination);
+			}
+			catch (IOException e)
+			{
+				error.compareAndSet(null, e);
+			}
+		}
+	}
+}
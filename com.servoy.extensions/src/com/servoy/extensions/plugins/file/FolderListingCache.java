@@ -0,0 +1,367 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Cache of the content of server folders, so listing a large folder does not hit the file system for every call.<br/>
+ * A listing is removed from the cache when the folder changes (reported by a {@link WatchService}) and when the file plugin itself changes it.
+ * The least recently used listings are removed when the cache holds more than the maximum number of entries (a listing counts as at least 1 entry)
+ * or more than {@link #MAX_LISTINGS} listings, every cached listing keeps a folder registered with the watch service.
+ * Changes inside sub folders do not change the listing of the folder itself, so the last modified date of a cached sub folder can be outdated.
+ */
+@SuppressWarnings("nls")
+class FolderListingCache
+{
+	public static final String SORT_NAME = "name";
+	public static final String SORT_SIZE = "size";
+	public static final String SORT_LAST_MODIFIED = "lastModified";
+
+	/**
+	 * Maximum number of cached listings, so the number of watched folders stays within the limits of the operating system.
+	 */
+	static final int MAX_LISTINGS = 1000;
+
+	private final int maxEntries;
+	private final WatchService watchService;
+	private final Map<WatchKey, File> watchedFolders = new ConcurrentHashMap<WatchKey, File>();
+	private final LinkedHashMap<File, Listing> listings = new LinkedHashMap<File, Listing>(16, 0.75f, true);
+	private int entryCount;
+	private int listingCount;
+
+	/**
+	 * @param maxEntries maximum number of files and folders in all cached listings, 0 disables the cache
+	 */
+	FolderListingCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+		WatchService ws = null;
+		if (maxEntries > 0)
+		{
+			try
+			{
+				ws = FileSystems.getDefault().newWatchService();
+				Thread watcher = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						watch();
+					}
+				}, "File plugin folder watcher");
+				watcher.setDaemon(true);
+				watcher.start();
+			}
+			catch (IOException e)
+			{
+				Debug.warn("Folder changes cannot be watched, the folder listing cache of the file plugin is disabled: " + e.getMessage());
+			}
+		}
+		this.watchService = ws;
+	}
+
+	/**
+	 * Get the listing of the folder, from the cache when possible.
+	 *
+	 * @param folder the folder to list
+	 * @param canonicalFolder the canonical folder, used as the key of the cache
+	 * @param defaultFolder the default folder of the file plugin
+	 */
+	Listing get(File folder, File canonicalFolder, File defaultFolder)
+	{
+		if (watchService == null)
+		{
+			return createListing(folder, defaultFolder, null);
+		}
+
+		Listing placeholder;
+		synchronized (listings)
+		{
+			Listing listing = listings.get(canonicalFolder);
+			if (listing != null)
+			{
+				if (listing.entries != null) return listing;
+				// another thread is listing the folder, do not wait for it
+				return createListing(folder, defaultFolder, null);
+			}
+			placeholder = new Listing(null, null, null);
+			listings.put(canonicalFolder, placeholder);
+		}
+
+		// register the folder before listing it, so changes made while listing are not missed
+		WatchKey key;
+		try
+		{
+			key = canonicalFolder.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		}
+		catch (IOException e)
+		{
+			remove(canonicalFolder, placeholder);
+			Debug.warn("Folder " + canonicalFolder + " cannot be watched, it is not cached: " + e.getMessage());
+			return createListing(folder, defaultFolder, null);
+		}
+		catch (RuntimeException e)
+		{
+			remove(canonicalFolder, placeholder);
+			throw e;
+		}
+		watchedFolders.put(key, canonicalFolder);
+
+		Listing listing;
+		try
+		{
+			listing = createListing(folder, defaultFolder, key);
+		}
+		catch (RuntimeException e)
+		{
+			remove(canonicalFolder, placeholder);
+			cancel(key);
+			throw e;
+		}
+		synchronized (listings)
+		{
+			// only cache the listing when the folder was not changed while listing it
+			if (listings.get(canonicalFolder) == placeholder && listing.entries.length <= maxEntries)
+			{
+				listings.put(canonicalFolder, listing);
+				entryCount += listing.getWeight();
+				listingCount++;
+				evict();
+			}
+			else
+			{
+				if (listings.get(canonicalFolder) == placeholder) listings.remove(canonicalFolder);
+				cancel(key);
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * Remove the listing of the folder from the cache.
+	 *
+	 * @param canonicalFolder the canonical folder
+	 */
+	void invalidate(File canonicalFolder)
+	{
+		if (watchService == null || canonicalFolder == null) return;
+		synchronized (listings)
+		{
+			Listing listing = listings.remove(canonicalFolder);
+			if (listing != null && listing.entries != null)
+			{
+				entryCount -= listing.getWeight();
+				listingCount--;
+				cancel(listing.key);
+			}
+		}
+	}
+
+	void close()
+	{
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException ignore)
+			{
+			}
+			synchronized (listings)
+			{
+				listings.clear();
+				entryCount = 0;
+				listingCount = 0;
+			}
+		}
+	}
+
+	private void remove(File canonicalFolder, Listing placeholder)
+	{
+		synchronized (listings)
+		{
+			if (listings.get(canonicalFolder) == placeholder) listings.remove(canonicalFolder);
+		}
+	}
+
+	/**
+	 * Remove the least recently used listings until the cache holds at most the maximum number of entries and listings.
+	 */
+	private void evict()
+	{
+		Iterator<Listing> it = listings.values().iterator();
+		while ((entryCount > maxEntries || listingCount > MAX_LISTINGS) && it.hasNext())
+		{
+			Listing listing = it.next();
+			if (listing.entries != null)
+			{
+				it.remove();
+				entryCount -= listing.getWeight();
+				listingCount--;
+				cancel(listing.key);
+			}
+		}
+	}
+
+	private void cancel(WatchKey key)
+	{
+		if (key != null)
+		{
+			watchedFolders.remove(key);
+			key.cancel();
+		}
+	}
+
+	private void watch()
+	{
+		try
+		{
+			while (true)
+			{
+				WatchKey key = watchService.take();
+				key.pollEvents();
+				File folder = watchedFolders.get(key);
+				if (folder != null)
+				{
+					invalidate(folder);
+				}
+				key.reset();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// stop watching
+		}
+		catch (ClosedWatchServiceException e)
+		{
+			// stop watching
+		}
+	}
+
+	private static Listing createListing(File folder, File defaultFolder, WatchKey key)
+	{
+		final RemoteFileData parent = FilePluginUtils.constructHierarchy(folder, defaultFolder);
+		final File[] files = folder.listFiles();
+		final RemoteFileData[] entries = new RemoteFileData[files == null ? 0 : files.length];
+		for (int i = 0; i < entries.length; i++)
+		{
+			entries[i] = new RemoteFileData(files[i], parent);
+		}
+		return new Listing(parent, entries, key);
+	}
+
+	/**
+	 * The content of a folder.
+	 */
+	static class Listing
+	{
+		final RemoteFileData folder;
+		final RemoteFileData[] entries;
+		final WatchKey key;
+		private final Map<String, RemoteFileData[]> sortedEntries = new ConcurrentHashMap<String, RemoteFileData[]>();
+
+		Listing(RemoteFileData folder, RemoteFileData[] entries, WatchKey key)
+		{
+			this.folder = folder;
+			this.entries = entries;
+			this.key = key;
+		}
+
+		/**
+		 * @return the number of entries this listing counts for in the cache, an empty folder counts as 1
+		 */
+		int getWeight()
+		{
+			return Math.max(1, entries.length);
+		}
+
+		/**
+		 * Get the entries in the given order, sorted entries are kept with the listing.
+		 *
+		 * @param sort name, size or lastModified, prefixed by - for descending order; null for the order of the file system
+		 */
+		RemoteFileData[] getEntries(String sort)
+		{
+			if (sort == null)
+			{
+				return entries;
+			}
+			RemoteFileData[] sorted = sortedEntries.get(sort);
+			if (sorted == null)
+			{
+				boolean descending = sort.startsWith("-");
+				Comparator<RemoteFileData> comparator = getComparator(descending ? sort.substring(1) : sort);
+				sorted = entries.clone();
+				Arrays.sort(sorted, descending ? Collections.reverseOrder(comparator) : comparator);
+				sortedEntries.put(sort, sorted);
+			}
+			return sorted;
+		}
+
+		private static Comparator<RemoteFileData> getComparator(String sort)
+		{
+			if (SORT_NAME.equals(sort))
+			{
+				return new Comparator<RemoteFileData>()
+				{
+					public int compare(RemoteFileData o1, RemoteFileData o2)
+					{
+						return o1.getName().compareTo(o2.getName());
+					}
+				};
+			}
+			if (SORT_SIZE.equals(sort))
+			{
+				return new Comparator<RemoteFileData>()
+				{
+					public int compare(RemoteFileData o1, RemoteFileData o2)
+					{
+						return o1.size() < o2.size() ? -1 : (o1.size() == o2.size() ? 0 : 1);
+					}
+				};
+			}
+			if (SORT_LAST_MODIFIED.equals(sort))
+			{
+				return new Comparator<RemoteFileData>()
+				{
+					public int compare(RemoteFileData o1, RemoteFileData o2)
+					{
+						return o1.lastModified() < o2.lastModified() ? -1 : (o1.lastModified() == o2.lastModified() ? 0 : 1);
+					}
+				};
+			}
+			throw new IllegalArgumentException("Unknown sort '" + sort + "', use name, size or lastModified (prefixed by - for descending order)");
+		}
+	}
+}
@@ -173,4 +173,28 @@ public interface IAbstractFile extends IUploadData
 	 */
 	boolean setBytes(byte[] bytes, boolean createFile);
 
+	/**
+	 * Read a part of the file without reading the whole file
+	 * @param offset the position in the file of the first byte
+	 * @param length the maximum number of bytes to read
+	 * @return the bytes, less than length at the end of the file
+	 */
+	byte[] readBytes(long offset, int length);
+
+	/**
+	 * Write data at a position in the file, the file is extended when the data is written past its end
+	 * @param offset the position in the file of the first byte
+	 * @param bytes the data
+	 * @return true if the bytes were written
+	 */
+	boolean writeBytes(long offset, byte[] bytes);
+
+	/**
+	 * Search the file for a byte pattern
+	 * @param pattern the bytes to search for
+	 * @param offset the position in the file to start searching
+	 * @return the position of the first occurrence of the pattern at or after offset or -1 if it is not found
+	 */
+	long indexOf(byte[] pattern, long offset);
+
 }
@@ -40,6 +40,56 @@ public interface IFileService extends Remote
 	 */
 	public static final String DEFAULT_FOLDER_PROPERTY = "servoy.FileServerService.defaultFolder";
 
+	/**
+	 * The property key of the size of the chunks used to stream files
+	 */
+	public static final String TRANSFER_CHUNK_SIZE_PROPERTY = "servoy.FileServerService.transferChunkSize";
+
+	/**
+	 * The property key of the number of chunks of one file that are transferred at the same time
+	 */
+	public static final String TRANSFER_CHUNKS_IN_FLIGHT_PROPERTY = "servoy.FileServerService.transferChunksInFlight";
+
+	/**
+	 * The property key of the number of files that are streamed at the same time
+	 */
+	public static final String TRANSFER_PARALLEL_FILES_PROPERTY = "servoy.FileServerService.transferParallelFiles";
+
+	/**
+	 * The property key of the time in seconds after which a transfer that is not used anymore is aborted
+	 */
+	public static final String TRANSFER_IDLE_TIMEOUT_PROPERTY = "servoy.FileServerService.transferIdleTimeout";
+
+	/**
+	 * The property key of the maximum number of open transfers of one client
+	 */
+	public static final String MAX_TRANSFERS_PER_CLIENT_PROPERTY = "servoy.FileServerService.maxTransfersPerClient";
+
+	/**
+	 * The maximum size of a chunk written or read with {@link #writeChunk(UUID, long, byte[], int, long)} or {@link #readChunk(UUID, long, int)}
+	 */
+	public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The property key of the folders (relative to the default folder) with files that never change, these are served with long-lived cache headers
+	 */
+	public static final String IMMUTABLE_PATHS_PROPERTY = "servoy.FileServerService.immutablePaths";
+
+	/**
+	 * The property key of the maximum number of files and folders kept in the cache of folder listings
+	 */
+	public static final String LISTING_CACHE_SIZE_PROPERTY = "servoy.FileServerService.listingCacheSize";
+
+	/**
+	 * The property key to store files with the same content only once
+	 */
+	public static final String CONTENT_ADDRESSED_STORAGE_PROPERTY = "servoy.FileServerService.contentAddressedStorage";
+
+	/**
+	 * The property key to let clients skip the upload of content that is already stored, see {@link #linkContent(String, String, String, long)}
+	 */
+	public static final String CONTENT_LINK_UPLOADS_PROPERTY = "servoy.FileServerService.contentAddressedStorage.linkUploads";
+
 
 	/**
 	 * Creates the {@link ITransferObject} to use, giving it a fileName to create an {@link OutputStream}<br/>
@@ -53,6 +103,20 @@ public interface IFileService extends Remote
 	 */
 	public UUID openTransfer(final String clientId, final String filePath) throws RemoteException, IOException, SecurityException;
 
+	/**
+	 * Creates the {@link ITransferObject} to use for a chunked transfer, see {@link #openTransfer(String, String)}<br/>
+	 * When resume is true the content of an existing file is kept, {@link #getTransferOffset(UUID)} returns its length
+	 * so the client can continue an interrupted upload from there.
+	 *
+	 * @param clientId the id of the client that wants to do the transfer.
+	 * @param filePath the path of the file to create in the default folder (or relative to it)
+	 * @param resume keep the content of an existing file
+	 * @return the {@link UUID} used later by the client to write chunks and to close the transfer
+	 *
+	 * @throws IOException  if the file cannot be created or an IOException occurs
+	 */
+	public UUID openTransfer(final String clientId, final String filePath, final boolean resume) throws RemoteException, IOException, SecurityException;
+
 	/**
 	 * Writes start + length bytes, using the {@link ITransferObject} identified by the given uuid
 	 * 
@@ -77,6 +141,42 @@ public interface IFileService extends Remote
 	 */
 	public byte[] readBytes(final UUID uuid, long length) throws RemoteException, IOException;
 
+	/**
+	 * Writes length bytes at the given offset of the file, using the {@link ITransferObject} identified by the given uuid.<br/>
+	 * Chunks can be written in any order and concurrently, the chunk is rejected when the checksum does not match the bytes received.
+	 *
+	 * @param uuid the identifier of the {@link ITransferObject} to use
+	 * @param offset the position in the file to write to
+	 * @param bytes contains the bytes to write
+	 * @param length the number of bytes to write, at most {@link #MAX_CHUNK_SIZE}
+	 * @param checksum the CRC32 checksum of the bytes to write
+	 *
+	 * @throws IOException  if an IOException occurs or the checksum does not match
+	 */
+	public void writeChunk(final UUID uuid, final long offset, final byte[] bytes, final int length, final long checksum) throws RemoteException, IOException;
+
+	/**
+	 * Reads length number of bytes at the given offset of the file, using the {@link ITransferObject} identified by the given uuid.
+	 * When the end of the file is reached the returned array will have a smaller size then the given length (or null will returned)
+	 *
+	 * @param uuid the identifier of the {@link ITransferObject} to use
+	 * @param offset the position in the file to read from
+	 * @param length the max number of bytes to transfer, at most {@link #MAX_CHUNK_SIZE}
+	 *
+	 * @throws IOException  if an IOException occurs
+	 */
+	public byte[] readChunk(final UUID uuid, final long offset, final int length) throws RemoteException, IOException;
+
+	/**
+	 * Returns the offset up to which all chunks written with the {@link ITransferObject} identified by the given uuid are stored.
+	 * An interrupted upload can continue from this offset.
+	 *
+	 * @param uuid the identifier of the {@link ITransferObject} to use
+	 *
+	 * @throws IOException  if the uuid is unknown (the transfer was closed)
+	 */
+	public long getTransferOffset(final UUID uuid) throws RemoteException, IOException;
+
 	/**
 	 * Safely/silently closes the {@link OutputStream} using the {@link ITransferObject} identified by the uuid<br/>
 	 * @return the file created, or null if a problem occurred during the process
@@ -100,6 +200,28 @@ public interface IFileService extends Remote
 	public RemoteFileData[] getRemoteFolderContent(final String clientId, final String path, final String[] filter, final int fileOption,
 		final int visibleOption, final int lockedOption) throws RemoteException, IOException, SecurityException;
 
+	/**
+	 * Retrieves one page of the files contained in the folder represented by the path provided,<br/>
+	 * so large folders can be browsed without sending all their files to the client at once.
+	 * 
+	 * @param clientId the id of the client that wants to get the list.
+	 * @param path the path (relative to default folder) of the folder to list
+	 * @param glob only files with a name that matches this glob pattern (for example *.{png,jpg}) are returned, null for all files
+	 * @param fileOption will return files and folders, files only or folders only depending on this value
+	 * @param visibleOption will return any files, visibles files or non visible files depending on this value
+	 * @param lockedOption will return any files, writable files or non writable files depending on this value
+	 * @param sort name, size or lastModified, prefixed by - for descending order; null for the order of the file system
+	 * @param offset the number of matching files to skip
+	 * @param limit the maximum number of files to return, 0 for all files after the offset
+	 * 
+	 * @return the files of the page, null if the path is not a folder
+	 * @throws IOException  if an IOException occurs
+	 * @throws SecurityException  if a SecurityException occurs
+	 */
+	public RemoteFileData[] getRemoteFolderContent(final String clientId, final String path, final String glob, final int fileOption,
+		final int visibleOption, final int lockedOption, final String sort, final int offset, final int limit)
+		throws RemoteException, IOException, SecurityException;
+
 	/**
 	 * Retrieves a {@link RemoteFileData} object for the path provided either file or directory
 	 * 
@@ -112,6 +234,30 @@ public interface IFileService extends Remote
 	 */
 	public RemoteFileData getRemoteFileData(final String clientId, final String path) throws RemoteException, IOException, SecurityException;
 
+	/**
+	 * Get the hash algorithm of the content addressed storage, used by clients to hash a file before uploading it with {@link #linkContent(String, String, String, long)}
+	 * 
+	 * @param clientId the id of the client
+	 * 
+	 * @return the name of the {@link java.security.MessageDigest} algorithm or null when files are not stored content addressed or uploads cannot be linked
+	 */
+	public String getContentHashAlgorithm(final String clientId) throws RemoteException;
+
+	/**
+	 * Store the file with content that is already stored on the server, so the content does not have to be uploaded again.
+	 * 
+	 * @param clientId the id of the client
+	 * @param filePath the file path on the server
+	 * @param hash the hex encoded hash of the content, see {@link #getContentHashAlgorithm(String)}
+	 * @param size the size of the content
+	 * 
+	 * @return the remote file data of the stored file or null when the server does not have the content and it must be uploaded
+	 * @throws IOException  if an IOException occurs
+	 * @throws SecurityException  if a SecurityException occurs
+	 */
+	public RemoteFileData linkContent(final String clientId, final String filePath, final String hash, final long size)
+		throws RemoteException, IOException, SecurityException;
+
 	/**
 	 * Retrieves {@link RemoteFileData}[] for the paths provided either files or directory
 	 * 
@@ -47,6 +47,32 @@ public interface ITransferObject
 	 */
 	public byte[] read(long length) throws IOException;
 
+	/**
+	 * Write length bytes from the given byte array at the given offset of the resource.<br/>
+	 * Chunks can be written in any order and by multiple threads at the same time.
+	 *
+	 * @param offset the position in the resource to write to
+	 * @param bytes the byte array
+	 * @param length length of the bytes to use
+	 * @throws IOException if something went wrong
+	 */
+	public void writeChunk(final long offset, final byte[] bytes, final int length) throws IOException;
+
+	/**
+	 * Reads the block of bytes at the given offset of the resource until the length is reached or the end of file is reached.
+	 *
+	 * @param offset the position in the resource to read from
+	 * @param length the max number of bytes to return
+	 * @return the bytes or null when the offset is at or past the end of the resource
+	 * @throws IOException if something went wrong
+	 */
+	public byte[] readChunk(final long offset, final int length) throws IOException;
+
+	/**
+	 * Returns the offset up to which all chunks have been written, a resumed transfer continues from there.
+	 */
+	public long getTransferOffset();
+
 	/**
 	 * Silently close/dispose any resources and return the identifier of the resource created
 	 * 
@@ -54,4 +80,15 @@ public interface ITransferObject
 	 */
 	public Object close();
 
+	/**
+	 * Silently close/dispose any resources of a transfer that was abandoned by the client,
+	 * the bytes that were written are kept so the transfer can be resumed, a resource created by the transfer that did not receive any bytes is removed
+	 */
+	public void abort();
+
+	/**
+	 * Silently close/dispose any resources without changing the resource, used when another transfer holds the resource
+	 */
+	public void release();
+
 }
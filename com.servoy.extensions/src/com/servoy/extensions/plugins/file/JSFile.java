@@ -478,6 +478,89 @@ public class JSFile implements IScriptable, IJavaScriptType, IFile
 		return file.setBytes(bytes, createFile);
 	}
 
+	/**
+	 * Reads a part of the file, without reading the whole file. Returns less bytes than the length at the end of the file - only works on local files.
+	 *
+	 * @sample
+	 * var file = plugins.file.convertToJSFile('/pathTo/archive.zip');
+	 * // the end of central directory record of a zip file is in the last 22 bytes (without comment)
+	 * var size = file.size();
+	 * var record = file.readBytes(size - 22, 22);
+	 * application.output('zip file has ' + (record[10] & 0xff | (record[11] & 0xff) << 8) + ' entries');
+	 * // search the first central directory file header
+	 * var centralDirectory = file.indexOf([0x50, 0x4b, 0x01, 0x02], 0);
+	 * application.output('central directory at ' + centralDirectory);
+	 * // append to the file without reading it
+	 * file.appendBytes(blobDataProvider);
+	 *
+	 * @param offset the position in the file of the first byte
+	 * @param length the maximum number of bytes to read
+	 *
+	 * @return the bytes or null if the file cannot be read
+	 */
+	public byte[] js_readBytes(long offset, int length)
+	{
+		return file.readBytes(offset, length);
+	}
+
+	/**
+	 * Writes the bytes at a position in the file, without rewriting the whole file. The file is created when it doesn't exist and extended when the bytes are written past its end - only works on local files.
+	 *
+	 * @sampleas js_readBytes(long, int)
+	 *
+	 * @param offset the position in the file of the first byte
+	 * @param bytes the data
+	 *
+	 * @return true if the operation worked
+	 */
+	public boolean js_writeBytes(long offset, byte[] bytes)
+	{
+		return file.writeBytes(offset, bytes);
+	}
+
+	/**
+	 * Appends the bytes to the end of the file, without rewriting the whole file. The file is created when it doesn't exist - only works on local files.
+	 *
+	 * @sampleas js_readBytes(long, int)
+	 *
+	 * @param bytes the data
+	 *
+	 * @return true if the operation worked
+	 */
+	public boolean js_appendBytes(byte[] bytes)
+	{
+		return file.writeBytes(file.exists() ? file.size() : 0, bytes);
+	}
+
+	/**
+	 * Returns the position of the first occurrence of the bytes in the file or -1 if the file does not contain them.
+	 * The file is searched without reading it in memory - only works on local files.
+	 *
+	 * @sampleas js_readBytes(long, int)
+	 *
+	 * @param pattern the bytes to search for
+	 *
+	 * @return the position of the bytes or -1
+	 */
+	public long js_indexOf(byte[] pattern)
+	{
+		return file.indexOf(pattern, 0);
+	}
+
+	/**
+	 * @clonedesc js_indexOf(byte[])
+	 * @sampleas js_readBytes(long, int)
+	 *
+	 * @param pattern the bytes to search for
+	 * @param offset the position in the file to start searching
+	 *
+	 * @return the position of the bytes or -1
+	 */
+	public long js_indexOf(byte[] pattern, long offset)
+	{
+		return file.indexOf(pattern, offset);
+	}
+
 	@Override
 	public String toString()
 	{
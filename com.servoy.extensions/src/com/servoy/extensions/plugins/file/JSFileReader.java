@@ -0,0 +1,408 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+
+package com.servoy.extensions.plugins.file;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.servoy.j2db.documentation.ServoyDocumented;
+import com.servoy.j2db.scripting.IJavaScriptType;
+import com.servoy.j2db.scripting.IScriptable;
+import com.servoy.j2db.util.Debug;
+
+/**
+ * This class is returned to the Servoy client from the {@link FileProvider} js_openReader method<br/>
+ * It reads a file piece by piece (lines, records or chunks) from a {@link FileChannel}, so files of any size can be processed without loading them in memory.
+ * Errors reading the file are thrown, so they cannot be mistaken for the end of the file (null), only the size and position return -1 on an error.
+ */
+@ServoyDocumented
+public class JSFileReader implements IScriptable, IJavaScriptType, Closeable
+{
+	/**
+	 * The maximum number of characters of a record, a quote that is not closed would otherwise read the rest of the file into one field.
+	 */
+	private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+	private final FileProvider provider;
+	private final FileChannel channel;
+	private final Charset charset;
+	private BufferedReader reader;
+	private boolean closed;
+
+	/**
+	 * For developer scripting introspection only
+	 */
+	public JSFileReader()
+	{
+		this.provider = null;
+		this.channel = null;
+		this.charset = null;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param provider the parent {@link FileProvider}
+	 * @param channel the channel of the file to read
+	 * @param charset the charset of the text in the file
+	 */
+	JSFileReader(FileProvider provider, FileChannel channel, Charset charset)
+	{
+		this.provider = provider;
+		this.channel = channel;
+		this.charset = charset;
+	}
+
+	/**
+	 * Reads the next line of text, without the line terminator. Returns null at the end of the file.
+	 *
+	 * @sample
+	 * var reader = plugins.file.openReader('/var/log/big.log', 'UTF-8');
+	 * try
+	 * {
+	 * 	var line;
+	 * 	while ((line = reader.readLine()) != null)
+	 * 	{
+	 * 		if (line.indexOf('ERROR') != -1) application.output(line);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	reader.close();
+	 * }
+	 *
+	 * @return the line or null at the end of the file
+	 */
+	public String js_readLine() throws IOException
+	{
+		return getReader().readLine();
+	}
+
+	/**
+	 * Reads the next lines of text, at most the given number. Returns an empty array at the end of the file.
+	 *
+	 * @sample
+	 * var reader = plugins.file.openReader('/var/log/big.log', 'UTF-8');
+	 * try
+	 * {
+	 * 	var lines;
+	 * 	while ((lines = reader.readLines(1000)).length > 0)
+	 * 	{
+	 * 		application.output('read ' + lines.length + ' lines');
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	reader.close();
+	 * }
+	 *
+	 * @param count the maximum number of lines to read
+	 * @return the lines
+	 */
+	public String[] js_readLines(int count) throws IOException
+	{
+		BufferedReader br = getReader();
+		List<String> lines = new ArrayList<String>(Math.min(Math.max(count, 0), 1024));
+		String line;
+		while (lines.size() < count && (line = br.readLine()) != null)
+		{
+			lines.add(line);
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * Reads the next record of a comma separated file. Quoted fields can contain separators, quotes (written as two quotes) and line breaks.
+	 * Returns null at the end of the file, a record of more than 16M characters (for example because a quote is not closed) is an error.
+	 *
+	 * @sample
+	 * var reader = plugins.file.openReader('/import/orders.csv', 'UTF-8');
+	 * try
+	 * {
+	 * 	var header = reader.readRecord();
+	 * 	var record;
+	 * 	while ((record = reader.readRecord()) != null)
+	 * 	{
+	 * 		application.output(header[0] + ': ' + record[0]);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	reader.close();
+	 * }
+	 *
+	 * @return the fields of the record or null at the end of the file
+	 */
+	public String[] js_readRecord() throws IOException
+	{
+		return js_readRecord(","); //$NON-NLS-1$
+	}
+
+	/**
+	 * @clonedesc js_readRecord()
+	 * @sampleas js_readRecord()
+	 *
+	 * @param separator the character that separates the fields, for example ';' or '\t'
+	 * @return the fields of the record or null at the end of the file
+	 */
+	@SuppressWarnings("nls")
+	public String[] js_readRecord(String separator) throws IOException
+	{
+		if (separator == null || separator.length() != 1)
+		{
+			throw new IllegalArgumentException("The separator must be one character");
+		}
+		return readRecord(getReader(), separator.charAt(0));
+	}
+
+	@SuppressWarnings("nls")
+	private static String[] readRecord(BufferedReader br, char sep) throws IOException
+	{
+		String line = br.readLine();
+		if (line == null) return null;
+		long recordLength = line.length();
+
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (true)
+		{
+			if (i == line.length())
+			{
+				if (!quoted) break;
+				// a quoted field continues on the next line
+				line = br.readLine();
+				if (line == null) break;
+				recordLength += line.length() + 1;
+				if (recordLength > MAX_RECORD_LENGTH)
+				{
+					throw new IOException("Record of more than " + MAX_RECORD_LENGTH + " characters, a quoted field is not closed");
+				}
+				field.append('\n');
+				i = 0;
+				continue;
+			}
+			char c = line.charAt(i++);
+			if (quoted)
+			{
+				if (c == '"')
+				{
+					if (i < line.length() && line.charAt(i) == '"')
+					{
+						field.append('"');
+						i++;
+					}
+					else
+					{
+						quoted = false;
+					}
+				}
+				else
+				{
+					field.append(c);
+				}
+			}
+			else if (c == sep)
+			{
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else if (c == '"' && field.length() == 0)
+			{
+				quoted = true;
+			}
+			else
+			{
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * Reads the next characters of text, at most the given number. Returns null at the end of the file.
+	 *
+	 * @sample
+	 * var reader = plugins.file.openReader('/export/data.xml', 'UTF-8');
+	 * try
+	 * {
+	 * 	var chunk;
+	 * 	while ((chunk = reader.readChars(64 * 1024)) != null)
+	 * 	{
+	 * 		application.output(chunk.length);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	reader.close();
+	 * }
+	 *
+	 * @param count the maximum number of characters to read
+	 * @return the characters or null at the end of the file
+	 */
+	public String js_readChars(int count) throws IOException
+	{
+		BufferedReader br = getReader();
+		char[] chars = new char[Math.max(count, 0)];
+		int length = 0;
+		while (length < chars.length)
+		{
+			int read = br.read(chars, length, chars.length - length);
+			if (read == -1) break;
+			length += read;
+		}
+		if (length == 0 && count > 0) return null;
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Reads the next bytes of the file, at most the given number. Returns null at the end of the file.
+	 * Bytes can only be read when no text was read, because text is read ahead.
+	 *
+	 * @sample
+	 * var reader = plugins.file.openReader('/export/archive.zip');
+	 * try
+	 * {
+	 * 	var bytes;
+	 * 	while ((bytes = reader.readBytes(1024 * 1024)) != null)
+	 * 	{
+	 * 		application.output(bytes.length);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	reader.close();
+	 * }
+	 *
+	 * @param count the maximum number of bytes to read
+	 * @return the bytes or null at the end of the file
+	 */
+	@SuppressWarnings("nls")
+	public byte[] js_readBytes(int count) throws IOException
+	{
+		checkOpen();
+		if (reader != null)
+		{
+			throw new IllegalStateException("Bytes cannot be read after text was read");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(count, 0));
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) == -1) break;
+		}
+		if (buffer.position() == 0 && count > 0) return null;
+		return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * Returns the size of the file in bytes, -1 when an error occurred.
+	 *
+	 * @sampleas js_getPosition()
+	 */
+	public long js_getSize()
+	{
+		checkOpen();
+		try
+		{
+			return channel.size();
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the file that are read, text is read ahead in blocks so this is the position of the last block read.
+	 * Returns -1 when an error occurred.
+	 *
+	 * @sample
+	 * application.output('read ' + reader.getPosition() + ' of ' + reader.getSize() + ' bytes');
+	 */
+	public long js_getPosition()
+	{
+		checkOpen();
+		try
+		{
+			return channel.position();
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Closes the reader and the file, the reader cannot be used anymore.
+	 *
+	 * @sampleas js_readLine()
+	 */
+	public void js_close()
+	{
+		try
+		{
+			close();
+		}
+		catch (IOException ignore)
+		{
+		}
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (closed || channel == null) return;
+		closed = true;
+		provider.closed(this);
+		if (reader != null) reader.close();
+		else channel.close();
+	}
+
+	private BufferedReader getReader()
+	{
+		checkOpen();
+		if (reader == null)
+		{
+			reader = new BufferedReader(Channels.newReader(channel,
+				charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), FileProvider.CHUNK_BUFFER_SIZE),
+				FileProvider.CHUNK_BUFFER_SIZE);
+		}
+		return reader;
+	}
+
+	@SuppressWarnings("nls")
+	private void checkOpen()
+	{
+		if (closed || channel == null)
+		{
+			throw new IllegalStateException("The reader is closed");
+		}
+	}
+}
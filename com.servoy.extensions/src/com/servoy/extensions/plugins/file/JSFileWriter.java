@@ -0,0 +1,281 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+
+package com.servoy.extensions.plugins.file;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.servoy.j2db.documentation.ServoyDocumented;
+import com.servoy.j2db.scripting.IJavaScriptType;
+import com.servoy.j2db.scripting.IScriptable;
+import com.servoy.j2db.util.Debug;
+
+/**
+ * This class is returned to the Servoy client from the {@link FileProvider} js_openWriter method<br/>
+ * It writes text to a {@link FileChannel} through a buffer, so large files can be written piece by piece.
+ * The text is written to the file when the buffer is full, when the writer is flushed and when it is closed.
+ * Errors writing the file are logged and reported by returning false.
+ */
+@ServoyDocumented
+public class JSFileWriter implements IScriptable, IJavaScriptType, Closeable
+{
+	private static final String LF = System.getProperty("line.separator"); //$NON-NLS-1$
+
+	private final FileProvider provider;
+	private final BufferedWriter writer;
+	private boolean closed;
+
+	/**
+	 * For developer scripting introspection only
+	 */
+	public JSFileWriter()
+	{
+		this.provider = null;
+		this.writer = null;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param provider the parent {@link FileProvider}
+	 * @param channel the channel of the file to write
+	 * @param charset the charset of the text
+	 */
+	JSFileWriter(FileProvider provider, FileChannel channel, Charset charset)
+	{
+		this.provider = provider;
+		this.writer = new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), FileProvider.CHUNK_BUFFER_SIZE), FileProvider.CHUNK_BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes the text.
+	 *
+	 * @sample
+	 * var writer = plugins.file.openWriter('/export/report.txt', 'UTF-8');
+	 * try
+	 * {
+	 * 	writer.write('Report of ');
+	 * 	writer.writeLine(new Date().toString());
+	 * 	for (var i = 1; i <= foundset.getSize(); i++)
+	 * 	{
+	 * 		writer.writeLine(foundset.getRecord(i).name);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	writer.close();
+	 * }
+	 *
+	 * @param text the text to write
+	 * @return true when the text is written, false when an error occurred
+	 */
+	public boolean js_write(String text)
+	{
+		checkOpen();
+		try
+		{
+			if (text != null) writer.write(text);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the text followed by a line separator of the platform.
+	 *
+	 * @sampleas js_write(String)
+	 *
+	 * @param text the text to write
+	 * @return true when the text is written, false when an error occurred
+	 */
+	public boolean js_writeLine(String text)
+	{
+		checkOpen();
+		try
+		{
+			if (text != null) writer.write(text);
+			writer.write(LF);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a record of a comma separated file followed by a line separator. Fields with separators, quotes or line breaks are quoted.
+	 * Numbers without a fraction are written without decimals (1 and not 1.0).
+	 *
+	 * @sample
+	 * var writer = plugins.file.openWriter('/export/orders.csv', 'UTF-8');
+	 * try
+	 * {
+	 * 	writer.writeRecord(['id', 'customer', 'amount']);
+	 * 	for (var i = 1; i <= foundset.getSize(); i++)
+	 * 	{
+	 * 		var record = foundset.getRecord(i);
+	 * 		writer.writeRecord([record.order_id, record.customer_name, record.amount]);
+	 * 	}
+	 * }
+	 * finally
+	 * {
+	 * 	writer.close();
+	 * }
+	 *
+	 * @param fields the fields of the record
+	 * @return true when the record is written, false when an error occurred
+	 */
+	public boolean js_writeRecord(Object[] fields)
+	{
+		return js_writeRecord(fields, ","); //$NON-NLS-1$
+	}
+
+	/**
+	 * @clonedesc js_writeRecord(Object[])
+	 * @sampleas js_writeRecord(Object[])
+	 *
+	 * @param fields the fields of the record
+	 * @param separator the character that separates the fields, for example ';' or '\t'
+	 * @return true when the record is written, false when an error occurred
+	 */
+	@SuppressWarnings("nls")
+	public boolean js_writeRecord(Object[] fields, String separator)
+	{
+		if (separator == null || separator.length() != 1)
+		{
+			throw new IllegalArgumentException("The separator must be one character");
+		}
+		checkOpen();
+		char sep = separator.charAt(0);
+		try
+		{
+			if (fields != null)
+			{
+				for (int i = 0; i < fields.length; i++)
+				{
+					if (i > 0) writer.write(sep);
+					String field = toString(fields[i]);
+					if (field.indexOf(sep) != -1 || field.indexOf('"') != -1 || field.indexOf('\n') != -1 || field.indexOf('\r') != -1)
+					{
+						writer.write('"');
+						writer.write(field.replace("\"", "\"\""));
+						writer.write('"');
+					}
+					else
+					{
+						writer.write(field);
+					}
+				}
+			}
+			writer.write(LF);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Script numbers are doubles, whole numbers are written without the fraction.
+	 */
+	@SuppressWarnings("nls")
+	private static String toString(Object field)
+	{
+		if (field == null) return "";
+		if (field instanceof Double || field instanceof Float)
+		{
+			double d = ((Number)field).doubleValue();
+			if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e15) return Long.toString((long)d);
+		}
+		return field.toString();
+	}
+
+	/**
+	 * Writes the buffered text to the file.
+	 *
+	 * @sample
+	 * writer.writeLine('checkpoint');
+	 * writer.flush();
+	 *
+	 * @return true when the text is written, false when an error occurred
+	 */
+	public boolean js_flush()
+	{
+		checkOpen();
+		try
+		{
+			writer.flush();
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the buffered text and closes the file, the writer cannot be used anymore.
+	 *
+	 * @sampleas js_write(String)
+	 *
+	 * @return true when the text is written and the file is closed, false when an error occurred
+	 */
+	public boolean js_close()
+	{
+		try
+		{
+			close();
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error(e);
+			return false;
+		}
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (closed || writer == null) return;
+		closed = true;
+		provider.closed(this);
+		writer.close();
+	}
+
+	@SuppressWarnings("nls")
+	private void checkOpen()
+	{
+		if (closed || writer == null)
+		{
+			throw new IllegalStateException("The writer is closed");
+		}
+	}
+}
@@ -25,6 +25,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import com.servoy.j2db.util.Debug;
 import com.servoy.j2db.util.FileChooserUtils;
@@ -186,13 +189,32 @@ public class LocalFile implements IAbstractFile
 		return false; // or throw exception of not supported??
 	}
 
+	/**
+	 * Give the file its own copy of its content when it is stored content addressed, before it is changed in place.
+	 */
+	private boolean detach(boolean keepContent)
+	{
+		try
+		{
+			ContentStore.detach(file, keepContent);
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error("Error detaching local JSFile " + getAbsolutePath() + " from the content store", e); //$NON-NLS-1$
+			return false;
+		}
+	}
+
 	public boolean setLastModified(long time)
 	{
+		if (!detach(true)) return false;
 		return file.setLastModified(time);
 	}
 
 	public boolean setReadOnly()
 	{
+		if (!detach(true)) return false;
 		return file.setReadOnly();
 	}
 
@@ -249,6 +271,7 @@ public class LocalFile implements IAbstractFile
 			{
 				if (exists() || createFile && file.createNewFile())
 				{
+					ContentStore.detach(file, false);
 					out = new BufferedOutputStream(new FileOutputStream(file));
 					out.write(bytes);
 					out.flush();
@@ -276,4 +299,172 @@ public class LocalFile implements IAbstractFile
 		return false;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#readBytes(long, int)
+	 */
+	public byte[] readBytes(long offset, int length)
+	{
+		if (offset < 0 || length < 0)
+		{
+			throw new IllegalArgumentException("Invalid offset " + offset + " or length " + length); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		try
+		{
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try
+			{
+				int count = (int)Math.max(0, Math.min(length, channel.size() - offset));
+				byte[] bytes = new byte[count];
+				// positional reads into the array, a memory mapped buffer would keep the file locked on Windows until it is garbage collected
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) != -1)
+				{
+					// read until the buffer is full
+				}
+				return bytes;
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			Debug.error("Error reading bytes at offset " + offset + " of local JSFile " + getAbsolutePath(), ex); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#writeBytes(long, byte[])
+	 */
+	public boolean writeBytes(long offset, byte[] bytes)
+	{
+		if (offset < 0)
+		{
+			throw new IllegalArgumentException("Invalid offset " + offset); //$NON-NLS-1$
+		}
+		if (bytes != null)
+		{
+			try
+			{
+				ContentStore.detach(file, true);
+				FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				try
+				{
+					// writing past the end of the file extends it
+					ByteBuffer buffer = DirectBufferPool.acquire();
+					try
+					{
+						int written = 0;
+						while (written < bytes.length)
+						{
+							buffer.clear();
+							buffer.put(bytes, written, Math.min(buffer.capacity(), bytes.length - written));
+							buffer.flip();
+							while (buffer.hasRemaining())
+							{
+								written += channel.write(buffer, offset + written);
+							}
+						}
+					}
+					finally
+					{
+						DirectBufferPool.release(buffer);
+					}
+					return true;
+				}
+				finally
+				{
+					channel.close();
+				}
+			}
+			catch (IOException ex)
+			{
+				Debug.error("Error writing bytes at offset " + offset + " of local JSFile " + getAbsolutePath(), ex); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.IAbstractFile#indexOf(byte[], long)
+	 */
+	public long indexOf(byte[] pattern, long offset)
+	{
+		if (pattern == null || offset < 0)
+		{
+			throw new IllegalArgumentException("Invalid pattern or offset " + offset); //$NON-NLS-1$
+		}
+		try
+		{
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try
+			{
+				long size = channel.size();
+				if (pattern.length == 0) return offset <= size ? offset : -1;
+				// the file is searched in windows that are read in a (pooled) buffer, a window must be larger than the pattern
+				ByteBuffer window = pattern.length <= DirectBufferPool.BUFFER_SIZE / 2 ? DirectBufferPool.acquire() : ByteBuffer.allocate(pattern.length * 2);
+				try
+				{
+					long position = offset;
+					while (size - position >= pattern.length)
+					{
+						window.clear();
+						window.limit((int)Math.min(size - position, window.capacity()));
+						while (window.hasRemaining() && channel.read(window, position + window.position()) != -1)
+						{
+							// read until the window is full
+						}
+						int windowSize = window.position();
+						if (windowSize < pattern.length) break;
+						int index = indexOf(window, windowSize, pattern);
+						if (index != -1) return position + index;
+						if (position + windowSize >= size) break;
+						// the next window overlaps so a pattern on the border of two windows is found
+						position += windowSize - pattern.length + 1;
+					}
+				}
+				finally
+				{
+					if (window.isDirect()) DirectBufferPool.release(window);
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			Debug.error("Error searching local JSFile " + getAbsolutePath(), ex); //$NON-NLS-1$
+		}
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer window, int windowSize, byte[] pattern)
+	{
+		byte first = pattern[0];
+		int last = windowSize - pattern.length;
+		for (int i = 0; i <= last; i++)
+		{
+			if (window.get(i) == first)
+			{
+				int j = 1;
+				while (j < pattern.length && window.get(i + j) == pattern[j])
+				{
+					j++;
+				}
+				if (j == pattern.length) return i;
+			}
+		}
+		return -1;
+	}
+
 }
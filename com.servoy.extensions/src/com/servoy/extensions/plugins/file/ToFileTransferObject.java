@@ -17,13 +17,24 @@
 package com.servoy.extensions.plugins.file;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import com.servoy.j2db.util.Debug;
 
 /**
  * Implementation of an ITransferObject, writing the bytes received by a client to a {@link File}<br/>
- * The file is given in the constructor by the caller
+ * The file is given in the constructor by the caller<br/>
+ * All reads and writes are positional reads and writes on one {@link FileChannel} through pooled direct buffers,
+ * so concurrent chunks do not need to be serialized and no temporary buffers are created per call.<br/>
+ * With a {@link ContentStore} the bytes are written to a temporary file and hashed while they arrive,
+ * when the transfer is closed the content is stored and the file is linked to it.
  * 
  * @author Servoy Stuff
  * @since Servoy 5.2
@@ -39,11 +50,41 @@ public class ToFileTransferObject implements ITransferObject
 	private final RemoteFileData fileData;
 
 	/**
-	 * The (File)OutputStream that will be used to write the bytes received
+	 * The channel used to write the bytes received and to read the bytes requested
+	 */
+	private FileChannel channel;
+
+	private boolean channelWritable;
+
+	/**
+	 * The positions of the sequential {@link #write(byte[], long, long)} and {@link #read(long)} calls
+	 */
+	private long writePosition;
+	private long readPosition;
+
+	private final TransferOffset transferOffset;
+
+	/**
+	 * True when the file did not exist before the transfer
 	 */
-	private FileOutputStream output;
+	private final boolean created;
 
-	private FileInputStream input;
+	/**
+	 * The store of the content or null when files are written directly
+	 */
+	private final ContentStore store;
+
+	/**
+	 * The file the bytes are written to when there is a store
+	 */
+	private File tempFile;
+
+	/**
+	 * The hash of the bytes of the temporary file before hashedPosition
+	 */
+	private MessageDigest digest;
+	private long hashedPosition;
+	private final Object digestLock = new Object();
 
 
 	/**
@@ -51,11 +92,40 @@ public class ToFileTransferObject implements ITransferObject
 	 * 
 	 * @param file The {@link File} to use for writing the bytes received
 	 * 
-	 * @throws IOException if a {@link FileOutputStream} cannot be created from the {@link File} given
+	 * @throws IOException if the {@link File} cannot be created
 	 * @throws IllegalArgumentException if the {@link File} given is null
 	 */
-	@SuppressWarnings("nls")
 	public ToFileTransferObject(final File file, RemoteFileData fileData) throws IOException
+	{
+		this(file, fileData, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file The {@link File} to use for writing the bytes received
+	 * @param resume when true the content of an existing file is kept and chunks are written after it
+	 *
+	 * @throws IOException if the {@link File} cannot be created
+	 * @throws IllegalArgumentException if the {@link File} given is null
+	 */
+	public ToFileTransferObject(final File file, RemoteFileData fileData, boolean resume) throws IOException
+	{
+		this(file, fileData, resume, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file The {@link File} to use for writing the bytes received
+	 * @param resume when true the content of an existing file is kept and chunks are written after it
+	 * @param store the store of the content, null to write the file directly
+	 *
+	 * @throws IOException if the {@link File} cannot be created
+	 * @throws IllegalArgumentException if the {@link File} given is null
+	 */
+	@SuppressWarnings("nls")
+	ToFileTransferObject(final File file, RemoteFileData fileData, boolean resume, ContentStore store) throws IOException
 	{
 		if (file == null)
 		{
@@ -65,9 +135,10 @@ public class ToFileTransferObject implements ITransferObject
 		{
 			throw new IllegalArgumentException("ToFileTransferObject file parameter cannot be a directory!");
 		}
+		this.created = !file.exists();
 		try
 		{
-			if (!file.exists())
+			if (created)
 			{
 				File dir = file.getParentFile();
 				if (!((dir.exists() || dir.mkdirs()) && file.createNewFile()))
@@ -82,6 +153,8 @@ public class ToFileTransferObject implements ITransferObject
 		}
 		this.file = file;
 		this.fileData = fileData;
+		this.store = store;
+		this.transferOffset = new TransferOffset(resume ? file.length() : 0);
 	}
 
 	/*
@@ -89,10 +162,10 @@ public class ToFileTransferObject implements ITransferObject
 	 * 
 	 * @see net.stuff.servoy.plugin.velocityreport.ITransferObject#write(byte[], int, int)
 	 */
-	public void write(final byte[] bytes, final long start, final long length) throws IOException
+	public synchronized void write(final byte[] bytes, final long start, final long length) throws IOException
 	{
-		if (output == null) output = new FileOutputStream(file);
-		output.write(bytes, (int)start, (int)length);
+		writeAt(writePosition, bytes, (int)start, (int)length);
+		writePosition += length;
 	}
 
 	/*
@@ -100,21 +173,173 @@ public class ToFileTransferObject implements ITransferObject
 	 * 
 	 * @see net.stuff.servoy.plugin.velocityreport.ITransferObject#read(int)
 	 */
-	public byte[] read(long length) throws IOException
+	public synchronized byte[] read(long length) throws IOException
+	{
+		byte[] bytes = readAt(readPosition, (int)length);
+		if (bytes != null) readPosition += bytes.length;
+		return bytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.ITransferObject#writeChunk(long, byte[], int)
+	 */
+	public void writeChunk(final long offset, final byte[] bytes, final int length) throws IOException
+	{
+		writeAt(offset, bytes, 0, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.ITransferObject#readChunk(long, int)
+	 */
+	public byte[] readChunk(final long offset, final int length) throws IOException
+	{
+		return readAt(offset, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.ITransferObject#getTransferOffset()
+	 */
+	public long getTransferOffset()
+	{
+		return transferOffset.get();
+	}
+
+	private void writeAt(final long offset, final byte[] bytes, final int start, final int length) throws IOException
+	{
+		FileChannel ch = getChannel(true);
+		ByteBuffer buffer = DirectBufferPool.acquire();
+		try
+		{
+			int written = 0;
+			while (written < length)
+			{
+				buffer.clear();
+				buffer.put(bytes, start + written, Math.min(buffer.capacity(), length - written));
+				buffer.flip();
+				while (buffer.hasRemaining())
+				{
+					written += ch.write(buffer, offset + written);
+				}
+			}
+		}
+		finally
+		{
+			DirectBufferPool.release(buffer);
+		}
+		transferOffset.add(offset, offset + length);
+		if (tempFile != null) updateDigest();
+	}
+
+	/**
+	 * Hash the bytes that were received without gaps and are not hashed yet.
+	 */
+	private void updateDigest() throws IOException
+	{
+		synchronized (digestLock)
+		{
+			long end = transferOffset.get();
+			if (hashedPosition >= end) return;
+			FileChannel ch = getChannel(true);
+			ByteBuffer buffer = DirectBufferPool.acquire();
+			try
+			{
+				while (hashedPosition < end)
+				{
+					buffer.clear();
+					buffer.limit((int)Math.min(buffer.capacity(), end - hashedPosition));
+					int read = ch.read(buffer, hashedPosition);
+					if (read == -1) break;
+					buffer.flip();
+					digest.update(buffer);
+					hashedPosition += read;
+				}
+			}
+			finally
+			{
+				DirectBufferPool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes, less than length at the end of the file or null when the offset is at or past the end of the file
+	 */
+	private byte[] readAt(final long offset, final int length) throws IOException
 	{
-		if (input == null) input = new FileInputStream(file);
-		byte[] bytes = new byte[(int)length];
-		int read = input.read(bytes);
-		if (read == -1) return null;
-		if (read != length)
+		FileChannel ch = getChannel(false);
+		long available = ch.size() - offset;
+		if (available <= 0 && length > 0) return null;
+		// the array is allocated once with the final size, unless the file is truncated while reading
+		byte[] bytes = new byte[(int)Math.min(length, Math.max(available, 0))];
+		ByteBuffer buffer = DirectBufferPool.acquire();
+		try
+		{
+			int count = 0;
+			while (count < bytes.length)
+			{
+				buffer.clear();
+				buffer.limit(Math.min(buffer.capacity(), bytes.length - count));
+				int read = ch.read(buffer, offset + count);
+				if (read == -1)
+				{
+					return count == 0 ? null : Arrays.copyOf(bytes, count);
+				}
+				buffer.flip();
+				buffer.get(bytes, count, read);
+				count += read;
+			}
+		}
+		finally
 		{
-			byte[] tmp = new byte[read];
-			System.arraycopy(bytes, 0, tmp, 0, read);
-			return tmp;
+			DirectBufferPool.release(buffer);
 		}
 		return bytes;
 	}
 
+	/**
+	 * Chunks are read and written concurrently using positional reads and writes on one shared channel.
+	 */
+	private synchronized FileChannel getChannel(boolean write) throws IOException
+	{
+		if (channel != null && write && !channelWritable)
+		{
+			channel.close();
+			channel = null;
+		}
+		if (channel == null)
+		{
+			if (write && store != null)
+			{
+				if (tempFile == null)
+				{
+					// the file can be linked to content shared with other files, it is replaced when the transfer is closed
+					tempFile = store.createTempFile();
+					if (transferOffset.get() > 0) Files.copy(file.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					digest = ContentStore.createDigest(ContentStore.HASH_ALGORITHM);
+				}
+				channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+				channel.truncate(transferOffset.get());
+			}
+			else if (write)
+			{
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+				channel.truncate(transferOffset.get());
+			}
+			else
+			{
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			}
+			channelWritable = write;
+		}
+		return channel;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -124,14 +349,84 @@ public class ToFileTransferObject implements ITransferObject
 	{
 		try
 		{
-			if (output != null) output.close();
-			if (input != null) input.close();
+			synchronized (this)
+			{
+				if (channel != null)
+				{
+					// an interrupted transfer can have gaps, only keep the bytes before the first gap so it can be resumed from there
+					if (channelWritable && channel.size() > transferOffset.get()) channel.truncate(transferOffset.get());
+					if (tempFile != null) updateDigest();
+					channel.close();
+				}
+			}
+			if (tempFile != null)
+			{
+				store.store(tempFile, ContentStore.toHex(digest.digest()), file);
+			}
 		}
-		catch (IOException ignore)
+		catch (IOException e)
 		{
+			if (tempFile != null)
+			{
+				Debug.error("Could not store the content of " + file.getAbsolutePath(), e); //$NON-NLS-1$
+				tempFile.delete();
+			}
 		}
 		fileData.refreshSize();
 		return fileData;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.ITransferObject#abort()
+	 */
+	public void abort()
+	{
+		synchronized (this)
+		{
+			try
+			{
+				// with a store the bytes were written to the temporary file, the file itself keeps its content
+				if (channel != null && channelWritable && tempFile == null && channel.size() > transferOffset.get())
+				{
+					// only keep the bytes before the first gap so the transfer can be resumed from there
+					channel.truncate(transferOffset.get());
+				}
+			}
+			catch (IOException e)
+			{
+				Debug.error("Could not truncate the file " + file.getAbsolutePath() + " of an abandoned transfer", e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		release();
+		if (created && transferOffset.get() == 0 && file.length() == 0 && !file.delete())
+		{
+			Debug.warn("Could not delete the file " + file.getAbsolutePath() + " of an abandoned transfer"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.servoy.extensions.plugins.file.ITransferObject#release()
+	 */
+	public void release()
+	{
+		File temp;
+		synchronized (this)
+		{
+			temp = tempFile;
+			try
+			{
+				if (channel != null) channel.close();
+			}
+			catch (IOException ignore)
+			{
+			}
+			channel = null;
+		}
+		if (temp != null) temp.delete();
+	}
+
 }
@@ -0,0 +1,73 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the offset up to which all chunks of a transfer have been written.<br/>
+ * Chunks may be written in any order, chunks after a gap are kept until the gap is filled.
+ */
+class TransferOffset
+{
+	private long offset;
+
+	/**
+	 * start -> end of the chunks that were written after a gap
+	 */
+	private final TreeMap<Long, Long> chunks = new TreeMap<Long, Long>();
+
+	TransferOffset(long offset)
+	{
+		this.offset = offset;
+	}
+
+	/**
+	 * Register a written chunk
+	 *
+	 * @param start the offset of the first byte of the chunk
+	 * @param end the offset after the last byte of the chunk
+	 */
+	synchronized void add(long start, long end)
+	{
+		if (start > offset)
+		{
+			Long current = chunks.get(Long.valueOf(start));
+			if (current == null || current.longValue() < end)
+			{
+				chunks.put(Long.valueOf(start), Long.valueOf(end));
+			}
+			return;
+		}
+		offset = Math.max(offset, end);
+		Map.Entry<Long, Long> next;
+		while ((next = chunks.firstEntry()) != null && next.getKey().longValue() <= offset)
+		{
+			offset = Math.max(offset, next.getValue().longValue());
+			chunks.pollFirstEntry();
+		}
+	}
+
+	/**
+	 * @return the offset up to which all bytes have been written
+	 */
+	synchronized long get()
+	{
+		return offset;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.file;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Contains the {@link ITransferObject}s used per client/file to transfer the byte chunks.<br/>
+ * A client that dies during a transfer never closes it, so transfers that are not used for longer than the idle timeout
+ * are aborted by a background reaper, which keeps the bytes that were received so the transfer can be resumed.
+ * A transfer that is resumed takes over the open transfers of the same file.
+ * The number of open transfers per client is limited.
+ */
+@SuppressWarnings("nls")
+class TransferRegistry
+{
+	private final Map<UUID, Transfer> transfers = new ConcurrentHashMap<UUID, Transfer>();
+	private final long idleTimeout;
+	private final int maxTransfersPerClient;
+	private final ScheduledExecutorService reaper;
+
+	private final AtomicLong openedCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	/**
+	 * @param idleTimeout time in milliseconds after which an unused transfer is aborted, 0 to keep transfers until they are closed
+	 * @param maxTransfersPerClient maximum number of open transfers of one client, 0 for no maximum
+	 */
+	TransferRegistry(long idleTimeout, int maxTransfersPerClient)
+	{
+		this.idleTimeout = idleTimeout;
+		this.maxTransfersPerClient = maxTransfersPerClient;
+		if (idleTimeout > 0)
+		{
+			reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "File plugin transfer reaper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long interval = Math.max(1000, Math.min(idleTimeout / 2, 60 * 1000));
+			reaper.scheduleWithFixedDelay(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						abortExpired();
+					}
+					catch (Exception e)
+					{
+						Debug.error("Error aborting expired file transfers", e);
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			reaper = null;
+		}
+	}
+
+	/**
+	 * Register a new transfer.
+	 *
+	 * @param key the canonical path of the file of the transfer
+	 * @return the {@link UUID} used by the client for the transfer
+	 * @throws IOException when the client has too many open transfers, the transfer is aborted
+	 */
+	UUID open(String clientId, String key, ITransferObject transferObject) throws IOException
+	{
+		if (maxTransfersPerClient > 0 && getOpenCount(clientId) >= maxTransfersPerClient)
+		{
+			transferObject.abort();
+			throw new IOException("Too many open file transfers for client " + clientId + " (max " + maxTransfersPerClient + ")");
+		}
+		final UUID id = UUID.randomUUID();
+		transfers.put(id, new Transfer(clientId, key, transferObject));
+		openedCount.incrementAndGet();
+		return id;
+	}
+
+	/**
+	 * Get the transfer, this marks it as used.
+	 *
+	 * @return the transfer or null when it is unknown, closed or expired
+	 */
+	ITransferObject get(UUID uuid)
+	{
+		Transfer transfer = transfers.get(uuid);
+		if (transfer == null)
+		{
+			return null;
+		}
+		transfer.lastAccess = System.currentTimeMillis();
+		return transfer.transferObject;
+	}
+
+	/**
+	 * Close the transfer.
+	 *
+	 * @return the identifier of the resource created or null when the transfer is unknown
+	 */
+	Object close(UUID uuid)
+	{
+		Transfer transfer = transfers.remove(uuid);
+		if (transfer == null)
+		{
+			return null;
+		}
+		completedCount.incrementAndGet();
+		return transfer.transferObject.close();
+	}
+
+	/**
+	 * Close the open transfers of a file, so a new transfer can resume from the bytes they received.
+	 *
+	 * @param key the canonical path of the file
+	 */
+	void takeOver(String key)
+	{
+		for (Map.Entry<UUID, Transfer> entry : transfers.entrySet())
+		{
+			Transfer transfer = entry.getValue();
+			if (transfer.key.equals(key) && transfers.remove(entry.getKey(), transfer))
+			{
+				transfer.transferObject.close();
+			}
+		}
+	}
+
+	/**
+	 * Close all transfers and stop the reaper.
+	 */
+	void closeAll()
+	{
+		if (reaper != null)
+		{
+			reaper.shutdownNow();
+		}
+		for (UUID uuid : transfers.keySet())
+		{
+			close(uuid);
+		}
+		Debug.log("File plugin transfers: " + getStatistics());
+	}
+
+	void abortExpired()
+	{
+		long expiredBefore = System.currentTimeMillis() - idleTimeout;
+		int count = 0;
+		for (Map.Entry<UUID, Transfer> entry : transfers.entrySet())
+		{
+			Transfer transfer = entry.getValue();
+			if (transfer.lastAccess < expiredBefore && transfers.remove(entry.getKey(), transfer))
+			{
+				if (isHeld(transfer.key))
+				{
+					// another transfer writes or reads the same file
+					transfer.transferObject.release();
+				}
+				else
+				{
+					transfer.transferObject.abort();
+				}
+				expiredCount.incrementAndGet();
+				count++;
+			}
+		}
+		if (count > 0)
+		{
+			Debug.warn("Aborted " + count + " file transfers that were not used for " + idleTimeout / 1000 + " seconds, " + getStatistics());
+		}
+	}
+
+	private boolean isHeld(String key)
+	{
+		for (Transfer transfer : transfers.values())
+		{
+			if (transfer.key.equals(key)) return true;
+		}
+		return false;
+	}
+
+	private int getOpenCount(String clientId)
+	{
+		int count = 0;
+		for (Transfer transfer : transfers.values())
+		{
+			if (transfer.clientId.equals(clientId)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of open transfers
+	 */
+	int getOpenCount()
+	{
+		return transfers.size();
+	}
+
+	/**
+	 * @return the number of transfers opened since the plugin was loaded
+	 */
+	long getOpenedCount()
+	{
+		return openedCount.get();
+	}
+
+	/**
+	 * @return the number of transfers closed by the client
+	 */
+	long getCompletedCount()
+	{
+		return completedCount.get();
+	}
+
+	/**
+	 * @return the number of transfers aborted because they were not used anymore
+	 */
+	long getExpiredCount()
+	{
+		return expiredCount.get();
+	}
+
+	String getStatistics()
+	{
+		return "open: " + getOpenCount() + ", opened: " + getOpenedCount() + ", completed: " + getCompletedCount() + ", expired: " + getExpiredCount();
+	}
+
+	private static class Transfer
+	{
+		final String clientId;
+		final String key;
+		final ITransferObject transferObject;
+		volatile long lastAccess = System.currentTimeMillis();
+
+		Transfer(String clientId, String key, ITransferObject transferObject)
+		{
+			this.clientId = clientId;
+			this.key = key;
+			this.transferObject = transferObject;
+		}
+	}
+}
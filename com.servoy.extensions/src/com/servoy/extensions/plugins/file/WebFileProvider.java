@@ -286,6 +286,7 @@ public class WebFileProvider extends FileProvider
 								}
 								if ((dest.exists() && dest.canWrite()) || dest.createNewFile())
 								{
+									ContentStore.detach(dest, false);
 									os = new BufferedOutputStream(new FileOutputStream(dest));
 
 									final byte[] buffer = new byte[CHUNK_BUFFER_SIZE];
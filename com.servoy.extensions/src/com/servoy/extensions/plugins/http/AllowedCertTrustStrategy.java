@@ -35,7 +35,10 @@ import com.servoy.j2db.util.Debug;
 class AllowedCertTrustStrategy implements TrustStrategy
 {
 
-	private X509Certificate[] lastCertificates;
+	/**
+	 * The certificates of the last handshake of the thread, the strategy can be shared by the connections of a pool
+	 */
+	private final ThreadLocal<X509Certificate[]> lastCertificates = new ThreadLocal<X509Certificate[]>();
 	private CertificatesHolder holder;
 
 	/*
@@ -46,7 +49,7 @@ class AllowedCertTrustStrategy implements TrustStrategy
 	@Override
 	public boolean isTrusted(X509Certificate[] chain, String authType) throws CertificateException
 	{
-		this.lastCertificates = chain;
+		lastCertificates.set(chain);
 		return getCertificatesHolder().isValid(chain);
 	}
 
@@ -55,8 +58,8 @@ class AllowedCertTrustStrategy implements TrustStrategy
 	 */
 	public X509Certificate[] getAndClearLastCertificates()
 	{
-		X509Certificate[] tmp = lastCertificates;
-		lastCertificates = null;
+		X509Certificate[] tmp = lastCertificates.get();
+		lastCertificates.remove();
 		return tmp;
 	}
 
@@ -37,8 +37,8 @@ import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.ByteArrayBody;
 import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -57,6 +57,8 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 {
 	private String content;
 	private String mimeType = ContentType.TEXT_PLAIN.getMimeType();
+	private Object bodyFile;
+	private String bodyFileMimeType;
 	protected String charset = HTTP.UTF_8;
 
 	private Map<Pair<String, String>, Object> files;
@@ -108,6 +110,43 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 	}
 
 
+	/**
+	 * Set a file as the body of the request, the file is streamed to the server so it is never completely in memory.
+	 * Use this instead of setBodyContent to upload large files.
+	 *
+	 * @sample
+	 * var request = client.createPutRequest('https://www.example.com/upload/export.csv');
+	 * request.setBodyFile(plugins.file.convertToJSFile('/export/export.csv'), 'text/csv');
+	 * var httpCode = request.executeRequest().getStatusCode();
+	 *
+	 * @param file the {@link JSFile} or the path of the file
+	 * @return true when the file exists
+	 */
+	public boolean js_setBodyFile(Object file)
+	{
+		return js_setBodyFile(file, ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+	}
+
+	/**
+	 * @clonedesc js_setBodyFile(Object)
+	 * @sampleas js_setBodyFile(Object)
+	 *
+	 * @param file the {@link JSFile} or the path of the file
+	 * @param mimeType the mime type of the content of the file
+	 * @return true when the file exists
+	 */
+	public boolean js_setBodyFile(Object file, String mimeType)
+	{
+		Object f = file instanceof String ? new File((String)file) : file;
+		if ((f instanceof File && ((File)f).isFile()) || (f instanceof JSFile && ((JSFile)f).js_exists()))
+		{
+			this.bodyFile = f;
+			this.bodyFileMimeType = mimeType;
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Set the charset used when posting. If this is null or not called it will use the default charset (UTF-8).
 	 *
@@ -130,7 +169,11 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 	protected HttpEntity buildEntity() throws Exception
 	{
 		HttpEntity entity = null;
-		if (files.size() == 0)
+		if (bodyFile != null)
+		{
+			entity = createFileEntity(bodyFile, ContentType.create(bodyFileMimeType));
+		}
+		else if (files.size() == 0)
 		{
 			if (params != null)
 			{
@@ -144,20 +187,7 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 		}
 		else if (files.size() == 1 && (params == null || params.size() == 0))
 		{
-			Object f = files.values().iterator().next();
-			if (f instanceof File)
-			{
-				entity = new FileEntity((File)f, ContentType.create("binary/octet-stream")); //$NON-NLS-1$
-			}
-			else if (f instanceof JSFile)
-			{
-				entity = new InputStreamEntity(((JSFile)f).getAbstractFile().getInputStream(), ((JSFile)f).js_size(),
-					ContentType.create("binary/octet-stream")); //$NON-NLS-1$
-			}
-			else
-			{
-				Debug.error("could not add file to post request unknown type: " + f);
-			}
+			entity = createFileEntity(files.values().iterator().next(), ContentType.create("binary/octet-stream")); //$NON-NLS-1$
 		}
 		else
 		{
@@ -174,8 +204,17 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 				}
 				else if (file instanceof JSFile)
 				{
-					builder.addPart(e.getKey().getLeft(), new ByteArrayBody(Utils.getBytesFromInputStream(((JSFile)file).getAbstractFile().getInputStream()),
-						ContentType.create("binary/octet-stream"), ((JSFile)file).js_getName()));
+					// stream the file instead of reading it in memory
+					JSFile jsFile = (JSFile)file;
+					if (jsFile.getFile() != null)
+					{
+						builder.addPart(e.getKey().getLeft(), new FileBody(jsFile.getFile(), ContentType.create("binary/octet-stream"), jsFile.js_getName()));
+					}
+					else
+					{
+						builder.addPart(e.getKey().getLeft(),
+							new InputStreamBody(jsFile.getAbstractFile().getInputStream(), ContentType.create("binary/octet-stream"), jsFile.js_getName()));
+					}
 				}
 				else
 				{
@@ -200,6 +239,28 @@ public class BaseEntityEnclosingRequest extends BaseRequest
 		return entity;
 	}
 
+	/**
+	 * Create an entity that streams the file, a local file can be sent again (after a redirect or an authentication request).
+	 */
+	private HttpEntity createFileEntity(Object f, ContentType contentType) throws Exception
+	{
+		if (f instanceof File)
+		{
+			return new FileEntity((File)f, contentType);
+		}
+		if (f instanceof JSFile)
+		{
+			JSFile jsFile = (JSFile)f;
+			if (jsFile.getFile() != null)
+			{
+				return new FileEntity(jsFile.getFile(), contentType);
+			}
+			return new InputStreamEntity(jsFile.getAbstractFile().getInputStream(), jsFile.js_size(), contentType);
+		}
+		Debug.error("could not add file to post request unknown type: " + f);
+		return null;
+	}
+
 
 	/**
 	 * Add a file to the post.
@@ -17,10 +17,13 @@
 
 package com.servoy.extensions.plugins.http;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.auth.AuthScope;
@@ -28,6 +31,7 @@ import org.apache.http.auth.Credentials;
 import org.apache.http.auth.NTCredentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig.Builder;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
@@ -35,6 +39,7 @@ import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.mozilla.javascript.Function;
 
 import com.servoy.j2db.plugins.IClientPluginAccess;
@@ -59,6 +64,8 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	protected boolean usePreemptiveAuthentication = false;
 	private Builder requestConfigBuilder;
 	private BasicCredentialsProvider proxyCredentialsProvider;
+	private RetryPolicy retryPolicy;
+	private boolean responseCache;
 
 	public BaseRequest()
 	{
@@ -186,6 +193,72 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 		this.usePreemptiveAuthentication = b;
 	}
 
+	/**
+	 * Retry the request when it fails with an exception (other than an unknown host or ssl error) or with one of the status codes 429, 502, 503 or 504.
+	 * The request is sent at most maxAttempts times, before every retry it waits a random time (so clients that failed at the same moment do not retry together)
+	 * of at most initialDelay milliseconds (default 500) that doubles for every next retry up to maxDelay milliseconds (default 30000).
+	 * When the response has a Retry-After header that time is waited instead; when it is longer than maxDelay the response is returned.
+	 * When idempotentOnly is true (the default) POST and PATCH requests are not retried, because sending them twice can have side effects.
+	 * Requests with a body that can only be read once (a stream of a remote file) are not retried.
+	 *
+	 * Requests with a retry policy also use the circuit breaker of their host, that is shared by all clients of the server (or smart client):
+	 * after servoy.http.circuitBreaker.failures (default 5, 0 disables it) failed requests in a row the requests to that host fail immediately
+	 * without being sent, until a test request after servoy.http.circuitBreaker.openTime milliseconds (default 30000) succeeds.
+	 * A failed request is one that fails with an exception or with a status code of 429 or 500 and higher.
+	 *
+	 * @sample
+	 * var request = client.createGetRequest('https://api.example.com/orders');
+	 * request.setRetryPolicy(5, 200, 10000, [429, 503], true);
+	 * var response = request.executeRequest();
+	 *
+	 * @param maxAttempts the maximum number of times the request is sent
+	 */
+	public void js_setRetryPolicy(int maxAttempts)
+	{
+		setRetryPolicy(RetryPolicy.create(maxAttempts, RetryPolicy.DEFAULT_INITIAL_DELAY, RetryPolicy.DEFAULT_MAX_DELAY, null, true));
+	}
+
+	/**
+	 * @clonedesc js_setRetryPolicy(int)
+	 * @sampleas js_setRetryPolicy(int)
+	 *
+	 * @param maxAttempts the maximum number of times the request is sent
+	 * @param initialDelay the maximum time in milliseconds to wait before the first retry
+	 * @param maxDelay the maximum time in milliseconds to wait before a retry
+	 */
+	public void js_setRetryPolicy(int maxAttempts, int initialDelay, int maxDelay)
+	{
+		setRetryPolicy(RetryPolicy.create(maxAttempts, initialDelay, maxDelay, null, true));
+	}
+
+	/**
+	 * @clonedesc js_setRetryPolicy(int)
+	 * @sampleas js_setRetryPolicy(int)
+	 *
+	 * @param maxAttempts the maximum number of times the request is sent
+	 * @param initialDelay the maximum time in milliseconds to wait before the first retry
+	 * @param maxDelay the maximum time in milliseconds to wait before a retry
+	 * @param retryStatusCodes the status codes of the responses that are retried
+	 * @param idempotentOnly false to also retry POST and PATCH requests
+	 */
+	public void js_setRetryPolicy(int maxAttempts, int initialDelay, int maxDelay, Object[] retryStatusCodes, boolean idempotentOnly)
+	{
+		setRetryPolicy(RetryPolicy.create(maxAttempts, initialDelay, maxDelay, retryStatusCodes, idempotentOnly));
+	}
+
+	void setRetryPolicy(RetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @param responseCache true when the client of this request caches responses
+	 */
+	void setResponseCache(boolean responseCache)
+	{
+		this.responseCache = responseCache;
+	}
+
 	protected HttpEntity buildEntity() throws Exception
 	{
 		return null;
@@ -193,7 +266,8 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 
 	private Response executeRequest(String userName, String password, String workstation, String domain, boolean windowsAuthentication) throws Exception
 	{
-		HttpClientContext context = null;
+		// only a caching client needs (and loads) the classes of the response cache
+		HttpClientContext context = responseCache ? ResponseCache.createContext() : HttpClientContext.create();
 		HttpEntity entity = buildEntity();
 		if (entity != null) ((HttpEntityEnclosingRequestBase)method).setEntity(entity);
 
@@ -209,13 +283,10 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 		}
 		if (proxyCredentialsProvider != null)
 		{
-			context = HttpClientContext.create();
 			context.setCredentialsProvider(proxyCredentialsProvider);
 		}
 		if (!Utils.stringIsEmpty(userName))
 		{
-			if (context == null) context = HttpClientContext.create();
-
 			BasicCredentialsProvider bcp = new BasicCredentialsProvider();
 			URL _url = HttpProvider.createURLFromString(url, httpPlugin.getClientPluginAccess());
 			Credentials cred = null;
@@ -236,22 +307,105 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 			}
 		}
 		method.setConfig(requestConfigBuilder.build());
-		return new Response(client.execute(method, context), method);
+
+		RetryPolicy policy = retryPolicy != null && retryPolicy.canRetry(method.getMethod()) && (entity == null || entity.isRepeatable()) ? retryPolicy
+			: null;
+		CircuitBreaker breaker = retryPolicy != null ? httpPlugin.getCircuitBreaker(method.getURI()) : null;
+		int attempt = 0;
+		while (true)
+		{
+			attempt++;
+			CircuitBreaker.Permit permit = breaker != null ? breaker.allowRequest() : null;
+			if (breaker != null && permit == null)
+			{
+				throw new IOException("The circuit breaker of " + method.getURI().getHost() + " is open, the request is not sent");
+			}
+			CloseableHttpResponse httpResponse;
+			try
+			{
+				httpResponse = client.execute(method, context);
+			}
+			catch (IOException e)
+			{
+				if (breaker != null) breakerFailure(breaker, permit);
+				if (policy == null || method.isAborted() || !policy.shouldRetry(attempt, e)) throw e;
+				Debug.log("Retrying request to " + method.getURI() + " after: " + e.getMessage());
+				sleep(policy.getDelay(attempt, null));
+				continue;
+			}
+			catch (RuntimeException e)
+			{
+				if (breaker != null) breakerFailure(breaker, permit);
+				throw e;
+			}
+
+			int statusCode = httpResponse.getStatusLine().getStatusCode();
+			if (breaker != null)
+			{
+				// a 429 is about this client sending too much, the host itself is fine
+				if (statusCode == 429) breaker.ignore(permit);
+				else if (statusCode >= 500) breaker.failure();
+				else breaker.success();
+			}
+			if (policy != null && !method.isAborted() && policy.shouldRetry(attempt, statusCode))
+			{
+				long delay = policy.getDelay(attempt, httpResponse);
+				if (delay >= 0)
+				{
+					// release the connection before waiting
+					EntityUtils.consumeQuietly(httpResponse.getEntity());
+					Debug.log("Retrying request to " + method.getURI() + " after status " + statusCode);
+					sleep(delay);
+					continue;
+				}
+			}
+
+			if (responseCache) ResponseCache.countResponse(context);
+			return new Response(httpResponse, method);
+		}
+	}
+
+	/**
+	 * Count a failed request in the circuit breaker, unless it failed because it was canceled (aborted or interrupted) instead of because of the host.
+	 */
+	private void breakerFailure(CircuitBreaker breaker, CircuitBreaker.Permit permit)
+	{
+		if (method.isAborted() || Thread.currentThread().isInterrupted()) breaker.ignore(permit);
+		else breaker.failure();
+	}
+
+	private static void sleep(long delay) throws InterruptedIOException
+	{
+		try
+		{
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry the request");
+		}
 	}
 
 	/**
 	 * Execute the request method asynchronous. Success callback method will be called when response is received. Response is sent as parameter in callback. If no response is received (request errors out), the errorCallbackMethod is called with exception message as parameter.
+	 * The number of asynchronous requests that are executed at the same time is limited by the property servoy.http.async.maxInFlight (default 50),
+	 * other requests wait until one is done. When more than servoy.http.async.maxQueued (default 10000) requests are waiting the request is not executed
+	 * and the errorCallbackMethod is called.
+	 * The returned handle can cancel the request.
 	 *
 	 * @sample
-	 * method.executeAsyncRequest(globals.successCallback,globals.errorCallback)
+	 * var handle = method.executeAsyncRequest(globals.successCallback,globals.errorCallback)
+	 * // when the response is not needed anymore
+	 * handle.cancel();
 	 *
 	 * @param successCallbackMethod callbackMethod to be called after response is received
 	 * @param errorCallbackMethod callbackMethod to be called if request errors out
-	 *
+	 * @return the {@link RequestHandle} to cancel the request
 	 */
-	public void js_executeAsyncRequest(Function successCallbackMethod, Function errorCallbackMethod)
+	public RequestHandle js_executeAsyncRequest(Function successCallbackMethod, Function errorCallbackMethod)
 	{
-		executeAsyncRequest(null, null, null, null, successCallbackMethod, errorCallbackMethod, false, null);
+		return executeAsyncRequest(null, null, null, null, successCallbackMethod, errorCallbackMethod, false, null);
 	}
 
 	/**
@@ -264,9 +418,9 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	 * @param errorCallbackMethod callbackMethod to be called if request errors out
 	 */
 
-	public void js_executeAsyncRequest(final String username, final String password, Function successCallbackMethod, Function errorCallbackMethod)
+	public RequestHandle js_executeAsyncRequest(final String username, final String password, Function successCallbackMethod, Function errorCallbackMethod)
 	{
-		executeAsyncRequest(username, password, null, null, successCallbackMethod, errorCallbackMethod, false, null);
+		return executeAsyncRequest(username, password, null, null, successCallbackMethod, errorCallbackMethod, false, null);
 	}
 
 	/**
@@ -283,10 +437,10 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	 * @param errorCallbackMethod callbackMethod to be called if request errors out
 	 */
 
-	public void js_executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
+	public RequestHandle js_executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
 		Function successCallbackMethod, Function errorCallbackMethod)
 	{
-		executeAsyncRequest(username, password, workstation, domain, successCallbackMethod, errorCallbackMethod, true, null);
+		return executeAsyncRequest(username, password, workstation, domain, successCallbackMethod, errorCallbackMethod, true, null);
 	}
 
 	/**
@@ -304,9 +458,9 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	 * using the same callback method for multiple requests. Please use only simple JSON arguments (primitive types or array/objects of primitive types)
 	 *
 	 */
-	public void js_executeAsyncRequest(Function successCallbackMethod, Function errorCallbackMethod, final Object[] callbackExtraArgs)
+	public RequestHandle js_executeAsyncRequest(Function successCallbackMethod, Function errorCallbackMethod, final Object[] callbackExtraArgs)
 	{
-		executeAsyncRequest(null, null, null, null, successCallbackMethod, errorCallbackMethod, false, callbackExtraArgs);
+		return executeAsyncRequest(null, null, null, null, successCallbackMethod, errorCallbackMethod, false, callbackExtraArgs);
 	}
 
 	/**
@@ -321,10 +475,10 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	 * using the same callback method for multiple requests. Please use only simple JSON arguments (primitive types or array/objects of primitive types)
 	 */
 
-	public void js_executeAsyncRequest(final String username, final String password, Function successCallbackMethod, Function errorCallbackMethod,
+	public RequestHandle js_executeAsyncRequest(final String username, final String password, Function successCallbackMethod, Function errorCallbackMethod,
 		final Object[] callbackExtraArgs)
 	{
-		executeAsyncRequest(username, password, null, null, successCallbackMethod, errorCallbackMethod, false, callbackExtraArgs);
+		return executeAsyncRequest(username, password, null, null, successCallbackMethod, errorCallbackMethod, false, callbackExtraArgs);
 	}
 
 	/**
@@ -345,13 +499,13 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 	 * using the same callback method for multiple requests. Please use only simple JSON arguments (primitive types or array/objects of primitive types)
 	 */
 
-	public void js_executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
+	public RequestHandle js_executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
 		Function successCallbackMethod, Function errorCallbackMethod, final Object[] callbackExtraArgs)
 	{
-		executeAsyncRequest(username, password, workstation, domain, successCallbackMethod, errorCallbackMethod, true, callbackExtraArgs);
+		return executeAsyncRequest(username, password, workstation, domain, successCallbackMethod, errorCallbackMethod, true, callbackExtraArgs);
 	}
 
-	private void executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
+	private RequestHandle executeAsyncRequest(final String username, final String password, final String workstation, final String domain,
 		Function successCallbackMethod, Function errorCallbackMethod, final boolean windowsAuthentication, final Object[] callbackExtraArgs)
 	{
 		final FunctionDefinition successFunctionDef = successCallbackMethod != null ? new FunctionDefinition(successCallbackMethod) : null;
@@ -378,16 +532,22 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 			}
 		}
 		final Object[] callbackArgs = convertedThereAndBackAgainPlusOne != null ? convertedThereAndBackAgainPlusOne : new Object[1];
+		final RequestHandle handle = new RequestHandle(method);
 
 		Runnable runnable = new Runnable()
 		{
 			public void run()
 			{
+				if (!handle.start()) return;
 				try
 				{
 					final Response response = executeRequest(username, password, workstation, domain, windowsAuthentication);
 
-					if (successFunctionDef != null)
+					if (handle.js_isCanceled())
+					{
+						response.js_close();
+					}
+					else if (successFunctionDef != null)
 					{
 						IClientPluginAccess access = httpPlugin.getClientPluginAccess();
 						if (access != null)
@@ -403,25 +563,46 @@ public abstract class BaseRequest implements IScriptable, IJavaScriptType
 				}
 				catch (final Exception ex)
 				{
-					logError(ex, username, workstation, domain);
-					if (errorFunctionDef != null)
+					if (!handle.js_isCanceled())
 					{
-						IClientPluginAccess access = httpPlugin.getClientPluginAccess();
-						if (access != null)
-						{
-							callbackArgs[0] = ex.getMessage();
-							errorFunctionDef.executeAsync(access, callbackArgs);
-						}
-						else
-						{
-							Debug.log(
-								"Error callback for request: " + method.getURI() + " was given: " + errorFunctionDef + " but the client was already closed");
-						}
+						logError(ex, username, workstation, domain);
+						callError(errorFunctionDef, callbackArgs, ex.getMessage());
 					}
 				}
+				finally
+				{
+					handle.finish();
+				}
 			}
 		};
-		httpPlugin.getExecutor().execute(runnable);
+		try
+		{
+			handle.setFuture(httpPlugin.getExecutor().submit(runnable));
+		}
+		catch (RejectedExecutionException ex)
+		{
+			Debug.warn("Too many asynchronous requests are waiting, request to " + method.getURI() + " is not executed");
+			handle.finish();
+			callError(errorFunctionDef, callbackArgs, "Too many asynchronous requests are waiting");
+		}
+		return handle;
+	}
+
+	private void callError(FunctionDefinition errorFunctionDef, Object[] callbackArgs, String message)
+	{
+		if (errorFunctionDef != null)
+		{
+			IClientPluginAccess access = httpPlugin.getClientPluginAccess();
+			if (access != null)
+			{
+				callbackArgs[0] = message;
+				errorFunctionDef.executeAsync(access, callbackArgs);
+			}
+			else
+			{
+				Debug.log("Error callback for request: " + method.getURI() + " was given: " + errorFunctionDef + " but the client was already closed");
+			}
+		}
 	}
 
 	private void logError(Exception ex, String username, String workstation, String domain)
@@ -0,0 +1,120 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Circuit breaker of a host, shared by all clients in the jvm.<br/>
+ * After the configured number of failures in a row the circuit opens and requests to the host fail immediately without being sent,
+ * so a host that is in trouble is not flooded with (retried) requests. After the open time one request is let through:
+ * when it succeeds the circuit closes again, when it fails the circuit stays open for another open time.
+ */
+@SuppressWarnings("nls")
+class CircuitBreaker
+{
+	/**
+	 * Permission to send a request, the trial permit is given to the one request that tests the host of an open circuit.
+	 */
+	enum Permit
+	{
+		REQUEST, TRIAL
+	}
+
+	private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final String host;
+	private final int failureThreshold;
+	private final long openTime;
+
+	private int failures;
+	private long openedAt = -1;
+	private boolean trialSent;
+
+	private CircuitBreaker(String host, int failureThreshold, long openTime)
+	{
+		this.host = host;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * Get the circuit breaker of the host, it is created with the given settings the first time.
+	 *
+	 * @return the circuit breaker or null when the failure threshold is 0 (disabled)
+	 */
+	static CircuitBreaker get(String host, int failureThreshold, long openTime)
+	{
+		if (failureThreshold <= 0 || host == null) return null;
+		CircuitBreaker breaker = breakers.get(host);
+		if (breaker == null)
+		{
+			CircuitBreaker newBreaker = new CircuitBreaker(host, failureThreshold, openTime);
+			breaker = breakers.putIfAbsent(host, newBreaker);
+			if (breaker == null) breaker = newBreaker;
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return the permit to send a request to the host, to be passed to {@link #ignore(Permit)}, or null when the request cannot be sent
+	 */
+	synchronized Permit allowRequest()
+	{
+		if (openedAt == -1) return Permit.REQUEST;
+		if (!trialSent && System.currentTimeMillis() - openedAt >= openTime)
+		{
+			// half open: let one request through to test the host
+			trialSent = true;
+			return Permit.TRIAL;
+		}
+		return null;
+	}
+
+	synchronized void success()
+	{
+		if (openedAt != -1) Debug.log("Circuit breaker of " + host + " is closed again");
+		failures = 0;
+		openedAt = -1;
+		trialSent = false;
+	}
+
+	/**
+	 * Called for a request that tells nothing about the host, for example a canceled request.
+	 * When it was the request that tests the host of an open circuit, the next request is let through to test it.
+	 *
+	 * @param permit the permit the request got from {@link #allowRequest()}
+	 */
+	synchronized void ignore(Permit permit)
+	{
+		if (permit == Permit.TRIAL && openedAt != -1) trialSent = false;
+	}
+
+	synchronized void failure()
+	{
+		failures++;
+		if (trialSent || (openedAt == -1 && failures >= failureThreshold))
+		{
+			if (openedAt == -1) Debug.warn("Circuit breaker of " + host + " is opened after " + failures + " failures, requests are not sent for " + openTime + "ms");
+			openedAt = System.currentTimeMillis();
+			trialSent = false;
+		}
+	}
+}
@@ -56,33 +56,76 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	private String proxyPassword;
 	private String proxyHost;
 	private int proxyPort = 8080;
+	private RetryPolicy retryPolicy;
+	private final boolean responseCache;
 
 	public HttpClient(HttpPlugin httpPlugin)
+	{
+		this(httpPlugin, false);
+	}
+
+	/**
+	 * @param httpPlugin
+	 * @param sharedConnectionPool true to use the connection pool of the plugin that is shared by all clients, false for a pool of this client only
+	 */
+	public HttpClient(HttpPlugin httpPlugin, boolean sharedConnectionPool)
+	{
+		this(httpPlugin, sharedConnectionPool, false);
+	}
+
+	/**
+	 * @param httpPlugin
+	 * @param sharedConnectionPool true to use the connection pool of the plugin that is shared by all clients, false for a pool of this client only
+	 * @param responseCache true to cache the responses in the response cache of the plugin
+	 */
+	public HttpClient(HttpPlugin httpPlugin, boolean sharedConnectionPool, boolean responseCache)
 	{
 		this.httpPlugin = httpPlugin;
+		this.responseCache = responseCache;
 
-		HttpClientBuilder builder = HttpClientBuilder.create();
+		HttpClientBuilder builder = responseCache ? httpPlugin.createCachingClientBuilder() : HttpClientBuilder.create();
 		requestConfigBuilder = RequestConfig.custom();
 		requestConfigBuilder.setCircularRedirectsAllowed(true);
-		builder.setMaxConnPerRoute(5);
 
 		cookieStore = new BasicCookieStore();
 		builder.setDefaultCookieStore(cookieStore);
 
+		if (sharedConnectionPool)
+		{
+			// closing this client must not close the connections of the other clients
+			builder.setConnectionManager(httpPlugin.getSharedConnectionManager());
+			builder.setConnectionManagerShared(true);
+			builder.setKeepAliveStrategy(httpPlugin.getKeepAliveStrategy());
+		}
+		else
+		{
+			builder.setMaxConnPerRoute(5);
+			SSLConnectionSocketFactory socketFactory = createSSLSocketFactory(httpPlugin);
+			if (socketFactory != null) builder.setSSLSocketFactory(socketFactory);
+		}
+
+		client = builder.build();
+	}
+
+	/**
+	 * Create the socket factory for https connections that lets a smart client user accept unknown certificates.
+	 *
+	 * @return the socket factory or null when it could not be created
+	 */
+	static SSLConnectionSocketFactory createSSLSocketFactory(HttpPlugin httpPlugin)
+	{
 		try
 		{
 			final AllowedCertTrustStrategy allowedCertTrustStrategy = new AllowedCertTrustStrategy();
 			SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(allowedCertTrustStrategy).build();
 
-			SSLConnectionSocketFactory socketFactory = new CertificateSSLSocketFactoryHandler(sslContext, allowedCertTrustStrategy, httpPlugin);
-			builder.setSSLSocketFactory(socketFactory);
+			return new CertificateSSLSocketFactoryHandler(sslContext, allowedCertTrustStrategy, httpPlugin);
 		}
 		catch (Exception ex)
 		{
 			Debug.error("Can't set up ssl socket factory", ex); //$NON-NLS-1$
 		}
-
-		client = builder.build();
+		return null;
 	}
 
 	/**
@@ -273,8 +316,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public PostRequest js_createPostRequest(String url)
 	{
-		return new PostRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new PostRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -296,8 +339,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public GetRequest js_createGetRequest(String url)
 	{
-		return new GetRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new GetRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -314,8 +357,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public DeleteRequest js_createDeleteRequest(String url)
 	{
-		return new DeleteRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new DeleteRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -331,8 +374,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public PatchRequest js_createPatchRequest(String url)
 	{
-		return new PatchRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new PatchRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -348,8 +391,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public PutRequest js_createPutRequest(String url)
 	{
-		return new PutRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new PutRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -364,8 +407,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public OptionsRequest js_createOptionsRequest(String url)
 	{
-		return new OptionsRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new OptionsRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -382,8 +425,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public HeadRequest js_createHeadRequest(String url)
 	{
-		return new HeadRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new HeadRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -399,8 +442,8 @@ public class HttpClient implements IScriptable, IJavaScriptType
 	 */
 	public TraceRequest js_createTraceRequest(String url)
 	{
-		return new TraceRequest(url, client, httpPlugin, requestConfigBuilder,
-			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort));
+		return configure(new TraceRequest(url, client, httpPlugin, requestConfigBuilder,
+			HttpProvider.setHttpClientProxy(requestConfigBuilder, url, proxyUser, proxyPassword, proxyHost, proxyPort)));
 	}
 
 	/**
@@ -444,6 +487,56 @@ public class HttpClient implements IScriptable, IJavaScriptType
 		}
 	}
 
+	/**
+	 * Set the retry policy of the requests that are created by this client after this call, see the setRetryPolicy of a request.
+	 *
+	 * @sample
+	 * var client = plugins.http.createNewHttpClient(true);
+	 * client.setRetryPolicy(3);
+	 * var response = client.createGetRequest('https://api.example.com/orders').executeRequest();
+	 *
+	 * @param maxAttempts the maximum number of times a request is sent
+	 */
+	public void js_setRetryPolicy(int maxAttempts)
+	{
+		retryPolicy = RetryPolicy.create(maxAttempts, RetryPolicy.DEFAULT_INITIAL_DELAY, RetryPolicy.DEFAULT_MAX_DELAY, null, true);
+	}
+
+	/**
+	 * @clonedesc js_setRetryPolicy(int)
+	 * @sampleas js_setRetryPolicy(int)
+	 *
+	 * @param maxAttempts the maximum number of times a request is sent
+	 * @param initialDelay the maximum time in milliseconds to wait before the first retry
+	 * @param maxDelay the maximum time in milliseconds to wait before a retry
+	 */
+	public void js_setRetryPolicy(int maxAttempts, int initialDelay, int maxDelay)
+	{
+		retryPolicy = RetryPolicy.create(maxAttempts, initialDelay, maxDelay, null, true);
+	}
+
+	/**
+	 * @clonedesc js_setRetryPolicy(int)
+	 * @sampleas js_setRetryPolicy(int)
+	 *
+	 * @param maxAttempts the maximum number of times a request is sent
+	 * @param initialDelay the maximum time in milliseconds to wait before the first retry
+	 * @param maxDelay the maximum time in milliseconds to wait before a retry
+	 * @param retryStatusCodes the status codes of the responses that are retried
+	 * @param idempotentOnly false to also retry POST and PATCH requests
+	 */
+	public void js_setRetryPolicy(int maxAttempts, int initialDelay, int maxDelay, Object[] retryStatusCodes, boolean idempotentOnly)
+	{
+		retryPolicy = RetryPolicy.create(maxAttempts, initialDelay, maxDelay, retryStatusCodes, idempotentOnly);
+	}
+
+	private <T extends BaseRequest> T configure(T request)
+	{
+		request.setRetryPolicy(retryPolicy);
+		request.setResponseCache(responseCache);
+		return request;
+	}
+
 	private static final class CertificateSSLSocketFactoryHandler extends SSLConnectionSocketFactory
 	{
 		private final AllowedCertTrustStrategy allowedCertTrustStrategy;
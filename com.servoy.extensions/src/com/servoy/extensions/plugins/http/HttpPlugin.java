@@ -21,22 +21,42 @@ import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Properties;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 
 import com.servoy.j2db.plugins.IClientPlugin;
 import com.servoy.j2db.plugins.IClientPluginAccess;
 import com.servoy.j2db.plugins.PluginException;
 import com.servoy.j2db.preference.PreferencePanel;
 import com.servoy.j2db.scripting.IScriptable;
+import com.servoy.j2db.util.Debug;
 import com.servoy.j2db.util.serialize.JSONConverter;
 
 /**
@@ -46,6 +66,26 @@ public class HttpPlugin implements IClientPlugin
 {
 	public static final String PLUGIN_NAME = "http"; //$NON-NLS-1$
 
+	public static final String POOL_MAX_TOTAL_PROPERTY = "servoy.http.pool.maxTotal"; //$NON-NLS-1$
+	public static final String POOL_MAX_PER_ROUTE_PROPERTY = "servoy.http.pool.maxPerRoute"; //$NON-NLS-1$
+	public static final String POOL_IDLE_TIMEOUT_PROPERTY = "servoy.http.pool.idleTimeout"; //$NON-NLS-1$
+	public static final String POOL_KEEP_ALIVE_PROPERTY = "servoy.http.pool.keepAlive"; //$NON-NLS-1$
+	public static final String ASYNC_MAX_IN_FLIGHT_PROPERTY = "servoy.http.async.maxInFlight"; //$NON-NLS-1$
+	public static final String ASYNC_MAX_QUEUED_PROPERTY = "servoy.http.async.maxQueued"; //$NON-NLS-1$
+	public static final String BATCH_MAX_THREADS_PROPERTY = "servoy.http.batch.maxThreads"; //$NON-NLS-1$
+	public static final String CACHE_MAX_ENTRIES_PROPERTY = "servoy.http.cache.maxEntries"; //$NON-NLS-1$
+	public static final String CACHE_MAX_OBJECT_SIZE_PROPERTY = "servoy.http.cache.maxObjectSize"; //$NON-NLS-1$
+	public static final String CACHE_DIRECTORY_PROPERTY = "servoy.http.cache.directory"; //$NON-NLS-1$
+	public static final String CIRCUIT_BREAKER_FAILURES_PROPERTY = "servoy.http.circuitBreaker.failures"; //$NON-NLS-1$
+	public static final String CIRCUIT_BREAKER_OPEN_TIME_PROPERTY = "servoy.http.circuitBreaker.openTime"; //$NON-NLS-1$
+
+	/**
+	 * The statistics of the response cache that is shared by all clients in the jvm
+	 */
+	private static final AtomicLong cacheHits = new AtomicLong();
+	private static final AtomicLong cacheMisses = new AtomicLong();
+	private static final AtomicLong cacheValidated = new AtomicLong();
+
 	private IClientPluginAccess access;
 	private HttpProvider impl;
 	private JSONConverter jsonConverter;
@@ -53,8 +93,13 @@ public class HttpPlugin implements IClientPlugin
 	private final HashMap<WeakReference<HttpClient>, CloseableHttpClient> openClients = new HashMap<>();
 	private final ReferenceQueue<HttpClient> queue = new ReferenceQueue<>();
 
+	private PoolingHttpClientConnectionManager sharedConnectionManager;
+	private IdleConnectionEvictor connectionEvictor;
+	private ConnectionKeepAliveStrategy keepAliveStrategy;
 
-	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private ExecutorService executor;
+	private ExecutorService batchExecutor;
+	private boolean usesResponseCache;
 
 	/*
 	 * @see IPlugin#load()
@@ -77,9 +122,27 @@ public class HttpPlugin implements IClientPlugin
 	public void unload() throws PluginException
 	{
 		closeClients();
+		closeSharedConnectionManager();
 		access = null;
 		impl = null;
-		executor.shutdownNow();
+		synchronized (this)
+		{
+			if (usesResponseCache)
+			{
+				ResponseCache.release(this);
+				usesResponseCache = false;
+			}
+			if (executor != null)
+			{
+				executor.shutdownNow();
+				executor = null;
+			}
+			if (batchExecutor != null)
+			{
+				batchExecutor.shutdownNow();
+				batchExecutor = null;
+			}
+		}
 	}
 
 	/**
@@ -101,6 +164,140 @@ public class HttpPlugin implements IClientPlugin
 		openClients.clear();
 	}
 
+	/**
+	 * The connection pool that is shared by the clients that opt in, so connections to a host (and their ssl sessions) are reused by all those clients.
+	 */
+	synchronized HttpClientConnectionManager getSharedConnectionManager()
+	{
+		if (sharedConnectionManager == null)
+		{
+			RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create().register("http", //$NON-NLS-1$
+				PlainConnectionSocketFactory.getSocketFactory());
+			SSLConnectionSocketFactory sslSocketFactory = HttpClient.createSSLSocketFactory(this);
+			registry.register("https", sslSocketFactory != null ? sslSocketFactory : SSLConnectionSocketFactory.getSocketFactory()); //$NON-NLS-1$
+
+			sharedConnectionManager = new PoolingHttpClientConnectionManager(registry.build());
+			sharedConnectionManager.setMaxTotal(getSetting(POOL_MAX_TOTAL_PROPERTY, 100));
+			sharedConnectionManager.setDefaultMaxPerRoute(getSetting(POOL_MAX_PER_ROUTE_PROPERTY, 20));
+			// a connection that was idle could be closed by the server, check it before it is reused
+			sharedConnectionManager.setValidateAfterInactivity(2000);
+
+			int idleTimeout = getSetting(POOL_IDLE_TIMEOUT_PROPERTY, 30000);
+			if (idleTimeout > 0)
+			{
+				connectionEvictor = new IdleConnectionEvictor(sharedConnectionManager, idleTimeout / 2 + 1, TimeUnit.MILLISECONDS, idleTimeout,
+					TimeUnit.MILLISECONDS);
+				connectionEvictor.start();
+			}
+		}
+		return sharedConnectionManager;
+	}
+
+	/**
+	 * Keep the connections of the shared pool alive as long as the server allows, but at most the configured time.
+	 */
+	synchronized ConnectionKeepAliveStrategy getKeepAliveStrategy()
+	{
+		if (keepAliveStrategy == null)
+		{
+			final long keepAlive = getSetting(POOL_KEEP_ALIVE_PROPERTY, 60000);
+			keepAliveStrategy = new ConnectionKeepAliveStrategy()
+			{
+				public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+				{
+					long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					if (keepAlive <= 0) return duration;
+					return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+				}
+			};
+		}
+		return keepAliveStrategy;
+	}
+
+	/**
+	 * Create a builder of a client that caches responses (as a private browser cache would, RFC 7234) in the response cache of the jvm.
+	 * Fresh responses are served from the cache, stale responses are revalidated with If-None-Match/If-Modified-Since.
+	 * The cache is configured by the settings of the first client that uses it, by default it holds 100 responses of at most 128KB.
+	 */
+	synchronized HttpClientBuilder createCachingClientBuilder()
+	{
+		usesResponseCache = true;
+		String directory = access != null ? access.getSettings().getProperty(CACHE_DIRECTORY_PROPERTY) : null;
+		return ResponseCache.createClientBuilder(this, getSetting(CACHE_MAX_ENTRIES_PROPERTY, 100), getSetting(CACHE_MAX_OBJECT_SIZE_PROPERTY, 128 * 1024),
+			directory);
+	}
+
+	/**
+	 * Count the response of a request of a caching client.
+	 */
+	static void cacheResponse(CacheResponseStatus status)
+	{
+		switch (status)
+		{
+			case CACHE_HIT :
+				cacheHits.incrementAndGet();
+				break;
+			case VALIDATED :
+				cacheValidated.incrementAndGet();
+				break;
+			case CACHE_MISS :
+				cacheMisses.incrementAndGet();
+				break;
+			default :
+				// generated by the cache itself, for example a 504 when only-if-cached could not be served
+		}
+	}
+
+	/**
+	 * @return the number of responses served from the cache, revalidated with the server and fetched from the server
+	 */
+	static long[] getCacheStatistics()
+	{
+		return new long[] { cacheHits.get(), cacheValidated.get(), cacheMisses.get() };
+	}
+
+	/**
+	 * @return the circuit breaker of the host of the uri, that is shared by all clients in the jvm, or null when circuit breakers are disabled
+	 */
+	CircuitBreaker getCircuitBreaker(URI uri)
+	{
+		HttpHost host = URIUtils.extractHost(uri);
+		if (host == null) return null;
+		return CircuitBreaker.get(host.toURI(), getSetting(CIRCUIT_BREAKER_FAILURES_PROPERTY, 5), getSetting(CIRCUIT_BREAKER_OPEN_TIME_PROPERTY, 30000));
+	}
+
+	private synchronized void closeSharedConnectionManager()
+	{
+		if (connectionEvictor != null)
+		{
+			connectionEvictor.shutdown();
+			connectionEvictor = null;
+		}
+		if (sharedConnectionManager != null)
+		{
+			sharedConnectionManager.shutdown();
+			sharedConnectionManager = null;
+		}
+		keepAliveStrategy = null;
+	}
+
+	private int getSetting(String property, int defaultValue)
+	{
+		String value = access != null ? access.getSettings().getProperty(property) : null;
+		if (value != null)
+		{
+			try
+			{
+				return Integer.parseInt(value.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				Debug.warn("Invalid value '" + value + "' for property " + property); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return defaultValue;
+	}
+
 	public Properties getProperties()
 	{
 		Properties props = new Properties();
@@ -217,11 +414,37 @@ public class HttpPlugin implements IClientPlugin
 	}
 
 	/**
-	 * @return
+	 * The executor of the asynchronous requests, it executes at most the configured number of requests at the same time.
+	 * Requests wait in a bounded queue for a free thread, submitting more requests than the queue holds is rejected.
 	 */
-	public Executor getExecutor()
+	public synchronized ExecutorService getExecutor()
 	{
+		if (executor == null)
+		{
+			int maxInFlight = Math.max(1, getSetting(ASYNC_MAX_IN_FLIGHT_PROPERTY, 50));
+			int maxQueued = Math.max(1, getSetting(ASYNC_MAX_QUEUED_PROPERTY, 10000));
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(maxQueued));
+			threadPool.allowCoreThreadTimeOut(true);
+			executor = threadPool;
+		}
 		return executor;
 	}
 
+	/**
+	 * The executor of the requests of executeRequests, separate from the asynchronous requests so a batch never waits behind queued asynchronous requests.
+	 * It does not queue: a batch request is started at once on one of at most the configured number of threads, or it is rejected.
+	 */
+	public synchronized ExecutorService getBatchExecutor()
+	{
+		if (batchExecutor == null)
+		{
+			int maxThreads = Math.max(1, getSetting(BATCH_MAX_THREADS_PROPERTY, 50));
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+			threadPool.allowCoreThreadTimeOut(true);
+			batchExecutor = threadPool;
+		}
+		return batchExecutor;
+	}
+
 }
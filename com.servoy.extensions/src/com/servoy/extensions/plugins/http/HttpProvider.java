@@ -41,6 +41,7 @@ import com.servoy.j2db.documentation.ServoyDocumented;
 import com.servoy.j2db.plugins.IClientPluginAccess;
 import com.servoy.j2db.scripting.IReturnedTypesProvider;
 import com.servoy.j2db.scripting.IScriptable;
+import com.servoy.j2db.scripting.JSMap;
 import com.servoy.j2db.util.Debug;
 import com.servoy.j2db.util.Pair;
 import com.servoy.j2db.util.Utils;
@@ -264,16 +265,157 @@ public class HttpProvider implements IReturnedTypesProvider, IScriptable
 	 */
 	public HttpClient js_createNewHttpClient()
 	{
-		HttpClient httpClient = new HttpClient(httpPlugin);
+		return js_createNewHttpClient(false);
+	}
+
+	/**
+	 * Create an http client (like a web browser with session binding) usable todo multiple request/posts in same server session.
+	 * When useSharedConnectionPool is true the client uses the connection pool of the plugin, that is shared by all clients that use it.
+	 * Connections (and their ssl sessions) to a host are then reused by the next client, so a client can be created for every call without
+	 * connecting to the host again. The cookies are still kept per client.
+	 * The size of the shared pool is set with the properties servoy.http.pool.maxTotal (default 100) and servoy.http.pool.maxPerRoute (default 20),
+	 * connections are closed when they are idle for servoy.http.pool.idleTimeout milliseconds (default 30000) and they are kept alive
+	 * at most servoy.http.pool.keepAlive milliseconds (default 60000) or shorter when the server says so.
+	 * Make sure you call client.close() on it after you used this client object to clean up resources, this does not close the shared connections.
+	 *
+	 * @sample
+	 * var client = plugins.http.createNewHttpClient(true);
+	 * var response = client.createGetRequest('https://api.example.com/orders').executeRequest();
+	 * var content = response.getResponseBody();
+	 * client.close();
+	 *
+	 * @param useSharedConnectionPool true to use the connection pool that is shared by all clients
+	 */
+	public HttpClient js_createNewHttpClient(boolean useSharedConnectionPool)
+	{
+		return js_createNewHttpClient(useSharedConnectionPool, false);
+	}
+
+	/**
+	 * Create an http client (like a web browser with session binding) usable todo multiple request/posts in same server session.
+	 * When useResponseCache is true the responses are cached in the response cache that is shared by all clients of the server (or smart client),
+	 * so repeated requests for reference data do not go to the server every time. The cache follows the http caching rules (Cache-Control, Expires):
+	 * a fresh response is served from the cache and a stale response is revalidated with the server (If-None-Match/If-Modified-Since) when it has an ETag or Last-Modified header.
+	 * Because the cache is shared, responses that are private or that were requested with credentials are not cached unless the server marks them public.
+	 * The cache holds at most servoy.http.cache.maxEntries responses (default 100) of at most servoy.http.cache.maxObjectSize bytes (default 131072),
+	 * when servoy.http.cache.directory is set the response bodies are stored in that directory instead of in memory.
+	 * See getResponseCacheStatistics for the number of requests that were served from the cache.
+	 *
+	 * @sample
+	 * var client = plugins.http.createNewHttpClient(true, true);
+	 * var rates = client.createGetRequest('https://api.example.com/currency-rates').executeRequest().getResponseBody();
+	 * client.close();
+	 *
+	 * @param useSharedConnectionPool true to use the connection pool that is shared by all clients
+	 * @param useResponseCache true to cache the responses in the shared response cache
+	 */
+	public HttpClient js_createNewHttpClient(boolean useSharedConnectionPool, boolean useResponseCache)
+	{
+		HttpClient httpClient = new HttpClient(httpPlugin, useSharedConnectionPool, useResponseCache);
 		httpPlugin.clientCreated(httpClient);
 		return httpClient;
 	}
 
+	/**
+	 * Returns the statistics of the shared response cache since the server (or smart client) started, as an object with the properties
+	 * hits (served from the cache), validated (revalidated with the server, the content was not changed) and misses (fetched from the server).
+	 *
+	 * @sample
+	 * var stats = plugins.http.getResponseCacheStatistics();
+	 * application.output('hits: ' + stats.hits + ', validated: ' + stats.validated + ', misses: ' + stats.misses);
+	 *
+	 * @return the statistics of the response cache
+	 */
+	public JSMap<String, Long> js_getResponseCacheStatistics()
+	{
+		long[] statistics = HttpPlugin.getCacheStatistics();
+		JSMap<String, Long> map = new JSMap<String, Long>();
+		map.put("hits", Long.valueOf(statistics[0])); //$NON-NLS-1$
+		map.put("validated", Long.valueOf(statistics[1])); //$NON-NLS-1$
+		map.put("misses", Long.valueOf(statistics[2])); //$NON-NLS-1$
+		return map;
+	}
+
+	/**
+	 * Executes the requests at the same time and waits until all are done, so it takes about as long as the slowest request instead of the sum of all of them.
+	 * At most parallelism requests (default 10) are executed at the same time. The requests of all batches run on their own threads, separate from the asynchronous requests,
+	 * at most servoy.http.batch.maxThreads (default 50) at the same time; a batch that gets fewer threads executes its requests with the threads it got.
+	 * The responses are returned in the order of the requests. The response of a request that failed has only an exception message, see Response.getException().
+	 * When the timeout (in milliseconds) passes the requests that are still running are aborted and have a response with an exception message, 0 waits until all are done.
+	 * A request object can only be given once.
+	 *
+	 * @sample
+	 * var client = plugins.http.createNewHttpClient(true);
+	 * var requests = [];
+	 * for (var i = 0; i < customerIds.length; i++)
+	 * {
+	 * 	requests.push(client.createGetRequest('https://api.example.com/customers/' + customerIds[i]));
+	 * }
+	 * var responses = plugins.http.executeRequests(requests, 20, 10000);
+	 * for (var j = 0; j < responses.length; j++)
+	 * {
+	 * 	if (responses[j].getException()) application.output('request ' + j + ' failed: ' + responses[j].getException());
+	 * 	else application.output(responses[j].getResponseBody());
+	 * }
+	 * client.close();
+	 *
+	 * @param requests the requests to execute
+	 * @return the responses in the order of the requests
+	 */
+	public Response[] js_executeRequests(Object[] requests)
+	{
+		return js_executeRequests(requests, 10, 0);
+	}
+
+	/**
+	 * @clonedesc js_executeRequests(Object[])
+	 * @sampleas js_executeRequests(Object[])
+	 *
+	 * @param requests the requests to execute
+	 * @param parallelism the maximum number of requests that are executed at the same time
+	 * @return the responses in the order of the requests
+	 */
+	public Response[] js_executeRequests(Object[] requests, int parallelism)
+	{
+		return js_executeRequests(requests, parallelism, 0);
+	}
+
+	/**
+	 * @clonedesc js_executeRequests(Object[])
+	 * @sampleas js_executeRequests(Object[])
+	 *
+	 * @param requests the requests to execute
+	 * @param parallelism the maximum number of requests that are executed at the same time
+	 * @param timeout the maximum time in milliseconds to wait for all responses, 0 to wait until all are done
+	 * @return the responses in the order of the requests
+	 */
+	public Response[] js_executeRequests(Object[] requests, int parallelism, int timeout)
+	{
+		if (requests == null || requests.length == 0) return new Response[0];
+		BaseRequest[] baseRequests = new BaseRequest[requests.length];
+		for (int i = 0; i < requests.length; i++)
+		{
+			if (!(requests[i] instanceof BaseRequest))
+			{
+				throw new IllegalArgumentException("Element " + i + " is not a request: " + requests[i]); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			for (int j = 0; j < i; j++)
+			{
+				if (baseRequests[j] == requests[i])
+				{
+					throw new IllegalArgumentException("Request " + i + " is the same as request " + j); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			baseRequests[i] = (BaseRequest)requests[i];
+		}
+		return new RequestBatch(baseRequests).execute(httpPlugin.getBatchExecutor(), parallelism, timeout);
+	}
+
 	/**
 	 * @see com.servoy.j2db.scripting.IScriptObject#getAllReturnedTypes()
 	 */
 	public Class< ? >[] getAllReturnedTypes()
 	{
-		return new Class[] { PatchRequest.class, PostRequest.class, PutRequest.class, GetRequest.class, DeleteRequest.class, OptionsRequest.class, HeadRequest.class, TraceRequest.class, Cookie.class, Response.class, HttpClient.class, HTTP_STATUS.class };
+		return new Class[] { PatchRequest.class, PostRequest.class, PutRequest.class, GetRequest.class, DeleteRequest.class, OptionsRequest.class, HeadRequest.class, TraceRequest.class, Cookie.class, Response.class, HttpClient.class, HTTP_STATUS.class, RequestHandle.class };
 	}
 }
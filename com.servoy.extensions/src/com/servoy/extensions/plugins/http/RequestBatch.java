@@ -0,0 +1,195 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Executes requests concurrently and collects their responses in the order of the requests.<br/>
+ * A fixed number of workers on the batch executor of the plugin take the next request until all are executed, so at most that number of requests run at the same time.
+ * When the deadline passes the requests that are still running are aborted and the requests that did not start are not sent.
+ */
+@SuppressWarnings("nls")
+class RequestBatch
+{
+	private final BaseRequest[] requests;
+	private final Response[] responses;
+	private final RequestHandle[] handles;
+	private int next;
+	private boolean expired;
+
+	RequestBatch(BaseRequest[] requests)
+	{
+		this.requests = requests;
+		this.responses = new Response[requests.length];
+		this.handles = new RequestHandle[requests.length];
+	}
+
+	/**
+	 * Execute the requests and wait for their responses.
+	 *
+	 * @param executor the executor to run the workers on
+	 * @param parallelism the maximum number of requests that run at the same time
+	 * @param timeout the maximum time in milliseconds to wait for all responses, 0 to wait until all are done
+	 * @return the responses in the order of the requests, a request that failed or did not complete in time has a response with only an exception message
+	 */
+	Response[] execute(ExecutorService executor, int parallelism, long timeout)
+	{
+		int workerCount = Math.max(1, Math.min(parallelism, requests.length));
+		List<Future< ? >> workers = new ArrayList<Future< ? >>(workerCount);
+		try
+		{
+			for (int i = 0; i < workerCount; i++)
+			{
+				workers.add(executor.submit(new Runnable()
+				{
+					public void run()
+					{
+						work();
+					}
+				}));
+			}
+		}
+		catch (RejectedExecutionException e)
+		{
+			// run with the workers that could be started
+			if (workers.size() == 0)
+			{
+				Debug.warn("Too many batch requests are running, the batch of " + requests.length + " requests is not executed");
+				return finish("Too many batch requests are running");
+			}
+		}
+
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		try
+		{
+			for (Future< ? > worker : workers)
+			{
+				try
+				{
+					if (deadline == 0)
+					{
+						worker.get();
+					}
+					else
+					{
+						worker.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					}
+				}
+				catch (ExecutionException e)
+				{
+					// the request of the worker has its own response, the other workers execute the rest of the requests
+					Debug.error("Error executing a request of a batch", e.getCause());
+				}
+			}
+		}
+		catch (TimeoutException e)
+		{
+			Debug.warn("Not all " + requests.length + " requests of the batch were executed in " + timeout + "ms");
+			return finish("Request did not complete in time");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return finish("Request was interrupted");
+		}
+		return finish("Request was not executed");
+	}
+
+	private void work()
+	{
+		while (true)
+		{
+			int index;
+			RequestHandle handle;
+			synchronized (this)
+			{
+				if (expired || next == requests.length) return;
+				index = next++;
+				handle = new RequestHandle(requests[index].method);
+				handles[index] = handle;
+			}
+			if (handle.start())
+			{
+				try
+				{
+					Response response;
+					try
+					{
+						response = requests[index].js_executeRequest();
+					}
+					catch (RuntimeException e)
+					{
+						Debug.error("Error executing request " + index + " of a batch", e);
+						response = new Response(e.getMessage() != null ? e.getMessage() : e.toString());
+					}
+					catch (Error e)
+					{
+						synchronized (this)
+						{
+							if (!expired) responses[index] = new Response(e.toString());
+						}
+						throw e;
+					}
+					boolean stored;
+					synchronized (this)
+					{
+						stored = !expired;
+						if (stored) responses[index] = response;
+					}
+					// release the connection of a response that came too late
+					if (!stored) response.js_close();
+				}
+				finally
+				{
+					handle.finish();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the requests that are not done and return the responses.
+	 */
+	private synchronized Response[] finish(String message)
+	{
+		expired = true;
+		Response[] result = new Response[responses.length];
+		for (int i = 0; i < responses.length; i++)
+		{
+			if (responses[i] != null)
+			{
+				result[i] = responses[i];
+			}
+			else
+			{
+				if (handles[i] != null) handles[i].js_cancel();
+				result[i] = new Response(message);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.http;
+
+import java.util.concurrent.Future;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+import com.servoy.j2db.documentation.ServoyDocumented;
+import com.servoy.j2db.scripting.IJavaScriptType;
+import com.servoy.j2db.scripting.IScriptable;
+
+/**
+ * Handle of an asynchronous request, returned by executeAsyncRequest, to follow or cancel the request.
+ */
+@ServoyDocumented
+public class RequestHandle implements IScriptable, IJavaScriptType
+{
+	private final HttpRequestBase method;
+	private Future< ? > future;
+	private boolean started;
+	private boolean canceled;
+	private boolean done;
+
+	public RequestHandle()
+	{
+		method = null;
+	}//only used by script engine
+
+	RequestHandle(HttpRequestBase method)
+	{
+		this.method = method;
+	}
+
+	synchronized void setFuture(Future< ? > future)
+	{
+		this.future = future;
+	}
+
+	/**
+	 * Called by the thread that executes the request before it is sent.
+	 *
+	 * @return false when the request was canceled and must not be sent
+	 */
+	synchronized boolean start()
+	{
+		if (canceled) return false;
+		started = true;
+		return true;
+	}
+
+	/**
+	 * Called by the thread that executed the request when it is done.
+	 */
+	synchronized void finish()
+	{
+		done = true;
+		// an aborted method cannot be executed again until it is reset
+		if (canceled && method != null) method.reset();
+	}
+
+	/**
+	 * Cancels the request. A request that is waiting to be executed is not sent, a request that is executing is aborted.
+	 * The callback methods are not called for a canceled request.
+	 *
+	 * @sample
+	 * var handle = method.executeAsyncRequest(globals.successCallback, globals.errorCallback);
+	 * if (!handle.isDone())
+	 * {
+	 * 	handle.cancel();
+	 * }
+	 *
+	 * @return true when the request is canceled, false when it was already done or canceled
+	 */
+	public synchronized boolean js_cancel()
+	{
+		if (done || canceled) return false;
+		canceled = true;
+		if (started)
+		{
+			if (method != null) method.abort();
+		}
+		else if (future != null)
+		{
+			future.cancel(false);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true when the request was canceled.
+	 *
+	 * @sampleas js_cancel()
+	 */
+	public synchronized boolean js_isCanceled()
+	{
+		return canceled;
+	}
+
+	/**
+	 * Returns true when the request is done, its callback method is then called or about to be called.
+	 *
+	 * @sampleas js_cancel()
+	 */
+	public synchronized boolean js_isDone()
+	{
+		return done;
+	}
+}
@@ -18,9 +18,16 @@
 package com.servoy.extensions.plugins.http;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.zip.GZIPInputStream;
@@ -30,8 +37,10 @@ import org.apache.http.HeaderElement;
 import org.apache.http.HeaderIterator;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 
+import com.servoy.extensions.plugins.file.JSFile;
 import com.servoy.j2db.documentation.ServoyDocumented;
 import com.servoy.j2db.scripting.IJavaScriptType;
 import com.servoy.j2db.scripting.IScriptable;
@@ -50,6 +59,7 @@ public class Response implements IScriptable, IJavaScriptType
 	private Object response_body = null;
 	private HttpUriRequest request;
 	private String exceptionMessage;
+	private BufferedReader bodyReader;
 
 	public Response()
 	{
@@ -152,14 +162,7 @@ public class Response implements IScriptable, IJavaScriptType
 			try
 			{
 				ByteArrayOutputStream sb = new ByteArrayOutputStream();
-				InputStream is = null;
-				Header contentEncoding = res.getFirstHeader("Content-Encoding");
-				boolean gziped = contentEncoding == null ? false : "gzip".equalsIgnoreCase(contentEncoding.getValue());
-				is = res.getEntity().getContent();
-				if (gziped)
-				{
-					is = new GZIPInputStream(is);
-				}
+				InputStream is = getContent();
 				BufferedInputStream bis = new BufferedInputStream(is);
 				Utils.streamCopy(bis, sb);
 				bis.close();
@@ -174,6 +177,117 @@ public class Response implements IScriptable, IJavaScriptType
 		return response_body instanceof byte[] ? (byte[])response_body : null;
 	}
 
+	/**
+	 * Save the content of the response to a file, the content is streamed to the file so it is never completely in memory. It also supports gzip-ed content.
+	 * The file is replaced when the complete content is received, so a failed download does not leave a partial file.
+	 * Use this instead of getMediaData for large downloads.
+	 *
+	 * @sample
+	 * var response = client.createGetRequest('https://www.example.com/export/orders.zip').executeRequest();
+	 * if (response.getStatusCode() == plugins.http.HTTP_STATUS.SC_OK)
+	 * {
+	 * 	var saved = response.saveToFile(plugins.file.convertToJSFile('/tmp/orders.zip'));
+	 * }
+	 *
+	 * @param file the {@link JSFile} or the path of the file to save to
+	 * @return true when the content is saved
+	 */
+	public boolean js_saveToFile(Object file)
+	{
+		File target = null;
+		if (file instanceof JSFile) target = ((JSFile)file).getFile();
+		else if (file instanceof File) target = (File)file;
+		else if (file instanceof String) target = new File((String)file);
+		if (target == null)
+		{
+			Debug.error("Cannot save the response of " + request.getURI() + " to " + file + ", only local files are supported"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return false;
+		}
+		if (res == null || res.getEntity() == null) return false;
+
+		File tempFile = null;
+		try
+		{
+			File dir = target.getAbsoluteFile().getParentFile();
+			if (dir != null && !dir.exists()) dir.mkdirs();
+			tempFile = File.createTempFile("download", ".part", dir); //$NON-NLS-1$ //$NON-NLS-2$
+			InputStream is = getContent();
+			try
+			{
+				Files.copy(is, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally
+			{
+				is.close();
+			}
+			Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			tempFile = null;
+			return true;
+		}
+		catch (IOException e)
+		{
+			Debug.error("Error when saving the response of " + request.getURI() + " to " + target, e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		finally
+		{
+			if (tempFile != null) tempFile.delete();
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the next line of the content of the response, without the line terminator. Returns null at the end of the content.
+	 * The content is streamed, so large text responses can be processed line by line without having them completely in memory.
+	 * The content can only be read once, so this can not be combined with getResponseBody, getMediaData or saveToFile.
+	 * An error reading the content (for example a connection reset) is thrown, so it cannot be mistaken for the end of the content, getException reports it as well.
+	 *
+	 * @sample
+	 * var response = client.createGetRequest('https://www.example.com/export/orders.csv').executeRequest();
+	 * var line;
+	 * while ((line = response.readLine()) != null)
+	 * {
+	 * 	application.output(line);
+	 * }
+	 *
+	 * @return the line or null at the end of the content
+	 */
+	public String js_readLine() throws IOException
+	{
+		if (res == null || res.getEntity() == null) return null;
+		try
+		{
+			if (bodyReader == null)
+			{
+				ContentType contentType = ContentType.get(res.getEntity());
+				Charset charset = contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+				bodyReader = new BufferedReader(new InputStreamReader(getContent(), charset));
+			}
+			String line = bodyReader.readLine();
+			if (line == null) bodyReader.close();
+			return line;
+		}
+		catch (IOException e)
+		{
+			Debug.error("Error when reading the response body for: " + request.getURI(), e); //$NON-NLS-1$
+			exceptionMessage = e.getMessage();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the stream of the content, gzip-ed content is decompressed
+	 */
+	private InputStream getContent() throws IOException
+	{
+		InputStream is = res.getEntity().getContent();
+		Header contentEncoding = res.getFirstHeader("Content-Encoding"); //$NON-NLS-1$
+		if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue())) //$NON-NLS-1$
+		{
+			is = new GZIPInputStream(is);
+		}
+		return is;
+	}
+
 	/**
 	 * Gets the headers of the response as name/value arrays.
 	 *
@@ -249,7 +363,7 @@ public class Response implements IScriptable, IJavaScriptType
 	{
 		try
 		{
-			EntityUtils.consume(res.getEntity());
+			if (res != null) EntityUtils.consume(res.getEntity());
 			return true;
 		}
 		catch (IOException e)
@@ -0,0 +1,119 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.http;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.client.cache.FileResourceFactory;
+import org.apache.http.impl.client.cache.HeapResourceFactory;
+import org.apache.http.impl.client.cache.ManagedHttpCacheStorage;
+
+import com.servoy.j2db.util.Debug;
+
+/**
+ * The response cache that is shared by all clients in the jvm.<br/>
+ * Only this class uses the httpclient-cache library, so it is not loaded for clients that do not cache responses.
+ * The cache is created with the settings of the first plugin that creates a caching client and is shut down when the last of those plugins is unloaded.
+ */
+@SuppressWarnings("nls")
+class ResponseCache
+{
+	private static final Set<HttpPlugin> users = Collections.newSetFromMap(new IdentityHashMap<HttpPlugin, Boolean>());
+	private static CacheConfig config;
+	private static ManagedHttpCacheStorage storage;
+	private static ResourceFactory resourceFactory;
+
+	private ResponseCache()
+	{
+	}
+
+	/**
+	 * @param plugin the plugin of the client, the cache is kept until it is released by all plugins
+	 * @param maxEntries the maximum number of cached responses
+	 * @param maxObjectSize the maximum size in bytes of a cached response body
+	 * @param directory the directory to store the response bodies in, null to keep them in memory
+	 * @return the builder of a client that uses the cache
+	 */
+	static synchronized HttpClientBuilder createClientBuilder(HttpPlugin plugin, int maxEntries, int maxObjectSize, String directory)
+	{
+		users.add(plugin);
+		if (storage == null)
+		{
+			// the cache is shared by the users of the server, so it must not keep private responses
+			config = CacheConfig.custom().setMaxCacheEntries(maxEntries).setMaxObjectSize(maxObjectSize).setSharedCache(true).build();
+			storage = new ManagedHttpCacheStorage(config);
+			File cacheDir = directory != null && directory.trim().length() > 0 ? new File(directory.trim()) : null;
+			if (cacheDir != null && (cacheDir.isDirectory() || cacheDir.mkdirs()))
+			{
+				// the bodies are stored in files, only the headers are kept in memory
+				resourceFactory = new FileResourceFactory(cacheDir);
+			}
+			else
+			{
+				if (cacheDir != null) Debug.warn("Cannot create the http cache directory " + cacheDir + ", responses are cached in memory");
+				resourceFactory = new HeapResourceFactory();
+			}
+		}
+		else
+		{
+			// remove the files of the responses that were removed from the cache
+			storage.cleanResources();
+		}
+		return CachingHttpClientBuilder.create().setCacheConfig(config).setHttpCacheStorage(storage).setResourceFactory(resourceFactory);
+	}
+
+	/**
+	 * Release the cache for the plugin, the cache and the files of the cached responses are removed when no other plugin uses it.
+	 */
+	static synchronized void release(HttpPlugin plugin)
+	{
+		if (users.remove(plugin) && users.isEmpty() && storage != null)
+		{
+			storage.shutdown();
+			storage = null;
+			config = null;
+			resourceFactory = null;
+		}
+	}
+
+	/**
+	 * @return the context of a request of a caching client, that holds how the cache handled the request
+	 */
+	static HttpClientContext createContext()
+	{
+		return HttpCacheContext.create();
+	}
+
+	/**
+	 * Count the response of a request of a caching client in the statistics of the plugin.
+	 */
+	static void countResponse(HttpClientContext context)
+	{
+		CacheResponseStatus status = HttpCacheContext.adapt(context).getCacheResponseStatus();
+		if (status != null) HttpPlugin.cacheResponse(status);
+	}
+}
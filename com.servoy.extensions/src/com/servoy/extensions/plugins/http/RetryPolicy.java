@@ -0,0 +1,156 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2010 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.http;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * When and how long to wait before a failed request is sent again.<br/>
+ * The wait time grows exponentially with every attempt and is randomized (full jitter), so clients that failed at the same moment do not retry at the same moment.
+ * A Retry-After header of the response is honored.
+ */
+@SuppressWarnings("nls")
+class RetryPolicy
+{
+	static final int[] DEFAULT_STATUS_CODES = new int[] { 429, 502, 503, 504 };
+	static final long DEFAULT_INITIAL_DELAY = 500;
+	static final long DEFAULT_MAX_DELAY = 30000;
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final Set<Integer> statusCodes = new HashSet<Integer>();
+	private final boolean idempotentOnly;
+
+	/**
+	 * @param maxAttempts the maximum number of times the request is sent
+	 * @param initialDelay the maximum wait time in milliseconds before the first retry, it doubles for every next retry
+	 * @param maxDelay the maximum wait time in milliseconds before a retry, a longer Retry-After stops retrying
+	 * @param statusCodes the status codes of the responses that are retried
+	 * @param idempotentOnly true to only retry requests that can be sent again without side effects (not POST and PATCH)
+	 */
+	RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, int[] statusCodes, boolean idempotentOnly)
+	{
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.initialDelay = Math.max(0, initialDelay);
+		this.maxDelay = Math.max(this.initialDelay, maxDelay);
+		for (int statusCode : statusCodes)
+		{
+			this.statusCodes.add(Integer.valueOf(statusCode));
+		}
+		this.idempotentOnly = idempotentOnly;
+	}
+
+	/**
+	 * Create a policy from script arguments.
+	 *
+	 * @param statusCodes the status codes as numbers, null for the default status codes
+	 */
+	static RetryPolicy create(int maxAttempts, long initialDelay, long maxDelay, Object[] statusCodes, boolean idempotentOnly)
+	{
+		int[] codes = DEFAULT_STATUS_CODES;
+		if (statusCodes != null)
+		{
+			codes = new int[statusCodes.length];
+			for (int i = 0; i < statusCodes.length; i++)
+			{
+				if (!(statusCodes[i] instanceof Number))
+				{
+					throw new IllegalArgumentException("Status code " + statusCodes[i] + " is not a number");
+				}
+				codes[i] = ((Number)statusCodes[i]).intValue();
+			}
+		}
+		return new RetryPolicy(maxAttempts, initialDelay, maxDelay, codes, idempotentOnly);
+	}
+
+	/**
+	 * @return true when a request with the method can be retried
+	 */
+	boolean canRetry(String method)
+	{
+		return !idempotentOnly || !("POST".equalsIgnoreCase(method) || "PATCH".equalsIgnoreCase(method));
+	}
+
+	/**
+	 * @param attempt the number of times the request was sent
+	 * @return true when the request can be sent again after it failed with the exception
+	 */
+	boolean shouldRetry(int attempt, IOException exception)
+	{
+		// these will not go away by trying again
+		return attempt < maxAttempts && !(exception instanceof UnknownHostException) && !(exception instanceof SSLException);
+	}
+
+	/**
+	 * @param attempt the number of times the request was sent
+	 * @return true when the request can be sent again after the response with the status code
+	 */
+	boolean shouldRetry(int attempt, int statusCode)
+	{
+		return attempt < maxAttempts && statusCodes.contains(Integer.valueOf(statusCode));
+	}
+
+	/**
+	 * @param attempt the number of times the request was sent
+	 * @param response the response of the last attempt or null when it failed with an exception
+	 * @return the time in milliseconds to wait before the next attempt, -1 when the server asks to wait longer than the maximum wait time
+	 */
+	long getDelay(int attempt, HttpResponse response)
+	{
+		Header retryAfter = response != null ? response.getFirstHeader("Retry-After") : null;
+		if (retryAfter != null && retryAfter.getValue() != null)
+		{
+			long delay = parseRetryAfter(retryAfter.getValue().trim());
+			if (delay >= 0) return delay <= maxDelay ? delay : -1;
+		}
+		// full jitter: a random time between 0 and the exponential backoff
+		long backoff = initialDelay << Math.min(attempt - 1, 30);
+		if (backoff <= 0 || backoff > maxDelay) backoff = maxDelay;
+		return ThreadLocalRandom.current().nextLong(backoff + 1);
+	}
+
+	/**
+	 * @return the delay in milliseconds of the Retry-After value (seconds or an http date), -1 when it is invalid
+	 */
+	private long parseRetryAfter(String value)
+	{
+		try
+		{
+			long seconds = Long.parseLong(value);
+			// checked before it is multiplied, so a huge value cannot overflow into a short wait
+			if (seconds > maxDelay / 1000) return Long.MAX_VALUE;
+			return Math.max(0, seconds * 1000);
+		}
+		catch (NumberFormatException e)
+		{
+			Date date = DateUtils.parseDate(value);
+			return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+		}
+	}
+}
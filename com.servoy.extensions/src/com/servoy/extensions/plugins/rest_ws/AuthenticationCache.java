@@ -0,0 +1,189 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servoy.j2db.util.Utils;
+
+/**
+ * Server-wide cache of successful authentications for the rest_ws plugin.
+ * <p>
+ * Caches the result of the solution's ws_authenticate method or the groups of a Servoy user, so expensive authentication (like LDAP) is not done on every request.
+ * Entries are keyed by a salted hash of solution, user and password, the password itself is never kept in memory.
+ * Only successful authentications are cached, entries expire after the configured timeout and the least recently used entries are removed when the cache is full.
+ */
+@SuppressWarnings("nls")
+public class AuthenticationCache
+{
+	private final long timeout;
+	private final int maxSize;
+	private final byte[] salt = new byte[16];
+
+	private final Map<String, Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param timeout time in milliseconds an authentication is cached, 0 disables the cache
+	 * @param maxSize maximum number of cached authentications
+	 */
+	AuthenticationCache(long timeout, final int maxSize)
+	{
+		this.timeout = timeout;
+		this.maxSize = maxSize;
+		new SecureRandom().nextBytes(salt);
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public boolean isEnabled()
+	{
+		return timeout > 0 && maxSize > 0;
+	}
+
+	/**
+	 * Create the cache key for the credentials.
+	 *
+	 * @param solutionName
+	 * @param context form or scope in which the authentication was done, null for Servoy user authentication
+	 * @param user
+	 * @param password
+	 */
+	public String createKey(String solutionName, String context, String user, String password)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			for (String part : new String[] { solutionName, context, user, password })
+			{
+				if (part != null) digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)0);
+			}
+			return Utils.encodeBASE64(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every jvm supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the cached authentication, returns null when not cached or expired.
+	 */
+	public synchronized Entry get(String key)
+	{
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expires < System.currentTimeMillis())
+		{
+			entries.remove(key);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			misses.incrementAndGet();
+		}
+		else
+		{
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	public synchronized void put(String key, String solutionName, String user, Object value)
+	{
+		entries.put(key, new Entry(solutionName, user, value, System.currentTimeMillis() + timeout));
+	}
+
+	/**
+	 * Remove cached authentications.
+	 *
+	 * @param solutionName only remove authentications for this solution, all solutions when null
+	 * @param user only remove authentications of this user, all users when null
+	 * @return the number of removed authentications
+	 */
+	public synchronized int invalidate(String solutionName, String user)
+	{
+		int count = 0;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext())
+		{
+			Entry entry = it.next();
+			if ((solutionName == null || solutionName.equals(entry.solutionName)) && (user == null || user.equals(entry.user)))
+			{
+				it.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public static class Entry
+	{
+		final String solutionName;
+		final String user;
+		final long expires;
+		private final Object value;
+
+		Entry(String solutionName, String user, Object value, long expires)
+		{
+			this.solutionName = solutionName;
+			this.user = user;
+			this.value = value;
+			this.expires = expires;
+		}
+
+		/**
+		 * The cached authentication value, the (serialized) ws_authenticate result or the user groups.
+		 */
+		public Object getValue()
+		{
+			return value;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+
+import com.servoy.j2db.server.shared.IHeadlessClient;
+
+/**
+ * Keeps the rest_ws client pool warm, so requests do not have to wait for a headless client to be created and its solution to be loaded.
+ * <p>
+ * Per pool key the number of concurrently borrowed clients is sampled, the warmer keeps enough idle clients around to serve the recently observed
+ * concurrency (exponentially weighted) with a lower bound of the configured minimum idle clients.
+ * Registered (pre-start) keys keep at least one idle client, they are filled right away instead of after the first interval.
+ * Clients are created on a single background thread, never on the request thread.
+ */
+@SuppressWarnings("nls")
+class ClientPoolWarmer
+{
+	/**
+	 * Weight of the latest sample in the moving average of concurrent clients per key.
+	 */
+	private static final double SMOOTHING_FACTOR = 0.3;
+
+	private final GenericKeyedObjectPool<String, IHeadlessClient> clientPool;
+	private final int minIdlePerKey;
+	private final Logger log;
+
+	private final Map<String, KeyStatistics> statistics = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+
+	ClientPoolWarmer(GenericKeyedObjectPool<String, IHeadlessClient> clientPool, int minIdlePerKey, Logger log)
+	{
+		this.clientPool = clientPool;
+		this.minIdlePerKey = minIdlePerKey;
+		this.log = log;
+	}
+
+	/**
+	 * Register a pool key to be kept warm, also when no requests have been made for it yet.
+	 */
+	synchronized void register(String key)
+	{
+		statistics.computeIfAbsent(key, k -> new KeyStatistics()).prestart = true;
+		if (scheduler != null)
+		{
+			scheduler.execute(() -> fill(key));
+		}
+	}
+
+	/**
+	 * Called when a client was borrowed from the pool, records the current concurrency for the key.
+	 */
+	void clientBorrowed(String key)
+	{
+		KeyStatistics keyStatistics = statistics.computeIfAbsent(key, k -> new KeyStatistics());
+		keyStatistics.recordActive(clientPool.getNumActive(key));
+	}
+
+	synchronized void start(long intervalMillis)
+	{
+		if (scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "rest_ws client pool warmer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::replenish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void stop()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Get the number of idle clients the warmer is aiming for, for the given pool key.
+	 */
+	int getTargetIdle(String key)
+	{
+		KeyStatistics keyStatistics = statistics.get(key);
+		int target = minIdlePerKey;
+		if (keyStatistics != null)
+		{
+			if (keyStatistics.prestart) target = Math.max(target, 1);
+			target = Math.max(target, (int)Math.round(keyStatistics.averageActive));
+		}
+		int maxIdle = clientPool.getMaxIdlePerKey();
+		return maxIdle < 0 ? target : Math.min(target, maxIdle);
+	}
+
+	private void replenish()
+	{
+		for (Map.Entry<String, KeyStatistics> entry : statistics.entrySet())
+		{
+			entry.getValue().sample();
+			fill(entry.getKey());
+		}
+	}
+
+	private void fill(String key)
+	{
+		try
+		{
+			int missing = getTargetIdle(key) - clientPool.getNumIdle(key);
+			int maxTotal = clientPool.getMaxTotalPerKey();
+			if (maxTotal > 0)
+			{
+				// stay within the configured pool size
+				missing = Math.min(missing, maxTotal - clientPool.getNumActive(key) - clientPool.getNumIdle(key));
+			}
+			for (int i = 0; i < missing && !Thread.currentThread().isInterrupted(); i++)
+			{
+				if (log.isDebugEnabled()) log.debug("Pre-starting session client for solution '" + key + '\'');
+				clientPool.addObject(key);
+			}
+		}
+		catch (Exception e)
+		{
+			// server may not be fully started yet, or the solution cannot be loaded, try again next round
+			log.warn("Could not pre-start session client for solution '" + key + "': " + e.getMessage());
+		}
+	}
+
+	private static class KeyStatistics
+	{
+		private final AtomicInteger peakActive = new AtomicInteger();
+		volatile double averageActive;
+		volatile boolean prestart;
+
+		void recordActive(int active)
+		{
+			peakActive.accumulateAndGet(active, Math::max);
+		}
+
+		/**
+		 * Fold the peak concurrency since the previous sample into the moving average.
+		 */
+		void sample()
+		{
+			averageActive = SMOOTHING_FACTOR * peakActive.getAndSet(0) + (1 - SMOOTHING_FACTOR) * averageActive;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+
+import com.servoy.j2db.server.shared.IHeadlessClient;
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Reloads the solution of used clients off the request path.
+ * <p>
+ * A client that needs a solution reload is taken out of the pool right away, so the pool can hand out another (idle or spare) client for the next request
+ * while the used client is reloaded in the background. When the reload is done the client is returned to the pool, when the pool is full it is kept as a spare
+ * client for the next client the pool needs, up to a maximum number of spares per solution.
+ * <p>
+ * Clients that are reloading and spare clients are not counted by the pool, so the number of running clients can be higher than the size of the pool.
+ */
+@SuppressWarnings("nls")
+class ClientRecycler
+{
+	private final GenericKeyedObjectPool<String, IHeadlessClient> clientPool;
+	private final Executor executor;
+	private final int maxSparePerKey;
+	private final Consumer<String> clientAvailable;
+	private final Logger log;
+
+	private final Set<IHeadlessClient> recycling = ConcurrentHashMap.newKeySet();
+	private final Map<String, Deque<IHeadlessClient>> spares = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	private final AtomicInteger reloadQueueDepth = new AtomicInteger();
+	private final AtomicLong reloadCount = new AtomicLong();
+	private final AtomicLong reloadFailedCount = new AtomicLong();
+	private final AtomicLong totalReloadTime = new AtomicLong();
+	private final AtomicLong maxReloadTime = new AtomicLong();
+
+	/**
+	 * @param clientAvailable called with the pool key when a client was returned to the pool or became available as spare
+	 */
+	ClientRecycler(GenericKeyedObjectPool<String, IHeadlessClient> clientPool, Executor executor, int maxSparePerKey, Consumer<String> clientAvailable,
+		Logger log)
+	{
+		this.clientPool = clientPool;
+		this.executor = executor;
+		this.maxSparePerKey = maxSparePerKey;
+		this.clientAvailable = clientAvailable;
+		this.log = log;
+	}
+
+	/**
+	 * Take the client out of the pool and reload its solution in the background.
+	 */
+	void recycle(final String poolKey, final IHeadlessClient client)
+	{
+		recycling.add(client);
+		try
+		{
+			// frees the slot in the pool, destroyObject will leave the client alone because it is being recycled
+			clientPool.invalidateObject(poolKey, client);
+		}
+		catch (Exception ex)
+		{
+			Debug.error(ex);
+		}
+		clientAvailable.accept(poolKey);
+
+		reloadQueueDepth.incrementAndGet();
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long start = System.currentTimeMillis();
+				boolean solutionReopened = false;
+				try
+				{
+					if (client.isValid())
+					{
+						client.closeSolution(true);
+						String[] arr = poolKey.split(":");
+						client.loadSolution(arr.length == 2 ? arr[0] : poolKey); // avoid the ":nodebug" part from the pool key...
+						solutionReopened = true;
+					}
+				}
+				catch (Exception ex)
+				{
+					Debug.error("cannot reopen solution " + poolKey, ex);
+				}
+				finally
+				{
+					recycling.remove(client);
+					reloadQueueDepth.decrementAndGet();
+					recordReload(System.currentTimeMillis() - start, solutionReopened);
+				}
+
+				if (solutionReopened && !closed)
+				{
+					if (log.isDebugEnabled()) log.debug("Reloaded solution for session client '" + poolKey + "' in " + (System.currentTimeMillis() - start) + "ms");
+					addSpare(poolKey, client);
+				}
+				else
+				{
+					client.shutDown(true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Check whether the client is being recycled, it should not be shut down when it is removed from the pool.
+	 */
+	boolean isRecycling(IHeadlessClient client)
+	{
+		return recycling.contains(client);
+	}
+
+	/**
+	 * Get a reloaded spare client for the pool key, returns null when there is none.
+	 */
+	IHeadlessClient takeSpare(String poolKey)
+	{
+		Deque<IHeadlessClient> deque = spares.get(poolKey);
+		IHeadlessClient client;
+		while (deque != null && (client = deque.poll()) != null)
+		{
+			if (client.isValid())
+			{
+				return client;
+			}
+			client.shutDown(true);
+		}
+		return null;
+	}
+
+	private void addSpare(String poolKey, IHeadlessClient client)
+	{
+		Deque<IHeadlessClient> deque = spares.computeIfAbsent(poolKey, key -> new ConcurrentLinkedDeque<>());
+		deque.offer(client);
+		if (closed)
+		{
+			// closed while the client was reloading
+			if (deque.remove(client)) client.shutDown(true);
+			return;
+		}
+		try
+		{
+			// the pool picks up the spare client via the factory, unless it has reached its maximum size
+			clientPool.addObject(poolKey);
+		}
+		catch (Exception ex)
+		{
+			Debug.error(ex);
+		}
+		clientAvailable.accept(poolKey);
+
+		IHeadlessClient surplus;
+		while (deque.size() > maxSparePerKey && (surplus = deque.pollLast()) != null)
+		{
+			if (log.isDebugEnabled()) log.debug("Shutting down surplus spare session client for solution '" + poolKey + "'");
+			surplus.shutDown(true);
+		}
+	}
+
+	private void recordReload(long time, boolean succeeded)
+	{
+		if (succeeded)
+		{
+			reloadCount.incrementAndGet();
+			totalReloadTime.addAndGet(time);
+			maxReloadTime.accumulateAndGet(time, Math::max);
+		}
+		else
+		{
+			reloadFailedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Shut down all spare clients, clients that are still reloading are shut down when their reload is done.
+	 */
+	void close()
+	{
+		closed = true;
+		for (Deque<IHeadlessClient> deque : spares.values())
+		{
+			IHeadlessClient client;
+			while ((client = deque.poll()) != null)
+			{
+				client.shutDown(true);
+			}
+		}
+	}
+
+	/**
+	 * Number of clients currently waiting for or busy with a solution reload.
+	 */
+	int getReloadQueueDepth()
+	{
+		return reloadQueueDepth.get();
+	}
+
+	int getSpareCount(String poolKey)
+	{
+		Deque<IHeadlessClient> deque = spares.get(poolKey);
+		return deque == null ? 0 : deque.size();
+	}
+
+	long getReloadCount()
+	{
+		return reloadCount.get();
+	}
+
+	long getReloadFailedCount()
+	{
+		return reloadFailedCount.get();
+	}
+
+	long getAverageReloadTime()
+	{
+		long count = reloadCount.get();
+		return count == 0 ? 0 : totalReloadTime.get() / count;
+	}
+
+	long getMaxReloadTime()
+	{
+		return maxReloadTime.get();
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.servoy.j2db.server.shared.IHeadlessClient;
+import com.servoy.j2db.util.Debug;
+
+/**
+ * Bounded per solution queue of requests waiting for a client from the pool.
+ * <p>
+ * Waiting requests do not hold a thread, they are handed a client in order of arrival as soon as one is returned to the pool.
+ * Clients are taken from the pool on the executor, one per task, so a client that has to be created does not hold up the caller or the other waiters.
+ * Requests that could not be handed a client within the timeout are removed from the queue.
+ */
+@SuppressWarnings("nls")
+public class ClientWaitQueue
+{
+	private final RestWSPlugin plugin;
+	private final Executor executor;
+	private final int maxQueueSize;
+	private final long timeout;
+
+	private final Map<String, Deque<Waiter>> queues = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService timer;
+
+	ClientWaitQueue(RestWSPlugin plugin, Executor executor, int maxQueueSize, long timeout)
+	{
+		this.plugin = plugin;
+		this.executor = executor;
+		this.maxQueueSize = maxQueueSize;
+		this.timeout = timeout;
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "rest_ws client wait queue timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Add the waiter to the queue of the pool key.
+	 *
+	 * @return false when the queue is full
+	 */
+	public boolean enqueue(String poolKey, final Waiter waiter)
+	{
+		final Deque<Waiter> queue = queues.computeIfAbsent(poolKey, key -> new ArrayDeque<>());
+		synchronized (queue)
+		{
+			if (queue.size() >= maxQueueSize)
+			{
+				return false;
+			}
+			queue.add(waiter);
+		}
+
+		waiter.timeoutFuture = timer.schedule(() -> {
+			if (waiter.claim())
+			{
+				synchronized (queue)
+				{
+					queue.remove(waiter);
+				}
+				waiter.timedOut();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		// a client may have been returned while this request was being queued
+		dispatch(poolKey);
+		return true;
+	}
+
+	/**
+	 * Remove the waiter from the queue, for example because the request was aborted.
+	 */
+	public void remove(String poolKey, Waiter waiter)
+	{
+		if (waiter.claim())
+		{
+			Deque<Waiter> queue = queues.get(poolKey);
+			if (queue != null)
+			{
+				synchronized (queue)
+				{
+					queue.remove(waiter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hand available clients to the waiting requests of the pool key, in order of arrival.
+	 */
+	public void dispatch(String poolKey)
+	{
+		Deque<Waiter> queue = queues.get(poolKey);
+		if (queue == null)
+		{
+			return;
+		}
+		synchronized (queue)
+		{
+			if (queue.isEmpty()) return;
+		}
+
+		// getting a client can create one and load its solution, that should not be done on the thread that returned a client or queued a request
+		executor.execute(() -> dispatchOne(poolKey, queue));
+	}
+
+	/**
+	 * Hand one client to the first waiting request, when there are more waiting requests the next one is dispatched in a new task.
+	 */
+	private void dispatchOne(String poolKey, Deque<Waiter> queue)
+	{
+		synchronized (queue)
+		{
+			if (queue.isEmpty()) return;
+		}
+
+		IHeadlessClient client;
+		try
+		{
+			client = plugin.tryGetClient(poolKey);
+		}
+		catch (Exception e)
+		{
+			Debug.error("Could not get client for queued request of solution " + poolKey, e);
+			return;
+		}
+		if (client == null)
+		{
+			// no client available, next return to the pool will dispatch again
+			return;
+		}
+
+		Waiter waiter;
+		synchronized (queue)
+		{
+			waiter = queue.poll();
+		}
+		if (waiter != null && waiter.claim())
+		{
+			if (waiter.timeoutFuture != null) waiter.timeoutFuture.cancel(false);
+			waiter.clientAvailable(client);
+		}
+		else
+		{
+			plugin.returnUnusedClient(poolKey, client);
+		}
+		if (waiter != null) dispatch(poolKey);
+	}
+
+	public int getQueueSize(String poolKey)
+	{
+		Deque<Waiter> queue = queues.get(poolKey);
+		if (queue == null)
+		{
+			return 0;
+		}
+		synchronized (queue)
+		{
+			return queue.size();
+		}
+	}
+
+	/**
+	 * Stop the timer and answer the requests that are still waiting, as if they timed out.
+	 */
+	void close()
+	{
+		timer.shutdownNow();
+		for (Deque<Waiter> queue : queues.values())
+		{
+			Waiter[] waiters;
+			synchronized (queue)
+			{
+				waiters = queue.toArray(new Waiter[queue.size()]);
+				queue.clear();
+			}
+			for (Waiter waiter : waiters)
+			{
+				if (waiter.claim())
+				{
+					waiter.timedOut();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A request waiting for a client.
+	 */
+	public static abstract class Waiter
+	{
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		volatile ScheduledFuture< ? > timeoutFuture;
+
+		boolean claim()
+		{
+			return claimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Called when a client was borrowed for this request, the request is responsible for releasing the client.
+		 */
+		protected abstract void clientAvailable(IHeadlessClient client);
+
+		/**
+		 * Called when no client became available within the timeout or the queue was closed.
+		 */
+		protected abstract void timedOut();
+	}
+}
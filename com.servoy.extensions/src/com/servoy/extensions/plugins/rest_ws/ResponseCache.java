@@ -0,0 +1,234 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servoy.j2db.util.Pair;
+import com.servoy.j2db.util.Utils;
+
+/**
+ * Server-side cache of rest_ws GET responses.
+ * <p>
+ * Only responses the solution marked as cacheable (Cache-Control header with max-age, without no-store or no-cache) are cached, for at most the
+ * max-age and the configured timeout. Entries are keyed by a salted hash of the request path, query, credentials and the request headers that
+ * may influence the response, so cached responses are never served to another user.
+ * Responses larger than the maximum entry size are not cached, the least recently used entries are removed when the cache has the maximum number of entries
+ * or the bodies together exceed the maximum memory.
+ */
+@SuppressWarnings("nls")
+public class ResponseCache
+{
+	private final long timeout;
+	private final int maxSize;
+	private final int maxEntrySize;
+	private final long maxMemory;
+	private final byte[] salt = new byte[16];
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long memory;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param timeout max time in milliseconds a response is cached, 0 disables the cache
+	 * @param maxSize maximum number of cached responses
+	 * @param maxEntrySize maximum size in bytes of a cached response body
+	 * @param maxMemory maximum size in bytes of all cached response bodies
+	 */
+	ResponseCache(long timeout, int maxSize, int maxEntrySize, long maxMemory)
+	{
+		this.timeout = timeout;
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxEntrySize;
+		this.maxMemory = maxMemory;
+		new SecureRandom().nextBytes(salt);
+	}
+
+	public boolean isEnabled()
+	{
+		return timeout > 0 && maxSize > 0;
+	}
+
+	/**
+	 * Create the cache key for the request.
+	 *
+	 * @param solutionName
+	 * @param parts request path, query and headers that identify the response
+	 */
+	public String createKey(String solutionName, String... parts)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			for (String part : parts)
+			{
+				if (part != null) digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)0);
+			}
+			return solutionName + ':' + Utils.encodeBASE64(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every jvm supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the cached response, returns null when not cached or expired.
+	 */
+	public synchronized Entry get(String key)
+	{
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expires < System.currentTimeMillis())
+		{
+			remove(key);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			misses.incrementAndGet();
+		}
+		else
+		{
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the response, a body larger than the maximum entry size is not cached.
+	 *
+	 * @param maxAge max-age in milliseconds set by the solution, the response is cached no longer than the configured timeout
+	 */
+	public synchronized void put(String key, String solutionName, long maxAge, String contentType, List<Pair<String, String>> headers, byte[] body)
+	{
+		remove(key);
+		if (body.length > maxEntrySize || body.length > maxMemory)
+		{
+			return;
+		}
+		entries.put(key, new Entry(solutionName, contentType, headers, body, System.currentTimeMillis() + Math.min(maxAge, timeout)));
+		memory += body.length;
+		// remove the least recently used responses
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > maxSize || memory > maxMemory)
+		{
+			memory -= it.next().body.length;
+			it.remove();
+		}
+	}
+
+	private void remove(String key)
+	{
+		Entry entry = entries.remove(key);
+		if (entry != null) memory -= entry.body.length;
+	}
+
+	/**
+	 * Remove cached responses.
+	 *
+	 * @param solutionName only remove responses of this solution, all solutions when null
+	 * @return the number of removed responses
+	 */
+	public synchronized int invalidate(String solutionName)
+	{
+		int count = 0;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext())
+		{
+			Entry entry = it.next();
+			if (solutionName == null || solutionName.equals(entry.solutionName))
+			{
+				it.remove();
+				memory -= entry.body.length;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return the size in bytes of all cached response bodies
+	 */
+	public synchronized long getMemory()
+	{
+		return memory;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public static class Entry
+	{
+		final String solutionName;
+		final long expires;
+		private final String contentType;
+		private final List<Pair<String, String>> headers;
+		private final byte[] body;
+
+		Entry(String solutionName, String contentType, List<Pair<String, String>> headers, byte[] body, long expires)
+		{
+			this.solutionName = solutionName;
+			this.contentType = contentType;
+			this.headers = headers;
+			this.body = body;
+			this.expires = expires;
+		}
+
+		public String getContentType()
+		{
+			return contentType;
+		}
+
+		/**
+		 * The response headers set by the solution (name, value).
+		 */
+		public List<Pair<String, String>> getHeaders()
+		{
+			return headers;
+		}
+
+		public byte[] getBody()
+		{
+			return body;
+		}
+	}
+}
@@ -41,6 +41,7 @@ public class RestWSClientPlugin implements IClientPlugin
 	public static final String PLUGIN_NAME = "rest_ws";
 
 	private RestWSClientProvider impl;
+	private IClientPluginAccess access;
 
 	private HttpServletRequest request;
 	private HttpServletResponse response;
@@ -51,6 +52,7 @@ public class RestWSClientPlugin implements IClientPlugin
 
 	public void initialize(IClientPluginAccess app) throws PluginException
 	{
+		this.access = app;
 	}
 
 	public void unload() throws PluginException
@@ -117,4 +119,9 @@ public class RestWSClientPlugin implements IClientPlugin
 	{
 		return response;
 	}
+
+	IClientPluginAccess getClientPluginAccess()
+	{
+		return access;
+	}
 }
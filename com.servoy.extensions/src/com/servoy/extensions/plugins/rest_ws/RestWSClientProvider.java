@@ -83,6 +83,27 @@ public class RestWSClientProvider implements IScriptable
 		return new WsCookie(new Cookie(name, value));
 	}
 
+	/**
+	 * Remove cached authentications of a user, for example after the password of the user was changed.
+	 * Authentications are only cached when the server setting rest_ws_plugin_authentication_cache_timeout is set.
+	 * Cached responses (server setting rest_ws_plugin_response_cache_timeout) are served without checking the credentials again,
+	 * so all cached responses of the solution (of all solutions when solutionName is null) are removed as well.
+	 *
+	 * @sample
+	 * // remove cached authentications of the user in all solutions
+	 * plugins.rest_ws.invalidateAuthentication(null, 'john');
+	 *
+	 * @param solutionName the solution to remove the authentications for, null for all solutions
+	 * @param userName the user to remove the authentications for, null for all users
+	 * @return the number of removed authentications
+	 */
+	@JSFunction
+	public int invalidateAuthentication(String solutionName, String userName) throws Exception
+	{
+		IRestWSService service = (IRestWSService)plugin.getClientPluginAccess().getRemoteService(IRestWSService.class.getName());
+		return service == null ? 0 : service.invalidateAuthentication(solutionName, userName);
+	}
+
 	private void checkRunningRequest()
 	{
 		if (!isRunningRequest())
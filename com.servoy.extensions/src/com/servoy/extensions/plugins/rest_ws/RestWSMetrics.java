@@ -0,0 +1,499 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+
+import com.servoy.j2db.server.shared.IHeadlessClient;
+
+/**
+ * Request timings and client pool statistics of the rest_ws plugin.
+ * <p>
+ * Request times are kept in histograms per solution, form or scope, http method and phase of the request, the statistics are available in Prometheus text
+ * format (servoy-service/rest_ws_metrics) and via JMX. Requests that do not reach an existing function are kept under the {@link #UNKNOWN_ROUTE} route.
+ */
+@SuppressWarnings("nls")
+public class RestWSMetrics implements RestWSMetricsMBean
+{
+	public static final String PHASE_BORROW_WAIT = "borrow_wait";
+	public static final String PHASE_AUTHENTICATE = "authenticate";
+	public static final String PHASE_EXECUTE = "execute";
+	public static final String PHASE_SERIALIZE = "serialize";
+	public static final String PHASE_TOTAL = "total";
+
+	/**
+	 * Solution and context label of requests that did not resolve to an existing function or were not authenticated.
+	 */
+	public static final String UNKNOWN_ROUTE = "_unknown";
+
+	private static final Set<String> HTTP_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "TRACE"));
+
+	/**
+	 * Upper bounds of the histogram buckets in milliseconds.
+	 */
+	private static final double[] BUCKETS = { 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	/**
+	 * Routes come from request paths that resolved to existing functions, limit the number of routes so memory stays bounded.
+	 */
+	private static final int MAX_ROUTES = 1000;
+
+	private static final String OBJECT_NAME = "com.servoy.extensions.plugins.rest_ws:type=RestWSMetrics";
+
+	private final RestWSPlugin plugin;
+	private final Map<RouteKey, Histogram> histograms = new ConcurrentHashMap<>();
+
+	RestWSMetrics(RestWSPlugin plugin)
+	{
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Record the time spent in a phase of a request.
+	 *
+	 * @param solutionName
+	 * @param scope_or_form form or scope name from the request path, of an existing function
+	 * @param httpMethod
+	 * @param phase one of the PHASE_ constants
+	 * @param nanos
+	 */
+	public void record(String solutionName, String scope_or_form, String httpMethod, String phase, long nanos)
+	{
+		RouteKey key = new RouteKey(solutionName, scope_or_form, httpMethod, phase);
+		Histogram histogram = histograms.get(key);
+		if (histogram == null)
+		{
+			if (histograms.size() >= MAX_ROUTES && !UNKNOWN_ROUTE.equals(solutionName))
+			{
+				return;
+			}
+			histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Record the time spent in a phase of a request that did not resolve to an existing function or was not authenticated.
+	 *
+	 * @param httpMethod
+	 * @param phase one of the PHASE_ constants
+	 * @param nanos
+	 */
+	public void recordUnknownRoute(String httpMethod, String phase, long nanos)
+	{
+		record(UNKNOWN_ROUTE, UNKNOWN_ROUTE, HTTP_METHODS.contains(httpMethod) ? httpMethod : UNKNOWN_ROUTE, phase, nanos);
+	}
+
+	/**
+	 * Write all statistics in Prometheus text format.
+	 */
+	public void writePrometheus(Writer writer) throws IOException
+	{
+		writer.write("# HELP rest_ws_request_phase_seconds Time spent in a phase of rest_ws requests.\n");
+		writer.write("# TYPE rest_ws_request_phase_seconds histogram\n");
+		for (Map.Entry<RouteKey, Histogram> entry : new TreeMap<>(histograms).entrySet())
+		{
+			RouteKey key = entry.getKey();
+			Histogram histogram = entry.getValue();
+			String labels = "solution=\"" + escape(key.solutionName) + "\",context=\"" + escape(key.scope_or_form) + "\",method=\"" + escape(key.httpMethod) +
+				"\",phase=\"" + key.phase + '"';
+			long[] counts = histogram.getCounts();
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++)
+			{
+				cumulative += counts[i];
+				writer.write("rest_ws_request_phase_seconds_bucket{" + labels + ",le=\"" + BUCKETS[i] / 1000 + "\"} " + cumulative + '\n');
+			}
+			cumulative += counts[BUCKETS.length];
+			writer.write("rest_ws_request_phase_seconds_bucket{" + labels + ",le=\"+Inf\"} " + cumulative + '\n');
+			writer.write("rest_ws_request_phase_seconds_sum{" + labels + "} " + histogram.getSum() / 1e9 + '\n');
+			writer.write("rest_ws_request_phase_seconds_count{" + labels + "} " + cumulative + '\n');
+		}
+
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		if (clientPool != null)
+		{
+			Map<String, Integer> activePerKey = new TreeMap<>(clientPool.getNumActivePerKey());
+			ClientRecycler recycler = plugin.getClientRecycler();
+			ClientWaitQueue waitQueue = plugin.getCreatedClientWaitQueue();
+
+			writeType(writer, "rest_ws_client_pool_active", "gauge", "Number of clients in use per pool key.");
+			for (Map.Entry<String, Integer> entry : activePerKey.entrySet())
+			{
+				writeValue(writer, "rest_ws_client_pool_active", entry.getKey(), entry.getValue().longValue());
+			}
+			writeType(writer, "rest_ws_client_pool_idle", "gauge", "Number of idle clients per pool key.");
+			for (String key : activePerKey.keySet())
+			{
+				writeValue(writer, "rest_ws_client_pool_idle", key, clientPool.getNumIdle(key));
+			}
+			if (recycler != null)
+			{
+				writeType(writer, "rest_ws_client_pool_spare", "gauge", "Number of reloaded spare clients per pool key.");
+				for (String key : activePerKey.keySet())
+				{
+					writeValue(writer, "rest_ws_client_pool_spare", key, recycler.getSpareCount(key));
+				}
+			}
+			if (waitQueue != null)
+			{
+				writeType(writer, "rest_ws_client_pool_queued_requests", "gauge", "Number of requests waiting for a client per pool key.");
+				for (String key : activePerKey.keySet())
+				{
+					writeValue(writer, "rest_ws_client_pool_queued_requests", key, waitQueue.getQueueSize(key));
+				}
+			}
+
+			writeMetric(writer, "rest_ws_client_pool_created_total", "counter", "Number of clients created by the pool.", clientPool.getCreatedCount());
+			writeMetric(writer, "rest_ws_client_pool_destroyed_total", "counter", "Number of clients removed from the pool.", clientPool.getDestroyedCount());
+			writeMetric(writer, "rest_ws_client_pool_borrowed_total", "counter", "Number of clients borrowed from the pool.", clientPool.getBorrowedCount());
+			writeMetric(writer, "rest_ws_client_pool_borrow_wait_mean_seconds", "gauge", "Mean time waited for a client by recently borrowed clients.",
+				clientPool.getMeanBorrowWaitTimeMillis() / 1000.0);
+			writeMetric(writer, "rest_ws_client_pool_borrow_wait_max_seconds", "gauge", "Max time waited for a client.",
+				clientPool.getMaxBorrowWaitTimeMillis() / 1000.0);
+
+			if (recycler != null)
+			{
+				writeMetric(writer, "rest_ws_solution_reloads_total", "counter", "Number of solution reloads after requests.", recycler.getReloadCount());
+				writeMetric(writer, "rest_ws_solution_reload_failures_total", "counter", "Number of failed solution reloads.",
+					recycler.getReloadFailedCount());
+				writeMetric(writer, "rest_ws_solution_reload_queue_depth", "gauge", "Number of clients waiting for or busy with a solution reload.",
+					recycler.getReloadQueueDepth());
+				writeMetric(writer, "rest_ws_solution_reload_mean_seconds", "gauge", "Mean time of a solution reload.",
+					recycler.getAverageReloadTime() / 1000.0);
+				writeMetric(writer, "rest_ws_solution_reload_max_seconds", "gauge", "Max time of a solution reload.", recycler.getMaxReloadTime() / 1000.0);
+			}
+		}
+
+		AuthenticationCache authenticationCache = plugin.getAuthenticationCache();
+		if (authenticationCache != null && authenticationCache.isEnabled())
+		{
+			writeMetric(writer, "rest_ws_authentication_cache_hits_total", "counter", "Number of authentications found in the cache.",
+				authenticationCache.getHitCount());
+			writeMetric(writer, "rest_ws_authentication_cache_misses_total", "counter", "Number of authentications not found in the cache.",
+				authenticationCache.getMissCount());
+			writeMetric(writer, "rest_ws_authentication_cache_size", "gauge", "Number of cached authentications.", authenticationCache.size());
+		}
+
+		ResponseCache responseCache = plugin.getResponseCache();
+		if (responseCache != null && responseCache.isEnabled())
+		{
+			writeMetric(writer, "rest_ws_response_cache_hits_total", "counter", "Number of GET requests served from the response cache.",
+				responseCache.getHitCount());
+			writeMetric(writer, "rest_ws_response_cache_misses_total", "counter", "Number of GET requests not found in the response cache.",
+				responseCache.getMissCount());
+			writeMetric(writer, "rest_ws_response_cache_size", "gauge", "Number of cached responses.", responseCache.size());
+			writeMetric(writer, "rest_ws_response_cache_bytes", "gauge", "Size in bytes of the cached response bodies.", responseCache.getMemory());
+		}
+	}
+
+	private static void writeType(Writer writer, String name, String type, String help) throws IOException
+	{
+		writer.write("# HELP " + name + ' ' + help + '\n');
+		writer.write("# TYPE " + name + ' ' + type + '\n');
+	}
+
+	private static void writeValue(Writer writer, String name, String poolKey, long value) throws IOException
+	{
+		writer.write(name + "{pool=\"" + escape(poolKey) + "\"} " + value + '\n');
+	}
+
+	private static void writeMetric(Writer writer, String name, String type, String help, Number value) throws IOException
+	{
+		writeType(writer, name, type, help);
+		writer.write(name + ' ' + value + '\n');
+	}
+
+	private static String escape(String labelValue)
+	{
+		if (labelValue == null) return "";
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	void registerMBean()
+	{
+		try
+		{
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (!mbeanServer.isRegistered(objectName))
+			{
+				mbeanServer.registerMBean(this, objectName);
+			}
+		}
+		catch (JMException e)
+		{
+			plugin.log.warn("Could not register rest_ws metrics in JMX", e);
+		}
+	}
+
+	void unregisterMBean()
+	{
+		try
+		{
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (mbeanServer.isRegistered(objectName))
+			{
+				mbeanServer.unregisterMBean(objectName);
+			}
+		}
+		catch (JMException e)
+		{
+			plugin.log.warn("Could not unregister rest_ws metrics from JMX", e);
+		}
+	}
+
+	// JMX
+
+	@Override
+	public String[] getRouteStatistics()
+	{
+		List<String> statistics = new ArrayList<>();
+		for (Map.Entry<RouteKey, Histogram> entry : new TreeMap<>(histograms).entrySet())
+		{
+			RouteKey key = entry.getKey();
+			Histogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			statistics.add(key.solutionName + '/' + key.scope_or_form + ' ' + key.httpMethod + ' ' + key.phase + ": count=" + count + ", mean=" +
+				(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(histogram.getSum() / count)) + "ms, p50<=" + histogram.getPercentile(0.5) + "ms, p90<=" +
+				histogram.getPercentile(0.9) + "ms, p99<=" + histogram.getPercentile(0.99) + "ms, max=" + TimeUnit.NANOSECONDS.toMillis(histogram.getMax()) +
+				"ms");
+		}
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	@Override
+	public int getNumActiveClients()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getNumActive();
+	}
+
+	@Override
+	public int getNumIdleClients()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getNumIdle();
+	}
+
+	@Override
+	public long getCreatedClientCount()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getCreatedCount();
+	}
+
+	@Override
+	public long getDestroyedClientCount()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getDestroyedCount();
+	}
+
+	@Override
+	public long getMeanBorrowWaitTimeMillis()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getMeanBorrowWaitTimeMillis();
+	}
+
+	@Override
+	public long getMaxBorrowWaitTimeMillis()
+	{
+		GenericKeyedObjectPool<String, IHeadlessClient> clientPool = plugin.getCreatedClientPool();
+		return clientPool == null ? 0 : clientPool.getMaxBorrowWaitTimeMillis();
+	}
+
+	@Override
+	public long getSolutionReloadCount()
+	{
+		ClientRecycler recycler = plugin.getClientRecycler();
+		return recycler == null ? 0 : recycler.getReloadCount();
+	}
+
+	@Override
+	public long getAverageSolutionReloadTimeMillis()
+	{
+		ClientRecycler recycler = plugin.getClientRecycler();
+		return recycler == null ? 0 : recycler.getAverageReloadTime();
+	}
+
+	@Override
+	public int getSolutionReloadQueueDepth()
+	{
+		ClientRecycler recycler = plugin.getClientRecycler();
+		return recycler == null ? 0 : recycler.getReloadQueueDepth();
+	}
+
+	@Override
+	public long getAuthenticationCacheHitCount()
+	{
+		AuthenticationCache authenticationCache = plugin.getAuthenticationCache();
+		return authenticationCache == null ? 0 : authenticationCache.getHitCount();
+	}
+
+	@Override
+	public long getAuthenticationCacheMissCount()
+	{
+		AuthenticationCache authenticationCache = plugin.getAuthenticationCache();
+		return authenticationCache == null ? 0 : authenticationCache.getMissCount();
+	}
+
+	@Override
+	public void reset()
+	{
+		histograms.clear();
+	}
+
+	private static class RouteKey implements Comparable<RouteKey>
+	{
+		final String solutionName;
+		final String scope_or_form;
+		final String httpMethod;
+		final String phase;
+
+		RouteKey(String solutionName, String scope_or_form, String httpMethod, String phase)
+		{
+			this.solutionName = String.valueOf(solutionName);
+			this.scope_or_form = String.valueOf(scope_or_form);
+			this.httpMethod = String.valueOf(httpMethod);
+			this.phase = phase;
+		}
+
+		@Override
+		public int compareTo(RouteKey o)
+		{
+			int c = solutionName.compareTo(o.solutionName);
+			if (c == 0) c = scope_or_form.compareTo(o.scope_or_form);
+			if (c == 0) c = httpMethod.compareTo(o.httpMethod);
+			if (c == 0) c = phase.compareTo(o.phase);
+			return c;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof RouteKey)) return false;
+			RouteKey other = (RouteKey)obj;
+			return solutionName.equals(other.solutionName) && scope_or_form.equals(other.scope_or_form) && httpMethod.equals(other.httpMethod) &&
+				phase.equals(other.phase);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((solutionName.hashCode() * 31 + scope_or_form.hashCode()) * 31 + httpMethod.hashCode()) * 31 + phase.hashCode();
+		}
+	}
+
+	/**
+	 * Lock-free histogram with fixed buckets, the last bucket counts the times above the highest bound.
+	 */
+	private static class Histogram
+	{
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos)
+		{
+			double millis = nanos / 1e6;
+			int bucket = 0;
+			while (bucket < BUCKETS.length && millis > BUCKETS[bucket])
+			{
+				bucket++;
+			}
+			counts.incrementAndGet(bucket);
+			sum.addAndGet(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		long[] getCounts()
+		{
+			long[] result = new long[counts.length()];
+			for (int i = 0; i < result.length; i++)
+			{
+				result[i] = counts.get(i);
+			}
+			return result;
+		}
+
+		long getCount()
+		{
+			long count = 0;
+			for (long c : getCounts())
+			{
+				count += c;
+			}
+			return count;
+		}
+
+		long getSum()
+		{
+			return sum.get();
+		}
+
+		long getMax()
+		{
+			return max.get();
+		}
+
+		/**
+		 * Upper bound in milliseconds of the bucket that contains the percentile, the max time when it is in the last bucket.
+		 */
+		double getPercentile(double percentile)
+		{
+			long[] bucketCounts = getCounts();
+			long total = 0;
+			for (long c : bucketCounts)
+			{
+				total += c;
+			}
+			long threshold = (long)Math.ceil(total * percentile);
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++)
+			{
+				cumulative += bucketCounts[i];
+				if (cumulative >= threshold && cumulative > 0)
+				{
+					return BUCKETS[i];
+				}
+			}
+			return TimeUnit.NANOSECONDS.toMillis(max.get());
+		}
+	}
+}
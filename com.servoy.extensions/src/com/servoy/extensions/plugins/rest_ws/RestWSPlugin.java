@@ -33,6 +33,7 @@ import org.mozilla.javascript.JavaScriptException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.servoy.extensions.plugins.rest_ws.servlets.RestWSMetricsServlet;
 import com.servoy.extensions.plugins.rest_ws.servlets.RestWSServlet;
 import com.servoy.j2db.documentation.ServoyDocumented;
 import com.servoy.j2db.plugins.IServerAccess;
@@ -53,6 +54,24 @@ import com.servoy.j2db.util.serialize.JSONSerializerWrapper;
  * <ul>
  * <li>rest_ws_plugin_client_pool_size, default 5
  * <li>rest_ws_plugin_client_pool_exhausted_action [block/fail/grow], default block
+ * <li>rest_ws_plugin_client_pool_min_idle, default 0
+ * <li>rest_ws_plugin_client_pool_prestart_solutions, default none
+ * <li>rest_ws_plugin_client_pool_idle_timeout (seconds), default 0 (no idle eviction)
+ * <li>rest_ws_plugin_client_pool_max_spare, default 0 (solutions are reloaded while the client keeps its place in the pool)
+ * <li>rest_ws_plugin_authentication_cache_timeout (seconds), default 0 (no caching)
+ * <li>rest_ws_plugin_authentication_cache_size, default 1000
+ * <li>rest_ws_plugin_request_body_file_threshold (bytes), default -1 (bodies are not written to file)
+ * <li>rest_ws_plugin_client_pool_queue_size, default 0 (requests block a thread while waiting for a client)
+ * <li>rest_ws_plugin_client_pool_queue_timeout (seconds), default 30
+ * <li>rest_ws_plugin_metrics [true/false], default false
+ * <li>rest_ws_plugin_metrics_allowed_addresses, default 127.0.0.1,0:0:0:0:0:0:0:1 (only local requests can read the metrics)
+ * <li>rest_ws_plugin_etag [true/false], default false
+ * <li>rest_ws_plugin_response_cache_timeout (seconds), default 0 (no caching)
+ * <li>rest_ws_plugin_response_cache_size, default 1000
+ * <li>rest_ws_plugin_response_cache_max_entry_size (bytes), default 131072
+ * <li>rest_ws_plugin_response_cache_max_memory (megabytes), default 64
+ * <li>rest_ws_plugin_batch_max_size, default 100
+ * <li>rest_ws_plugin_compression_threshold (bytes), default -1 (responses are not compressed)
  * </ul>
  *
  * @see RestWSServlet
@@ -60,7 +79,7 @@ import com.servoy.j2db.util.serialize.JSONSerializerWrapper;
  */
 @SuppressWarnings("nls")
 @ServoyDocumented
-public class RestWSPlugin implements IServerPlugin
+public class RestWSPlugin implements IServerPlugin, IRestWSService
 {
 	private static final String CLIENT_POOL_SIZE_PROPERTY = "rest_ws_plugin_client_pool_size";
 	private static final String DEPRECATED_CLIENT_POOL_SIZE_PER_SOLUTION_PROPERTY = "rest_ws_plugin_client_pool_size_per_solution";
@@ -70,16 +89,63 @@ public class RestWSPlugin implements IServerPlugin
 	private static final String ACTION_FAIL = "fail";
 	private static final String ACTION_GROW = "grow";
 	private static final String AUTHORIZED_GROUPS_PROPERTY = "rest_ws_plugin_authorized_groups";
+	private static final String CLIENT_POOL_MIN_IDLE_PROPERTY = "rest_ws_plugin_client_pool_min_idle";
+	private static final int CLIENT_POOL_MIN_IDLE_DEFAULT = 0;
+	private static final String CLIENT_POOL_PRESTART_SOLUTIONS_PROPERTY = "rest_ws_plugin_client_pool_prestart_solutions";
+	private static final String CLIENT_POOL_IDLE_TIMEOUT_PROPERTY = "rest_ws_plugin_client_pool_idle_timeout";
+	private static final int CLIENT_POOL_IDLE_TIMEOUT_DEFAULT = 0;
+	private static final long CLIENT_POOL_MAINTENANCE_INTERVAL = 10 * 1000;
+	private static final String CLIENT_POOL_MAX_SPARE_PROPERTY = "rest_ws_plugin_client_pool_max_spare";
+	private static final int CLIENT_POOL_MAX_SPARE_DEFAULT = 0;
+	private static final String CLIENT_POOL_QUEUE_SIZE_PROPERTY = "rest_ws_plugin_client_pool_queue_size";
+	private static final int CLIENT_POOL_QUEUE_SIZE_DEFAULT = 0;
+	private static final String CLIENT_POOL_QUEUE_TIMEOUT_PROPERTY = "rest_ws_plugin_client_pool_queue_timeout";
+	private static final int CLIENT_POOL_QUEUE_TIMEOUT_DEFAULT = 30;
+	private static final String AUTHENTICATION_CACHE_TIMEOUT_PROPERTY = "rest_ws_plugin_authentication_cache_timeout";
+	private static final int AUTHENTICATION_CACHE_TIMEOUT_DEFAULT = 0;
+	private static final String AUTHENTICATION_CACHE_SIZE_PROPERTY = "rest_ws_plugin_authentication_cache_size";
+	private static final int AUTHENTICATION_CACHE_SIZE_DEFAULT = 1000;
+	private static final int ROUTE_CACHE_SIZE = 5000;
+	private static final String REQUEST_BODY_FILE_THRESHOLD_PROPERTY = "rest_ws_plugin_request_body_file_threshold";
+	private static final long REQUEST_BODY_FILE_THRESHOLD_DEFAULT = -1;
+	private static final String METRICS_PROPERTY = "rest_ws_plugin_metrics";
+	private static final String METRICS_ALLOWED_ADDRESSES_PROPERTY = "rest_ws_plugin_metrics_allowed_addresses";
+	private static final String METRICS_ALLOWED_ADDRESSES_DEFAULT = "127.0.0.1,0:0:0:0:0:0:0:1";
+	private static final String ETAG_PROPERTY = "rest_ws_plugin_etag";
+	private static final String RESPONSE_CACHE_TIMEOUT_PROPERTY = "rest_ws_plugin_response_cache_timeout";
+	private static final int RESPONSE_CACHE_TIMEOUT_DEFAULT = 0;
+	private static final String RESPONSE_CACHE_SIZE_PROPERTY = "rest_ws_plugin_response_cache_size";
+	private static final int RESPONSE_CACHE_SIZE_DEFAULT = 1000;
+	private static final String RESPONSE_CACHE_MAX_ENTRY_SIZE_PROPERTY = "rest_ws_plugin_response_cache_max_entry_size";
+	private static final int RESPONSE_CACHE_MAX_ENTRY_SIZE_DEFAULT = 128 * 1024;
+	private static final String RESPONSE_CACHE_MAX_MEMORY_PROPERTY = "rest_ws_plugin_response_cache_max_memory";
+	private static final int RESPONSE_CACHE_MAX_MEMORY_DEFAULT = 64;
+	private static final String BATCH_MAX_SIZE_PROPERTY = "rest_ws_plugin_batch_max_size";
+	private static final int BATCH_MAX_SIZE_DEFAULT = 100;
+	private static final String COMPRESSION_THRESHOLD_PROPERTY = "rest_ws_plugin_compression_threshold";
+	private static final int COMPRESSION_THRESHOLD_DEFAULT = -1;
 	private static final String RELOAD_SOLUTION_AFTER_REQUEST_PROPERTY = "rest_ws_reload_solution_after_request";
 	private static final Boolean RELOAD_SOLUTION_AFTER_REQUEST_DEFAULT = Boolean.TRUE;
 
 	public static final String WEBSERVICE_NAME = "rest_ws";
+	public static final String METRICS_WEBSERVICE_NAME = "rest_ws_metrics";
 	private static final String[] SOLUTION_OPEN_METHOD_ARGS = new String[] { "rest_ws_server" };
 
 	public final Logger log = LoggerFactory.getLogger(RestWSPlugin.class);
 
 	private JSONSerializerWrapper serializerWrapper;
-	private GenericKeyedObjectPool<String, IHeadlessClient> clientPool = null;
+	private volatile GenericKeyedObjectPool<String, IHeadlessClient> clientPool = null;
+	private volatile ClientPoolWarmer clientPoolWarmer = null;
+	private volatile ClientRecycler clientRecycler = null;
+	private volatile ClientWaitQueue clientWaitQueue = null;
+	private AuthenticationCache authenticationCache;
+	private RouteCache routeCache;
+	private RestWSMetrics metrics;
+	private ResponseCache responseCache;
+	private boolean etagEnabled;
+	private int batchMaxSize;
+	private int compressionThreshold;
+	private Long requestBodyFileThreshold;
 	private Boolean shouldReloadSolutionAfterRequest;
 	private IServerAccess application;
 
@@ -87,7 +153,49 @@ public class RestWSPlugin implements IServerPlugin
 	public void initialize(IServerAccess app) throws PluginException
 	{
 		this.application = app;
+		authenticationCache = new AuthenticationCache(
+			Utils.getAsInteger(app.getSettings().getProperty(AUTHENTICATION_CACHE_TIMEOUT_PROPERTY), AUTHENTICATION_CACHE_TIMEOUT_DEFAULT) * 1000L,
+			Utils.getAsInteger(app.getSettings().getProperty(AUTHENTICATION_CACHE_SIZE_PROPERTY), AUTHENTICATION_CACHE_SIZE_DEFAULT));
+		// in developer the solution changes all the time, do not cache routes there
+		routeCache = new RouteCache(!ApplicationServerRegistry.get().isDeveloperStartup(), ROUTE_CACHE_SIZE);
+		// in developer the solution changes all the time, do not cache responses there
+		responseCache = new ResponseCache(ApplicationServerRegistry.get().isDeveloperStartup() ? 0
+			: Utils.getAsInteger(app.getSettings().getProperty(RESPONSE_CACHE_TIMEOUT_PROPERTY), RESPONSE_CACHE_TIMEOUT_DEFAULT) * 1000L,
+			Utils.getAsInteger(app.getSettings().getProperty(RESPONSE_CACHE_SIZE_PROPERTY), RESPONSE_CACHE_SIZE_DEFAULT),
+			Utils.getAsInteger(app.getSettings().getProperty(RESPONSE_CACHE_MAX_ENTRY_SIZE_PROPERTY), RESPONSE_CACHE_MAX_ENTRY_SIZE_DEFAULT),
+			Utils.getAsInteger(app.getSettings().getProperty(RESPONSE_CACHE_MAX_MEMORY_PROPERTY), RESPONSE_CACHE_MAX_MEMORY_DEFAULT) * 1024L * 1024L);
+		etagEnabled = Utils.getAsBoolean(app.getSettings().getProperty(ETAG_PROPERTY));
+		batchMaxSize = Utils.getAsInteger(app.getSettings().getProperty(BATCH_MAX_SIZE_PROPERTY), BATCH_MAX_SIZE_DEFAULT);
+		compressionThreshold = Utils.getAsInteger(app.getSettings().getProperty(COMPRESSION_THRESHOLD_PROPERTY), COMPRESSION_THRESHOLD_DEFAULT);
 		app.registerWebService(WEBSERVICE_NAME, new RestWSServlet(WEBSERVICE_NAME, this));
+		if (Utils.getAsBoolean(app.getSettings().getProperty(METRICS_PROPERTY)))
+		{
+			metrics = new RestWSMetrics(this);
+			metrics.registerMBean();
+			String allowedAddresses = app.getSettings().getProperty(METRICS_ALLOWED_ADDRESSES_PROPERTY, METRICS_ALLOWED_ADDRESSES_DEFAULT);
+			app.registerWebService(METRICS_WEBSERVICE_NAME, new RestWSMetricsServlet(this, allowedAddresses.split(",")));
+		}
+		try
+		{
+			app.registerRemoteService(IRestWSService.class.getName(), this);
+		}
+		catch (Exception e)
+		{
+			Debug.error(e);
+		}
+
+		String prestartSolutions = app.getSettings().getProperty(CLIENT_POOL_PRESTART_SOLUTIONS_PROPERTY);
+		if (prestartSolutions != null && prestartSolutions.trim().length() > 0)
+		{
+			getClientPool();
+			if (clientPoolWarmer != null)
+			{
+				for (String solutionName : prestartSolutions.split(","))
+				{
+					if (solutionName.trim().length() > 0) clientPoolWarmer.register(solutionName.trim());
+				}
+			}
+		}
 	}
 
 	public PreferencePanel[] getPreferencePanels()
@@ -110,8 +218,54 @@ public class RestWSPlugin implements IServerPlugin
 			ACTION_GROW +
 			": allows the pool to  grow, by starting additional clients. The number of clients per solution may become higher than defined by setting '" +
 			CLIENT_POOL_SIZE_PROPERTY + "', but will shrink back to that value when clients in the pool become idle.");
+		req.put(CLIENT_POOL_MIN_IDLE_PROPERTY, "Minimum number of idle clients per solution that are kept started in the background, default = " +
+			CLIENT_POOL_MIN_IDLE_DEFAULT + ". More idle clients are started when the number of concurrent requests for a solution goes up.");
+		req.put(CLIENT_POOL_PRESTART_SOLUTIONS_PROPERTY,
+			"Solutions (comma-separated) for which clients are started right after server startup, so the first requests do not have to wait for a client to be created");
+		req.put(CLIENT_POOL_IDLE_TIMEOUT_PROPERTY, "Time in seconds after which clients that are idle in the pool are shut down, as long as at least " +
+			CLIENT_POOL_MIN_IDLE_PROPERTY + " clients remain, default = " + CLIENT_POOL_IDLE_TIMEOUT_DEFAULT + " (idle clients are not shut down)");
+		req.put(CLIENT_POOL_MAX_SPARE_PROPERTY,
+			"Max number of spare clients per solution, default = " + CLIENT_POOL_MAX_SPARE_DEFAULT +
+				" (the solution of a client is reloaded while it keeps its place in the pool). When higher than 0 the solution of the client is reloaded " +
+				"in the background while the pool can start or use another client, reloaded clients that do not fit in the pool anymore are kept as spare clients. " +
+				"Clients that are reloading and spare clients are not counted in " + CLIENT_POOL_SIZE_PROPERTY + ", so they use additional licenses");
+		req.put(CLIENT_POOL_QUEUE_SIZE_PROPERTY, "Max number of requests per solution that wait for a client without holding a server thread, when " +
+			CLIENT_POOL_EXCHAUSTED_ACTION_PROPERTY + "=" + ACTION_BLOCK + ", default = " + CLIENT_POOL_QUEUE_SIZE_DEFAULT +
+			" (waiting requests hold a server thread). When the queue is full the request will fail with a SERVICE_UNAVAILABLE response (HTTP " +
+			HttpServletResponse.SC_SERVICE_UNAVAILABLE + ")");
+		req.put(CLIENT_POOL_QUEUE_TIMEOUT_PROPERTY, "Time in seconds a queued request waits for a client before it fails with a SERVICE_UNAVAILABLE response (HTTP " +
+			HttpServletResponse.SC_SERVICE_UNAVAILABLE + "), default = " + CLIENT_POOL_QUEUE_TIMEOUT_DEFAULT);
 		req.put(AUTHORIZED_GROUPS_PROPERTY,
 			"Only authenticated users in the listed groups (comma-separated) have access, when left empty unauthorised access is allowed");
+		req.put(AUTHENTICATION_CACHE_TIMEOUT_PROPERTY, "Time in seconds a successful authentication (using ws_authenticate or Servoy users) is cached, so the credentials are not checked again on every request, default = " + AUTHENTICATION_CACHE_TIMEOUT_DEFAULT +
+			" (authentications are not cached). Cached authentications (and cached responses) can be removed using plugins.rest_ws.invalidateAuthentication()");
+		req.put(AUTHENTICATION_CACHE_SIZE_PROPERTY, "Max number of cached authentications, default = " + AUTHENTICATION_CACHE_SIZE_DEFAULT);
+		req.put(METRICS_PROPERTY, "When true, request timings per solution, form or scope and phase of the request and client pool statistics are recorded, " +
+			"these are available in Prometheus text format at servoy-service/" + METRICS_WEBSERVICE_NAME + " and via JMX, default = false");
+		req.put(METRICS_ALLOWED_ADDRESSES_PROPERTY, "Remote addresses (comma-separated) that can read servoy-service/" + METRICS_WEBSERVICE_NAME +
+			", * allows all addresses, default = " + METRICS_ALLOWED_ADDRESSES_DEFAULT + " (only local requests)");
+		req.put(ETAG_PROPERTY,
+			"When true, an ETag computed from the response body is added to GET responses that have no ETag or Last-Modified header set by the solution, " +
+				"so clients can make conditional requests (If-None-Match) that are answered with NOT_MODIFIED (HTTP " + HttpServletResponse.SC_NOT_MODIFIED +
+				") when the response did not change, default = false");
+		req.put(RESPONSE_CACHE_TIMEOUT_PROPERTY,
+			"Max time in seconds GET responses are cached on the server, so the ws_read method is not called for every request, default = " +
+				RESPONSE_CACHE_TIMEOUT_DEFAULT + " (responses are not cached). Only responses for which the solution set a Cache-Control header with max-age " +
+				"(and without no-store or no-cache) are cached, per user and for at most the max-age. plugins.rest_ws.invalidateAuthentication() removes the cached responses of the solution");
+		req.put(RESPONSE_CACHE_SIZE_PROPERTY, "Max number of cached responses, default = " + RESPONSE_CACHE_SIZE_DEFAULT);
+		req.put(RESPONSE_CACHE_MAX_ENTRY_SIZE_PROPERTY,
+			"Max size in bytes of a cached response body, larger responses are not cached, default = " + RESPONSE_CACHE_MAX_ENTRY_SIZE_DEFAULT);
+		req.put(RESPONSE_CACHE_MAX_MEMORY_PROPERTY,
+			"Max size in megabytes of all cached response bodies together, the least recently used responses are removed above it, default = " +
+				RESPONSE_CACHE_MAX_MEMORY_DEFAULT);
+		req.put(BATCH_MAX_SIZE_PROPERTY, "Max number of requests in a batch request (POST to servoy-service/" + WEBSERVICE_NAME +
+			"/<solution>/_batch), default = " + BATCH_MAX_SIZE_DEFAULT);
+		req.put(COMPRESSION_THRESHOLD_PROPERTY,
+			"Responses larger than this number of bytes are compressed (gzip or deflate) when the client accepts it (Accept-Encoding header), default = " +
+				COMPRESSION_THRESHOLD_DEFAULT + " (responses are not compressed)");
+		req.put(REQUEST_BODY_FILE_THRESHOLD_PROPERTY,
+			"Binary request bodies (like application/octet-stream) larger than this number of bytes are written to a temporary file that is passed to the ws_ method as a java.io.File instead of a byte array, default = " +
+				REQUEST_BODY_FILE_THRESHOLD_DEFAULT + " (bodies are always passed as byte array). The file is deleted after the request.");
 
 		// RELOAD_SOLUTION_AFTER_REQUEST_PROPERTY is discouraged so we do not show it in the admin page plugin properties
 
@@ -125,8 +279,36 @@ public class RestWSPlugin implements IServerPlugin
 	public void unload() throws PluginException
 	{
 		shouldReloadSolutionAfterRequest = null;
+		requestBodyFileThreshold = null;
 		serializerWrapper = null;
-		// TODO: clear client pool
+		if (metrics != null)
+		{
+			metrics.unregisterMBean();
+			metrics = null;
+		}
+		synchronized (this)
+		{
+			if (clientPoolWarmer != null)
+			{
+				clientPoolWarmer.stop();
+				clientPoolWarmer = null;
+			}
+			if (clientRecycler != null)
+			{
+				clientRecycler.close();
+				clientRecycler = null;
+			}
+			if (clientWaitQueue != null)
+			{
+				clientWaitQueue.close();
+				clientWaitQueue = null;
+			}
+			if (clientPool != null)
+			{
+				clientPool.close();
+				clientPool = null;
+			}
+		}
 	}
 
 	public Properties getProperties()
@@ -150,6 +332,67 @@ public class RestWSPlugin implements IServerPlugin
 		return serializerWrapper;
 	}
 
+	public AuthenticationCache getAuthenticationCache()
+	{
+		return authenticationCache;
+	}
+
+	public RouteCache getRouteCache()
+	{
+		return routeCache;
+	}
+
+	public ResponseCache getResponseCache()
+	{
+		return responseCache;
+	}
+
+	/**
+	 * Size in bytes above which responses are compressed, -1 when responses are never compressed.
+	 */
+	public int getCompressionThreshold()
+	{
+		return compressionThreshold;
+	}
+
+	/**
+	 * Max number of requests in a batch request.
+	 */
+	public int getBatchMaxSize()
+	{
+		return batchMaxSize;
+	}
+
+	/**
+	 * Whether ETags should be computed for GET responses that have no validator set by the solution.
+	 */
+	public boolean isETagEnabled()
+	{
+		return etagEnabled;
+	}
+
+	/**
+	 * Request timings and pool statistics, null when metrics are not enabled.
+	 */
+	public RestWSMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	public int invalidateAuthentication(String solutionName, String userName)
+	{
+		if (authenticationCache == null) return 0;
+		int count = authenticationCache.invalidate(solutionName, userName);
+		if (log.isDebugEnabled()) log.debug("Removed " + count + " cached authentications for solution " + solutionName + ", user " + userName);
+		if (responseCache != null)
+		{
+			// cached responses are served without authenticating the request again, they are not stored per user so all responses of the solution are removed
+			int responses = responseCache.invalidate(solutionName);
+			if (log.isDebugEnabled()) log.debug("Removed " + responses + " cached responses for solution " + solutionName);
+		}
+		return count;
+	}
+
 	public String[] getAuthorizedGroups()
 	{
 		// TODO: cache value
@@ -161,6 +404,31 @@ public class RestWSPlugin implements IServerPlugin
 		return property.split(",");
 	}
 
+	/**
+	 * Size in bytes above which binary request bodies are written to a file, -1 when bodies are never written to file.
+	 */
+	public long getRequestBodyFileThreshold()
+	{
+		if (requestBodyFileThreshold == null)
+		{
+			long threshold = REQUEST_BODY_FILE_THRESHOLD_DEFAULT;
+			String property = application.getSettings().getProperty(REQUEST_BODY_FILE_THRESHOLD_PROPERTY);
+			if (property != null && property.trim().length() > 0)
+			{
+				try
+				{
+					threshold = Long.parseLong(property.trim());
+				}
+				catch (NumberFormatException nfe)
+				{
+					log.warn("Invalid value for setting {}: {}", REQUEST_BODY_FILE_THRESHOLD_PROPERTY, property);
+				}
+			}
+			requestBodyFileThreshold = Long.valueOf(threshold);
+		}
+		return requestBodyFileThreshold.longValue();
+	}
+
 	/*
 	 * This is potentially dangerous, only reuse clients with loaded solution if you are very sure the client did not keep state!
 	 *
@@ -188,6 +456,9 @@ public class RestWSPlugin implements IServerPlugin
 			config.setBlockWhenExhausted(true);
 			int maxTotalPerKey = 1;
 			int maxIdlePerKey = maxTotalPerKey;
+			int minIdlePerKey = 0;
+			int idleTimeout = 0;
+			int maxSparePerKey = 0;
 
 			if (!ApplicationServerRegistry.get().isDeveloperStartup())
 			{
@@ -217,7 +488,10 @@ public class RestWSPlugin implements IServerPlugin
 				}
 
 				maxIdlePerKey = maxTotalPerKey;
-
+				minIdlePerKey = Math.min(Utils.getAsInteger(application.getSettings().getProperty(CLIENT_POOL_MIN_IDLE_PROPERTY), CLIENT_POOL_MIN_IDLE_DEFAULT),
+					maxIdlePerKey);
+				idleTimeout = Utils.getAsInteger(application.getSettings().getProperty(CLIENT_POOL_IDLE_TIMEOUT_PROPERTY), CLIENT_POOL_IDLE_TIMEOUT_DEFAULT);
+				maxSparePerKey = Utils.getAsInteger(application.getSettings().getProperty(CLIENT_POOL_MAX_SPARE_PROPERTY), CLIENT_POOL_MAX_SPARE_DEFAULT);
 
 				String exchaustedActionCode = application.getSettings().getProperty(CLIENT_POOL_EXCHAUSTED_ACTION_PROPERTY);
 				if (exchaustedActionCode != null) exchaustedActionCode = exchaustedActionCode.trim();
@@ -240,14 +514,31 @@ public class RestWSPlugin implements IServerPlugin
 
 			config.setMaxTotalPerKey(maxTotalPerKey);
 			config.setMaxIdlePerKey(maxIdlePerKey);
-			if (log.isDebugEnabled())
-				log.debug("Creating client pool, maxTotalPerKey=" + config.getMaxTotalPerKey() + ", maxIdlePerKey=" + config.getMaxIdlePerKey());
+			config.setMinIdlePerKey(minIdlePerKey);
+			if (idleTimeout > 0)
+			{
+				// clients idle longer than the timeout are evicted, but only as long as minIdlePerKey clients are left
+				config.setTimeBetweenEvictionRunsMillis(CLIENT_POOL_MAINTENANCE_INTERVAL);
+				config.setMinEvictableIdleTimeMillis(-1);
+				config.setSoftMinEvictableIdleTimeMillis(idleTimeout * 1000L);
+				config.setTestWhileIdle(true);
+			}
+			if (log.isDebugEnabled()) log.debug("Creating client pool, maxTotalPerKey=" + config.getMaxTotalPerKey() + ", maxIdlePerKey=" +
+				config.getMaxIdlePerKey() + ", minIdlePerKey=" + config.getMinIdlePerKey() + ", idleTimeout=" + idleTimeout);
 
 			clientPool = new GenericKeyedObjectPool<>(new BaseKeyedPooledObjectFactory<String, IHeadlessClient>()
 			{
 				@Override
 				public IHeadlessClient create(String key) throws Exception
 				{
+					ClientRecycler recycler = clientRecycler;
+					IHeadlessClient spare = recycler == null ? null : recycler.takeSpare(key);
+					if (spare != null)
+					{
+						if (log.isDebugEnabled()) log.debug("using spare session client for solution '" + key + '\'');
+						return spare;
+					}
+
 					if (log.isDebugEnabled()) log.debug("creating new session client for solution '" + key + '\'');
 					String solutionName = key;
 					String[] solOpenArgs = SOLUTION_OPEN_METHOD_ARGS;
@@ -297,8 +588,17 @@ public class RestWSPlugin implements IServerPlugin
 				@Override
 				public void destroyObject(String key, PooledObject<IHeadlessClient> pooledObject) throws Exception
 				{
-					if (log.isDebugEnabled()) log.debug("Destroying session client for solution '" + key + "'");
 					IHeadlessClient client = pooledObject.getObject();
+					ClientRecycler recycler = clientRecycler;
+					if (recycler != null && recycler.isRecycling(client))
+					{
+						// client is reloaded in the background and will come back as spare client
+						return;
+					}
+					if (log.isDebugEnabled()) log.debug("Destroying session client for solution '" + key + "'");
+					// the client may have been invalidated because the solution was changed
+					if (routeCache != null) routeCache.invalidate(key.split(":")[0]);
+					if (responseCache != null) responseCache.invalidate(key.split(":")[0]);
 					try
 					{
 						client.shutDown(true);
@@ -311,15 +611,44 @@ public class RestWSPlugin implements IServerPlugin
 			});
 			clientPool.setConfig(config);
 			clientPool.setTestOnBorrow(true);
+
+			if (!ApplicationServerRegistry.get().isDeveloperStartup())
+			{
+				clientPoolWarmer = new ClientPoolWarmer(clientPool, minIdlePerKey, log);
+				clientPoolWarmer.start(CLIENT_POOL_MAINTENANCE_INTERVAL);
+				// in developer the client is reused instead, multiple clients do not work well with debugger
+				if (maxSparePerKey > 0)
+				{
+					clientRecycler = new ClientRecycler(clientPool, application.getExecutor(), maxSparePerKey, this::clientAvailable, log);
+				}
+			}
+
+			int queueSize = Utils.getAsInteger(application.getSettings().getProperty(CLIENT_POOL_QUEUE_SIZE_PROPERTY), CLIENT_POOL_QUEUE_SIZE_DEFAULT);
+			if (queueSize > 0 && config.getBlockWhenExhausted())
+			{
+				clientWaitQueue = new ClientWaitQueue(this, application.getExecutor(), queueSize,
+					Utils.getAsInteger(application.getSettings().getProperty(CLIENT_POOL_QUEUE_TIMEOUT_PROPERTY), CLIENT_POOL_QUEUE_TIMEOUT_DEFAULT) * 1000L);
+			}
 		}
 		return clientPool;
 	}
 
+	/**
+	 * The client pool, null when it has not been created yet.
+	 */
+	synchronized GenericKeyedObjectPool<String, IHeadlessClient> getCreatedClientPool()
+	{
+		return clientPool;
+	}
+
 	public IHeadlessClient getClient(String solutionName) throws Exception
 	{
 		try
 		{
-			return getClientPool().borrowObject(solutionName);
+			IHeadlessClient client = getClientPool().borrowObject(solutionName);
+			ClientPoolWarmer warmer = clientPoolWarmer;
+			if (warmer != null) warmer.clientBorrowed(solutionName);
+			return client;
 		}
 		catch (NoSuchElementException e)
 		{
@@ -328,9 +657,71 @@ public class RestWSPlugin implements IServerPlugin
 		}
 	}
 
+	/**
+	 * Get a client only when one is available right away, returns null otherwise.
+	 */
+	public IHeadlessClient tryGetClient(String solutionName) throws Exception
+	{
+		try
+		{
+			IHeadlessClient client = getClientPool().borrowObject(solutionName, 0);
+			ClientPoolWarmer warmer = clientPoolWarmer;
+			if (warmer != null) warmer.clientBorrowed(solutionName);
+			return client;
+		}
+		catch (NoSuchElementException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Return a client that was not used for a request, no solution reload is needed.
+	 */
+	void returnUnusedClient(String poolKey, IHeadlessClient client)
+	{
+		try
+		{
+			getClientPool().returnObject(poolKey, client);
+		}
+		catch (Exception ex)
+		{
+			Debug.error(ex);
+		}
+	}
+
+	/**
+	 * Queue of requests waiting for a client, null when the pool has not been created yet or requests should block.
+	 */
+	ClientWaitQueue getCreatedClientWaitQueue()
+	{
+		return clientWaitQueue;
+	}
+
+	/**
+	 * Queue of requests waiting for a client without holding a thread, null when requests should block.
+	 */
+	public ClientWaitQueue getClientWaitQueue()
+	{
+		// only synchronize when the pool (and so the queue) still has to be created
+		if (clientPool == null) getClientPool();
+		return clientWaitQueue;
+	}
+
+	private void clientAvailable(String poolKey)
+	{
+		ClientWaitQueue queue = clientWaitQueue;
+		if (queue != null) queue.dispatch(poolKey);
+	}
+
 	public void releaseClient(final String poolKey, final IHeadlessClient client, boolean reloadSolution)
 	{
-		if (reloadSolution)
+		ClientRecycler recycler = clientRecycler;
+		if (reloadSolution && recycler != null)
+		{
+			recycler.recycle(poolKey, client);
+		}
+		else if (reloadSolution)
 		{
 			application.getExecutor().execute(new Runnable()
 			{
@@ -364,6 +755,7 @@ public class RestWSPlugin implements IServerPlugin
 						{
 							Debug.error(ex);
 						}
+						clientAvailable(poolKey);
 					}
 				}
 			});
@@ -379,9 +771,18 @@ public class RestWSPlugin implements IServerPlugin
 			{
 				Debug.error(ex);
 			}
+			clientAvailable(poolKey);
 		}
 	}
 
+	/**
+	 * Statistics of the background solution reloads, null when solutions are not reloaded in the background (in developer).
+	 */
+	ClientRecycler getClientRecycler()
+	{
+		return clientRecycler;
+	}
+
 	public static class NoClientsException extends Exception
 	{
 	}
@@ -0,0 +1,123 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Cache of resolved rest_ws routes per solution.
+ * <p>
+ * Remembers whether a name is a form or a scope and the names of the ws_ functions of each form or scope,
+ * so these do not have to be looked up in the client for every request. The method (and so the argument split) that matches a request path
+ * is resolved against the cached function names, so the size of the cache does not depend on the argument values of the requests.
+ * The entries of a solution are removed when clients of the solution are shut down, for example because the solution was imported again.
+ */
+public class RouteCache
+{
+	private static final char SEPARATOR = '\u0000';
+
+	private final boolean enabled;
+	private final Map<String, Object> entries;
+
+	RouteCache(boolean enabled, final int maxSize)
+	{
+		this.enabled = enabled && maxSize > 0;
+		this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Get the context (form name or scopes.name) for the form or scope name in the request path.
+	 */
+	public String getContext(String solutionName, String scope_or_form, Supplier<String> resolver)
+	{
+		return (String)get(key(solutionName, "context", scope_or_form), resolver);
+	}
+
+	/**
+	 * Get the names of the ws_ functions of the context (form name or scopes.name), only a listing from the resolver (non-null) is cached.
+	 */
+	public Set<String> getFunctions(String solutionName, String context, Supplier<Set<String>> resolver)
+	{
+		return get(key(solutionName, "functions", context), resolver);
+	}
+
+	/**
+	 * Remove all cached routes of the solution.
+	 */
+	public void invalidate(String solutionName)
+	{
+		String prefix = solutionName + SEPARATOR;
+		synchronized (entries)
+		{
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext())
+			{
+				if (it.next().startsWith(prefix)) it.remove();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(String key, Supplier<T> resolver)
+	{
+		if (!enabled)
+		{
+			return resolver.get();
+		}
+
+		synchronized (entries)
+		{
+			Object value = entries.get(key);
+			if (value != null)
+			{
+				return (T)value;
+			}
+		}
+
+		// resolve outside the lock, this may call into the client
+		T value = resolver.get();
+		if (value != null)
+		{
+			synchronized (entries)
+			{
+				entries.put(key, value);
+			}
+		}
+		return value;
+	}
+
+	private static String key(String solutionName, String... parts)
+	{
+		StringBuilder sb = new StringBuilder(solutionName);
+		for (String part : parts)
+		{
+			sb.append(SEPARATOR).append(part);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws.servlets;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.servoy.j2db.server.shared.IHeadlessClient;
+import com.servoy.j2db.util.Pair;
+
+/**
+ * Sub-request of a rest_ws batch request.
+ * <p>
+ * Has its own method, path, query, body and attributes, the headers of the batch request are inherited except the ones that describe the body or make the
+ * request conditional. The credentials of the batch request are used for all sub-requests.
+ */
+@SuppressWarnings("nls")
+class BatchRequest extends HttpServletRequestWrapper
+{
+	private final Batch batch;
+	private final String method;
+	private final String pathInfo;
+	private final String queryString;
+	private final Map<String, String[]> parameters = new LinkedHashMap<>();
+	private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final byte[] body;
+	private final Map<String, Object> attributes = new HashMap<>();
+
+	BatchRequest(HttpServletRequest request, Batch batch, String method, String pathInfo, String queryString, Map<String, String> headers, byte[] body)
+	{
+		super(request);
+		this.batch = batch;
+		this.method = method;
+		this.pathInfo = pathInfo;
+		this.queryString = queryString;
+		this.body = body;
+		for (Map.Entry<String, String> header : headers.entrySet())
+		{
+			if (!"Authorization".equalsIgnoreCase(header.getKey()))
+			{
+				this.headers.put(header.getKey(), header.getValue());
+			}
+		}
+
+		if (queryString != null)
+		{
+			Map<String, List<String>> values = new LinkedHashMap<>();
+			for (NameValuePair pair : URLEncodedUtils.parse(queryString, StandardCharsets.UTF_8))
+			{
+				values.computeIfAbsent(pair.getName(), name -> new ArrayList<>()).add(pair.getValue());
+			}
+			for (Map.Entry<String, List<String>> entry : values.entrySet())
+			{
+				parameters.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+			}
+		}
+	}
+
+	Batch getBatch()
+	{
+		return batch;
+	}
+
+	@Override
+	public String getMethod()
+	{
+		return method;
+	}
+
+	@Override
+	public String getPathInfo()
+	{
+		return pathInfo;
+	}
+
+	@Override
+	public String getRequestURI()
+	{
+		String uri = super.getRequestURI();
+		String batchPathInfo = super.getPathInfo();
+		if (uri != null && batchPathInfo != null && uri.endsWith(batchPathInfo))
+		{
+			return uri.substring(0, uri.length() - batchPathInfo.length()) + pathInfo;
+		}
+		return uri;
+	}
+
+	@Override
+	public String getQueryString()
+	{
+		return queryString;
+	}
+
+	@Override
+	public String getParameter(String name)
+	{
+		String[] values = parameters.get(name);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap()
+	{
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames()
+	{
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(String name)
+	{
+		return parameters.get(name);
+	}
+
+	private static boolean isInherited(String headerName)
+	{
+		String name = headerName.toLowerCase();
+		return !name.startsWith("content-") && !name.startsWith("if-") && !name.equals("transfer-encoding");
+	}
+
+	@Override
+	public String getHeader(String name)
+	{
+		if ("Content-Length".equalsIgnoreCase(name))
+		{
+			return body == null ? null : String.valueOf(body.length);
+		}
+		if (headers.containsKey(name))
+		{
+			return headers.get(name);
+		}
+		return isInherited(name) ? super.getHeader(name) : null;
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name)
+	{
+		String value = getHeader(name);
+		if (value != null && !headers.containsKey(name) && isInherited(name))
+		{
+			return super.getHeaders(name);
+		}
+		return Collections.enumeration(value == null ? Collections.<String> emptyList() : Collections.singletonList(value));
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames()
+	{
+		Set<String> names = new LinkedHashSet<>(headers.keySet());
+		Enumeration<String> batchHeaderNames = super.getHeaderNames();
+		while (batchHeaderNames != null && batchHeaderNames.hasMoreElements())
+		{
+			String name = batchHeaderNames.nextElement();
+			if (isInherited(name) && !headers.containsKey(name)) names.add(name);
+		}
+		if (body != null) names.add("Content-Length");
+		return Collections.enumeration(names);
+	}
+
+	@Override
+	public int getIntHeader(String name)
+	{
+		String value = getHeader(name);
+		return value == null ? -1 : Integer.parseInt(value.trim());
+	}
+
+	@Override
+	public long getDateHeader(String name)
+	{
+		String value = getHeader(name);
+		if (value == null)
+		{
+			return -1;
+		}
+		try
+		{
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		}
+		catch (DateTimeParseException e)
+		{
+			throw new IllegalArgumentException(value);
+		}
+	}
+
+	@Override
+	public String getContentType()
+	{
+		return getHeader("Content-Type");
+	}
+
+	@Override
+	public int getContentLength()
+	{
+		return body == null ? -1 : body.length;
+	}
+
+	@Override
+	public long getContentLengthLong()
+	{
+		return getContentLength();
+	}
+
+	@Override
+	public String getCharacterEncoding()
+	{
+		return null;
+	}
+
+	@Override
+	public ServletInputStream getInputStream()
+	{
+		final ByteArrayInputStream is = new ByteArrayInputStream(body == null ? new byte[0] : body);
+		return new ServletInputStream()
+		{
+			@Override
+			public int read()
+			{
+				return is.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len)
+			{
+				return is.read(b, off, len);
+			}
+
+			@Override
+			public boolean isFinished()
+			{
+				return is.available() == 0;
+			}
+
+			@Override
+			public boolean isReady()
+			{
+				return true;
+			}
+
+			@Override
+			public void setReadListener(ReadListener readListener)
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public BufferedReader getReader() throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(getInputStream(), Charset.forName("UTF-8")));
+	}
+
+	@Override
+	public Object getAttribute(String name)
+	{
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames()
+	{
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public void setAttribute(String name, Object o)
+	{
+		attributes.put(name, o);
+	}
+
+	@Override
+	public void removeAttribute(String name)
+	{
+		attributes.remove(name);
+	}
+
+	@Override
+	public boolean isAsyncSupported()
+	{
+		return false;
+	}
+
+	/**
+	 * State shared by the sub-requests of a batch.
+	 */
+	static class Batch
+	{
+		final Pair<IHeadlessClient, String> client;
+		/**
+		 * ws_authenticate results per form or scope.
+		 */
+		final Map<String, Object> authentications = new HashMap<>();
+		boolean reloadSolution;
+
+		Batch(Pair<IHeadlessClient, String> client)
+		{
+			this.client = client;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Response of a sub-request of a rest_ws batch request.
+ * <p>
+ * Status, headers and body are kept in memory and added to the batch response, cookies are added to the batch response directly.
+ */
+@SuppressWarnings("nls")
+class BatchResponse extends RestWSServlet.RestWSServletResponse
+{
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private int status = HttpServletResponse.SC_OK;
+	private String characterEncoding;
+	private Locale locale;
+	private ServletOutputStream outputStream;
+	private PrintWriter writer;
+
+	BatchResponse(HttpServletResponse response)
+	{
+		super(response);
+	}
+
+	@Override
+	public void setStatus(int sc)
+	{
+		status = sc;
+	}
+
+	@Override
+	public int getStatus()
+	{
+		return status;
+	}
+
+	@Override
+	public void sendError(int sc)
+	{
+		status = sc;
+	}
+
+	@Override
+	public void sendError(int sc, String msg)
+	{
+		status = sc;
+		if (msg != null)
+		{
+			resetBuffer();
+			byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+			buffer.write(bytes, 0, bytes.length);
+		}
+	}
+
+	@Override
+	public void sendRedirect(String location)
+	{
+		status = HttpServletResponse.SC_FOUND;
+		setHeader("Location", location);
+	}
+
+	@Override
+	public void setHeader(String name, String value)
+	{
+		if (value == null)
+		{
+			headers.remove(name);
+		}
+		else
+		{
+			List<String> values = new ArrayList<>(1);
+			values.add(value);
+			headers.put(name, values);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value)
+	{
+		if (value != null)
+		{
+			headers.computeIfAbsent(name, n -> new ArrayList<>(1)).add(value);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String name, int value)
+	{
+		setHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value)
+	{
+		addHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void setDateHeader(String name, long date)
+	{
+		setHeader(name, formatDate(date));
+	}
+
+	@Override
+	public void addDateHeader(String name, long date)
+	{
+		addHeader(name, formatDate(date));
+	}
+
+	private static String formatDate(long date)
+	{
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(date), ZoneOffset.UTC));
+	}
+
+	@Override
+	public boolean containsHeader(String name)
+	{
+		return headers.containsKey(name);
+	}
+
+	@Override
+	public String getHeader(String name)
+	{
+		List<String> values = headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name)
+	{
+		List<String> values = headers.get(name);
+		return values == null ? Collections.<String> emptyList() : new ArrayList<>(values);
+	}
+
+	@Override
+	public Collection<String> getHeaderNames()
+	{
+		return new ArrayList<>(headers.keySet());
+	}
+
+	@Override
+	public void setContentType(String type)
+	{
+		setHeader("Content-Type", type);
+	}
+
+	@Override
+	public String getContentType()
+	{
+		return getHeader("Content-Type");
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset)
+	{
+		characterEncodingSet = true;
+		characterEncoding = charset;
+	}
+
+	@Override
+	public String getCharacterEncoding()
+	{
+		return characterEncoding == null ? DEFAULT_CHARSET : characterEncoding;
+	}
+
+	@Override
+	public void setLocale(Locale loc)
+	{
+		locale = loc;
+	}
+
+	@Override
+	public Locale getLocale()
+	{
+		return locale == null ? Locale.getDefault() : locale;
+	}
+
+	@Override
+	public void setContentLength(int len)
+	{
+		// the body is kept in memory
+	}
+
+	@Override
+	public void setContentLengthLong(long len)
+	{
+		// the body is kept in memory
+	}
+
+	@Override
+	public void setBufferSize(int size)
+	{
+	}
+
+	@Override
+	public void flushBuffer()
+	{
+		if (writer != null) writer.flush();
+	}
+
+	@Override
+	public boolean isCommitted()
+	{
+		return false;
+	}
+
+	@Override
+	public void reset()
+	{
+		headers.clear();
+		status = HttpServletResponse.SC_OK;
+		resetBuffer();
+	}
+
+	@Override
+	public void resetBuffer()
+	{
+		if (writer != null) writer.flush();
+		buffer.reset();
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream()
+	{
+		if (outputStream == null)
+		{
+			outputStream = new ServletOutputStream()
+			{
+				@Override
+				public void write(int b)
+				{
+					buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+				{
+					buffer.write(b, off, len);
+				}
+
+				@Override
+				public boolean isReady()
+				{
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener)
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException
+	{
+		if (writer == null)
+		{
+			writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	byte[] getBody()
+	{
+		if (writer != null) writer.flush();
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response that compresses the body with the content encoding accepted by the client.
+ * <p>
+ * The body is kept in memory until it reaches the threshold, smaller bodies are sent as is. Larger bodies are compressed while they are written,
+ * so the compressed body is never completely in memory. Bodies that already have a content encoding or a compressed content type are not compressed.
+ */
+@SuppressWarnings("nls")
+class CompressingResponse extends HttpServletResponseWrapper
+{
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final String encoding;
+	private final int threshold;
+	private long contentLength = -1;
+	private CompressingOutputStream outputStream;
+	private PrintWriter writer;
+
+	/**
+	 * @param encoding gzip or deflate
+	 * @param threshold bodies smaller than this number of bytes are not compressed
+	 */
+	CompressingResponse(HttpServletResponse response, String encoding, int threshold)
+	{
+		super(response);
+		this.encoding = encoding;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Select the content encoding from the Accept-Encoding request header, returns null when no supported encoding is accepted.
+	 */
+	static String getAcceptedEncoding(String acceptEncoding)
+	{
+		if (acceptEncoding == null)
+		{
+			return null;
+		}
+		boolean deflate = false;
+		for (String element : acceptEncoding.split(","))
+		{
+			String[] parts = element.trim().split(" *; *");
+			String coding = parts[0].toLowerCase();
+			boolean accepted = true;
+			for (int i = 1; i < parts.length; i++)
+			{
+				if (parts[i].startsWith("q="))
+				{
+					try
+					{
+						accepted = Double.parseDouble(parts[i].substring(2)) > 0;
+					}
+					catch (NumberFormatException e)
+					{
+						accepted = false;
+					}
+				}
+			}
+			if (accepted && (coding.equals(GZIP) || coding.equals("x-gzip")))
+			{
+				return GZIP;
+			}
+			deflate = deflate || (accepted && coding.equals(DEFLATE));
+		}
+		return deflate ? DEFLATE : null;
+	}
+
+	@Override
+	public void setContentLength(int len)
+	{
+		setContentLengthLong(len);
+	}
+
+	@Override
+	public void setContentLengthLong(long len)
+	{
+		// the length is only known when the body is not compressed
+		contentLength = len;
+	}
+
+	@Override
+	public void setHeader(String name, String value)
+	{
+		if ("Content-Length".equalsIgnoreCase(name))
+		{
+			setContentLengthLong(value == null ? -1 : Long.parseLong(value.trim()));
+		}
+		else
+		{
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream()
+	{
+		if (outputStream == null)
+		{
+			outputStream = new CompressingOutputStream();
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException
+	{
+		if (writer == null)
+		{
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException
+	{
+		if (writer != null) writer.flush();
+		if (outputStream != null) outputStream.flush();
+	}
+
+	@Override
+	public void reset()
+	{
+		super.reset();
+		resetBuffer();
+		contentLength = -1;
+	}
+
+	@Override
+	public void resetBuffer()
+	{
+		super.resetBuffer();
+		if (outputStream != null) outputStream.resetPending();
+	}
+
+	/**
+	 * Send the body when it was not sent yet.
+	 */
+	void finish() throws IOException
+	{
+		if (writer != null) writer.flush();
+		if (outputStream != null)
+		{
+			outputStream.close();
+		}
+		else if (contentLength >= 0)
+		{
+			super.setContentLengthLong(contentLength);
+		}
+	}
+
+	private boolean shouldCompress()
+	{
+		if (contentLength >= 0 && contentLength < threshold)
+		{
+			return false;
+		}
+		if (containsHeader("Content-Encoding") || isCommitted())
+		{
+			return false;
+		}
+		String contentType = getContentType();
+		if (contentType != null)
+		{
+			String type = contentType.toLowerCase();
+			if (type.startsWith("image/") || type.startsWith("audio/") || type.startsWith("video/") || type.contains("zip") || type.contains("compressed"))
+			{
+				// already compressed
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private class CompressingOutputStream extends ServletOutputStream
+	{
+		private ByteArrayOutputStream pending = new ByteArrayOutputStream(Math.min(threshold, BUFFER_SIZE));
+		private OutputStream target;
+		private boolean closed;
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (closed)
+			{
+				throw new IOException("Stream closed");
+			}
+			if (target == null)
+			{
+				if (pending.size() + len < threshold)
+				{
+					pending.write(b, off, len);
+					return;
+				}
+				start();
+			}
+			target.write(b, off, len);
+		}
+
+		/**
+		 * The body is larger than the threshold, start sending it.
+		 */
+		private void start() throws IOException
+		{
+			HttpServletResponse response = (HttpServletResponse)getResponse();
+			if (shouldCompress())
+			{
+				response.setHeader("Content-Encoding", encoding);
+				String etag = response.getHeader("ETag");
+				if (etag != null && !etag.startsWith("W/"))
+				{
+					// the compressed body is not byte for byte the same as the uncompressed body the strong ETag was made for
+					response.setHeader("ETag", "W/" + etag);
+				}
+				target = GZIP.equals(encoding) ? new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE)
+					: new DeflaterOutputStream(response.getOutputStream());
+			}
+			else
+			{
+				if (contentLength >= 0) response.setContentLengthLong(contentLength);
+				target = response.getOutputStream();
+			}
+			pending.writeTo(target);
+			pending = null;
+		}
+
+		void resetPending()
+		{
+			if (pending != null) pending.reset();
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			// while the body is smaller than the threshold it is kept until close
+			if (target != null) target.flush();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			if (target == null)
+			{
+				// small body, send as is
+				HttpServletResponse response = (HttpServletResponse)getResponse();
+				response.setContentLength(pending.size());
+				target = response.getOutputStream();
+				pending.writeTo(target);
+				pending = null;
+			}
+			target.close();
+		}
+
+		@Override
+		public boolean isReady()
+		{
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ This file belongs to the Servoy development and deployment environment, Copyright (C) 1997-2020 Servoy BV
+
+ This program is free software; you can redistribute it and/or modify it under
+ the terms of the GNU Affero General Public License as published by the Free
+ Software Foundation; either version 3 of the License, or (at your option) any
+ later version.
+
+ This program is distributed in the hope that it will be useful, but WITHOUT
+ ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License along
+ with this program; if not, see http://www.gnu.org/licenses or write to the Free
+ Software Foundation,Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ */
+package com.servoy.extensions.plugins.rest_ws.servlets;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.servoy.extensions.plugins.rest_ws.RestWSMetrics;
+import com.servoy.extensions.plugins.rest_ws.RestWSPlugin;
+import com.servoy.j2db.util.HTTPUtils;
+
+/**
+ * Servlet for the rest_ws metrics in Prometheus text format, only requests from the allowed remote addresses can read them.
+ *
+ * <pre>
+ * /servoy-service/rest_ws_metrics
+ * </pre>
+ */
+@SuppressWarnings("nls")
+public class RestWSMetricsServlet extends HttpServlet
+{
+	private final RestWSPlugin plugin;
+	private final Set<String> allowedAddresses = new HashSet<>();
+
+	/**
+	 * @param allowedAddresses remote addresses that can read the metrics, * allows all addresses
+	 */
+	public RestWSMetricsServlet(RestWSPlugin restWSPlugin, String[] allowedAddresses)
+	{
+		this.plugin = restWSPlugin;
+		for (String address : allowedAddresses)
+		{
+			if (address.trim().length() > 0) this.allowedAddresses.add(address.trim());
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		RestWSMetrics metrics = plugin.getMetrics();
+		if (metrics == null)
+		{
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		if (!allowedAddresses.contains("*") && !allowedAddresses.contains(request.getRemoteAddr()))
+		{
+			if (plugin.log.isDebugEnabled()) plugin.log.debug("Request for rest_ws metrics from " + request.getRemoteAddr() + " is not allowed, see setting rest_ws_plugin_metrics_allowed_addresses");
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		HTTPUtils.setNoCacheHeaders(response);
+		response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)))
+		{
+			metrics.writePrometheus(writer);
+		}
+	}
+}
@@ -16,18 +16,34 @@
  */
 package com.servoy.extensions.plugins.rest_ws.servlets;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -35,8 +51,14 @@ import java.util.stream.Stream;
 import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMultipart;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.WriteListener;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -48,20 +70,29 @@ import org.apache.http.client.utils.URLEncodedUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.json.XML;
+import org.mozilla.javascript.Function;
 import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.Undefined;
 import org.mozilla.javascript.Wrapper;
 import org.mozilla.javascript.xml.XMLObject;
 
+import com.servoy.extensions.plugins.rest_ws.AuthenticationCache;
+import com.servoy.extensions.plugins.rest_ws.ClientWaitQueue;
+import com.servoy.extensions.plugins.rest_ws.ResponseCache;
 import com.servoy.extensions.plugins.rest_ws.RestWSClientPlugin;
+import com.servoy.extensions.plugins.rest_ws.RestWSMetrics;
 import com.servoy.extensions.plugins.rest_ws.RestWSPlugin;
 import com.servoy.extensions.plugins.rest_ws.RestWSPlugin.ExecFailedException;
 import com.servoy.extensions.plugins.rest_ws.RestWSPlugin.NoClientsException;
 import com.servoy.extensions.plugins.rest_ws.RestWSPlugin.NotAuthenticatedException;
 import com.servoy.extensions.plugins.rest_ws.RestWSPlugin.NotAuthorizedException;
+import com.servoy.j2db.IApplication;
+import com.servoy.j2db.IFormController;
 import com.servoy.j2db.persistence.ScriptVariable;
+import com.servoy.j2db.plugins.ClientPluginAccessProvider;
 import com.servoy.j2db.plugins.IClientPlugin;
 import com.servoy.j2db.plugins.IClientPluginAccess;
 import com.servoy.j2db.scripting.FunctionDefinition;
@@ -88,7 +119,9 @@ import com.servoy.j2db.util.Utils;
  * <li>POST<br>
  * call the method mysolution.myform.ws_create(post-data), return the method result in the response
  * <li>GET<br>
- * call the method mysolution.myform.ws_read(args), return the method result in the response or set status NOT_FOUND when null was returned
+ * call the method mysolution.myform.ws_read(args), return the method result in the response or set status NOT_FOUND when null was returned.
+ * When the solution set an ETag or Last-Modified header (or ETags are enabled) conditional requests are answered with NOT_MODIFIED when the result did not
+ * change, results with a Cache-Control max-age can be cached on the server.
  * <li>UPDATE<br>
  * call the method mysolution.myform.ws_update(post-data, args), set status NOT_FOUND when FALSE was returned
  * <li>PATCH<br>
@@ -96,15 +129,27 @@ import com.servoy.j2db.util.Utils;
  * <li>DELETE<br>
  * call the method mysolution.myform.ws_delete(args), set status NOT_FOUND when FALSE was returned
  * </ul>
+ * <p>
+ * Multiple requests can be sent in one batch by posting an array of requests to
+ *
+ * <pre>
+ * /servoy-service/rest_ws/mysolution/_batch
+ * [ { "method": "GET", "path": "/myform/arg1" }, { "method": "PUT", "path": "/myform/arg1", "headers": { }, "body": { } } ]
+ * </pre>
+ *
+ * The requests are executed in order on one client and authenticated once per form or scope, the response (HTTP 207) is an array with the status,
+ * headers and body of each request.
  *
  * <p>
  * The solution is opened via a Servoy Headless Client which is shared across multiple requests, requests are assumed to be stateless. Clients are managed via a
  * pool, 1 client per concurrent request is used.
+ * When the pool is configured with a wait queue, requests that wait for a client are suspended (asynchronous servlet processing) instead of holding a
+ * server thread.
  *
  * @author rgansevles
  *
  */
-@SuppressWarnings("nls")
+@SuppressWarnings({ "nls", "unchecked" })
 public class RestWSServlet extends HttpServlet
 {
 	// solution method names
@@ -114,6 +159,7 @@ public class RestWSServlet extends HttpServlet
 	private static final String WS_DELETE = "ws_delete";
 	private static final String WS_READ = "ws_read";
 	private static final String WS_AUTHENTICATE = "ws_authenticate";
+	private static final String WS_BATCH = "_batch";
 	private static final String WS_RESPONSE_HEADERS = "ws_response_headers";
 	private static final String WS_NODEBUG_HEADER = "servoy.nodebug";
 	private static final String WS_USER_PROPERTIES_HEADER = "servoy.userproperties";
@@ -130,6 +176,21 @@ public class RestWSServlet extends HttpServlet
 	private static final int CONTENT_DEFAULT = CONTENT_JSON;
 	private static final String CHARSET_DEFAULT = "UTF-8";
 
+	private static final int BUFFER_SIZE = 8 * 1024;
+	/**
+	 * The maximum initial size of the buffer of a request body, the Content-Length header of the client is not trusted beyond this.
+	 */
+	private static final int MAX_BODY_PRESIZE = 4 * 1024 * 1024;
+	private static final String BODY_FILE_ATTRIBUTE = "servoy.rest_ws.bodyfile";
+	private static final String CLIENT_ATTRIBUTE = "servoy.rest_ws.client";
+	private static final int RETRY_AFTER_SECONDS = 5;
+	private static final int SC_MULTI_STATUS = 207;
+	private static final String REQUEST_START_ATTRIBUTE = "servoy.rest_ws.requeststart";
+	private static final String REQUEST_PATH_ATTRIBUTE = "servoy.rest_ws.requestpath";
+	private static final String ROUTE_RESOLVED_ATTRIBUTE = "servoy.rest_ws.routeresolved";
+	private static final String PENDING_PHASE_TIMES_ATTRIBUTE = "servoy.rest_ws.pendingphasetimes";
+	private static final String RESPONSE_CACHE_LOOKUP_ATTRIBUTE = "servoy.rest_ws.responsecachelookup";
+
 	/**
 	 * Just a convention used by Servoy in ws_response_headers() return value to define the name/key of a header to be returned. (must be String)
 	 */
@@ -152,6 +213,10 @@ public class RestWSServlet extends HttpServlet
 	@Override
 	protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
+		if (plugin.getMetrics() != null)
+		{
+			request.setAttribute(REQUEST_START_ATTRIBUTE, Long.valueOf(System.nanoTime()));
+		}
 		RestWSServletResponse restWSServletResponse = new RestWSServletResponse(response);
 
 		String value = request.getHeader("Origin");
@@ -182,16 +247,199 @@ public class RestWSServlet extends HttpServlet
 			restWSServletResponse.setHeader("Access-Control-Allow-Headers", value);
 		}
 
-		if (request.getMethod().equals("PATCH"))
+		HttpServletResponse serviceResponse = restWSServletResponse;
+		int compressionThreshold = plugin.getCompressionThreshold();
+		if (compressionThreshold >= 0)
 		{
-			doPatch(request, restWSServletResponse);
+			restWSServletResponse.addHeader("Vary", "Accept-Encoding");
+			String encoding = CompressingResponse.getAcceptedEncoding(request.getHeader("Accept-Encoding"));
+			if (encoding != null)
+			{
+				serviceResponse = new CompressingResponse(restWSServletResponse, encoding, compressionThreshold);
+			}
 		}
-		else
+
+		ClientWaitQueue clientWaitQueue = plugin.getClientWaitQueue();
+		if (clientWaitQueue != null && request.isAsyncSupported() && !"TRACE".equals(request.getMethod()) && !hasCachedResponse(request) &&
+			queueRequest(clientWaitQueue, request, serviceResponse))
+		{
+			// request will be processed when a client is available
+			return;
+		}
+
+		processRequest(request, serviceResponse);
+	}
+
+	private void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		try
+		{
+			if (request.getMethod().equals("PATCH"))
+			{
+				doPatch(request, response);
+			}
+			else
+			{
+				super.service(request, response);
+			}
+		}
+		finally
+		{
+			try
+			{
+				if (response instanceof CompressingResponse)
+				{
+					// send the rest of the (compressed) body
+					((CompressingResponse)response).finish();
+				}
+			}
+			finally
+			{
+				cleanupRequest(request);
+			}
+		}
+	}
+
+	private void cleanupRequest(HttpServletRequest request)
+	{
+		recordTimeSinceRequestStart(request, RestWSMetrics.PHASE_TOTAL);
+		recordUnresolvedPhaseTimes(request);
+		deleteBodyFile(request);
+		// client was borrowed for this request but the request did not get to use it
+		Object unusedClient = request.getAttribute(CLIENT_ATTRIBUTE);
+		if (unusedClient instanceof Pair)
 		{
-			super.service(request, restWSServletResponse);
+			request.removeAttribute(CLIENT_ATTRIBUTE);
+			plugin.releaseClient(((Pair<IHeadlessClient, String>)unusedClient).getRight(), ((Pair<IHeadlessClient, String>)unusedClient).getLeft(), false);
 		}
 	}
 
+	private static void deleteBodyFile(HttpServletRequest request)
+	{
+		Object bodyFile = request.getAttribute(BODY_FILE_ATTRIBUTE);
+		if (bodyFile instanceof File && !((File)bodyFile).delete())
+		{
+			((File)bodyFile).deleteOnExit();
+		}
+	}
+
+	/**
+	 * Borrow a client for the request, when no client is available right away the request is queued without holding the current thread.
+	 *
+	 * @return true when the request was queued or rejected, false when the request can be processed now
+	 */
+	private boolean queueRequest(final ClientWaitQueue clientWaitQueue, final HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		final String poolKey;
+		IHeadlessClient client;
+		try
+		{
+			poolKey = getPoolKey(request);
+			// a client that is returned while requests are waiting is theirs, a new request only skips the queue when it is empty
+			client = clientWaitQueue.getQueueSize(poolKey) == 0 ? plugin.tryGetClient(poolKey) : null;
+		}
+		catch (Exception e)
+		{
+			// let the normal request processing report the problem
+			return false;
+		}
+		if (client != null)
+		{
+			request.setAttribute(CLIENT_ATTRIBUTE, new Pair<IHeadlessClient, String>(client, poolKey));
+			return false;
+		}
+
+		final AsyncContext asyncContext = request.startAsync(request, response);
+		// the queue times out waiting requests, a request that got a client should not time out
+		asyncContext.setTimeout(0);
+		final ClientWaitQueue.Waiter waiter = new ClientWaitQueue.Waiter()
+		{
+			@Override
+			protected void clientAvailable(IHeadlessClient availableClient)
+			{
+				request.setAttribute(CLIENT_ATTRIBUTE, new Pair<IHeadlessClient, String>(availableClient, poolKey));
+				try
+				{
+					asyncContext.start(() -> {
+						try
+						{
+							processRequest((HttpServletRequest)asyncContext.getRequest(), (HttpServletResponse)asyncContext.getResponse());
+						}
+						catch (Exception e)
+						{
+							plugin.log.error(request.getRequestURI(), e);
+						}
+						finally
+						{
+							asyncContext.complete();
+						}
+					});
+				}
+				catch (IllegalStateException e)
+				{
+					// request was already completed
+					request.removeAttribute(CLIENT_ATTRIBUTE);
+					plugin.releaseClient(poolKey, availableClient, false);
+				}
+			}
+
+			@Override
+			protected void timedOut()
+			{
+				plugin.log.warn("No client became available for queued request {}", request.getRequestURI());
+				try
+				{
+					sendServiceUnavailable((HttpServletResponse)asyncContext.getResponse());
+				}
+				catch (IOException e)
+				{
+					Debug.trace(e);
+				}
+				finally
+				{
+					asyncContext.complete();
+				}
+			}
+		};
+		asyncContext.addListener(new AsyncListener()
+		{
+			@Override
+			public void onError(AsyncEvent event)
+			{
+				clientWaitQueue.remove(poolKey, waiter);
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event)
+			{
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event)
+			{
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event)
+			{
+			}
+		});
+
+		if (!clientWaitQueue.enqueue(poolKey, waiter))
+		{
+			plugin.log.warn("Too many requests waiting for a client for solution {}, request {} is rejected", poolKey, request.getRequestURI());
+			sendServiceUnavailable(response);
+			asyncContext.complete();
+		}
+		return true;
+	}
+
+	private void sendServiceUnavailable(HttpServletResponse response) throws IOException
+	{
+		response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+		sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
@@ -200,6 +448,19 @@ public class RestWSServlet extends HttpServlet
 		try
 		{
 			plugin.log.trace("GET");
+			Pair<String, ResponseCache.Entry> responseCacheLookup = lookupCachedResponse(request);
+			String responseCacheKey = null;
+			if (responseCacheLookup != null)
+			{
+				responseCacheKey = responseCacheLookup.getLeft();
+				if (responseCacheLookup.getRight() != null)
+				{
+					// no client needed
+					sendCachedResponse(request, response, responseCacheLookup.getRight());
+					return;
+				}
+			}
+
 			client = getClient(request);
 			Object result = wsService(WS_READ, null, request, response, client.getLeft());
 			if (result == null)
@@ -207,8 +468,15 @@ public class RestWSServlet extends HttpServlet
 				sendError(response, HttpServletResponse.SC_NOT_FOUND);
 				return;
 			}
-			HTTPUtils.setNoCacheHeaders(response);
-			sendResult(request, response, result, CONTENT_DEFAULT);
+			if (responseCacheKey == null && !plugin.isETagEnabled() && !response.containsHeader("ETag") && !response.containsHeader("Last-Modified"))
+			{
+				HTTPUtils.setNoCacheHeaders(response);
+				sendResult(request, response, result, CONTENT_DEFAULT);
+			}
+			else
+			{
+				sendCacheableResult(request, response, result, responseCacheKey);
+			}
 		}
 		catch (ExecFailedException e)
 		{
@@ -224,9 +492,251 @@ public class RestWSServlet extends HttpServlet
 		{
 			if (client != null)
 			{
-				plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+				releaseClient(request, client, reloadSolution);
+			}
+		}
+	}
+
+	/**
+	 * Send the result of a GET request with validators (ETag, Last-Modified), conditional requests for an unchanged result are answered with
+	 * NOT_MODIFIED without sending the body. The response is cached on the server when the solution set it as cacheable.
+	 */
+	private void sendCacheableResult(HttpServletRequest request, HttpServletResponse response, Object result, String responseCacheKey) throws Exception
+	{
+		boolean cacheControlSet = response.containsHeader("Cache-Control");
+
+		if (response.getStatus() == HttpServletResponse.SC_OK && isNotModified(request, response.getHeader("ETag"), response.getHeader("Last-Modified")))
+		{
+			// the solution set the validators (ws_response_headers), the body is not needed to answer the conditional request
+			if (!cacheControlSet) response.setHeader("Cache-Control", "private, no-cache");
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		BufferedResponse bufferedResponse = new BufferedResponse(response);
+		sendResult(request, bufferedResponse, result, CONTENT_DEFAULT);
+		byte[] body = bufferedResponse.toByteArray();
+
+		if (response.getStatus() == HttpServletResponse.SC_OK)
+		{
+			if (plugin.isETagEnabled() && !response.containsHeader("ETag") && !response.containsHeader("Last-Modified"))
+			{
+				response.setHeader("ETag", createETag(body));
+			}
+			if (!cacheControlSet)
+			{
+				if (response.containsHeader("ETag") || response.containsHeader("Last-Modified"))
+				{
+					// clients may reuse the response after checking it did not change
+					response.setHeader("Cache-Control", "private, no-cache");
+				}
+				else
+				{
+					HTTPUtils.setNoCacheHeaders(response);
+				}
+			}
+
+			long maxAge = getCacheableMaxAge(response);
+			if (responseCacheKey != null && maxAge > 0)
+			{
+				plugin.getResponseCache().put(responseCacheKey, parsePath(request).solutionName, maxAge * 1000, response.getContentType(),
+					getCacheableHeaders(response), body);
+			}
+
+			if (isNotModified(request, response.getHeader("ETag"), response.getHeader("Last-Modified")))
+			{
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+
+		response.setContentLength(body.length);
+		try (ServletOutputStream outputStream = response.getOutputStream())
+		{
+			outputStream.write(body);
+		}
+	}
+
+	private void sendCachedResponse(HttpServletRequest request, HttpServletResponse response, ResponseCache.Entry cachedResponse) throws IOException
+	{
+		if (plugin.log.isDebugEnabled()) plugin.log.debug("Sending cached response for '" + request.getPathInfo() + '\'');
+		// only responses of existing functions are cached
+		resolveRoute(request);
+		for (Pair<String, String> header : cachedResponse.getHeaders())
+		{
+			response.addHeader(header.getLeft(), header.getRight());
+		}
+		if (cachedResponse.getContentType() != null)
+		{
+			response.setContentType(cachedResponse.getContentType());
+		}
+
+		if (isNotModified(request, response.getHeader("ETag"), response.getHeader("Last-Modified")))
+		{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] body = cachedResponse.getBody();
+		response.setContentLength(body.length);
+		try (ServletOutputStream outputStream = response.getOutputStream())
+		{
+			outputStream.write(body);
+		}
+	}
+
+	/**
+	 * Look up the response of a GET request in the response cache, this is done once per request.
+	 *
+	 * @return the key in the response cache and the cached response (null when not cached), null when responses are not cached
+	 */
+	private Pair<String, ResponseCache.Entry> lookupCachedResponse(HttpServletRequest request)
+	{
+		Pair<String, ResponseCache.Entry> lookup = (Pair<String, ResponseCache.Entry>)request.getAttribute(RESPONSE_CACHE_LOOKUP_ATTRIBUTE);
+		if (lookup == null)
+		{
+			ResponseCache responseCache = plugin.getResponseCache();
+			if (responseCache == null || !responseCache.isEnabled() || !"GET".equals(request.getMethod()))
+			{
+				return null;
+			}
+			String key = getResponseCacheKey(responseCache, request);
+			lookup = new Pair<>(key, responseCache.get(key));
+			request.setAttribute(RESPONSE_CACHE_LOOKUP_ATTRIBUTE, lookup);
+		}
+		return lookup;
+	}
+
+	/**
+	 * Check if the request can be answered from the response cache, so no client has to be borrowed for it.
+	 */
+	private boolean hasCachedResponse(HttpServletRequest request)
+	{
+		try
+		{
+			Pair<String, ResponseCache.Entry> lookup = lookupCachedResponse(request);
+			return lookup != null && lookup.getRight() != null;
+		}
+		catch (IllegalArgumentException e)
+		{
+			// invalid path, let the normal request processing report the problem
+			return false;
+		}
+	}
+
+	/**
+	 * Key in the response cache, includes the credentials and the request headers that may change the response.
+	 */
+	private String getResponseCacheKey(ResponseCache responseCache, HttpServletRequest request)
+	{
+		return responseCache.createKey(parsePath(request).solutionName, request.getPathInfo(), request.getQueryString(), request.getHeader("Authorization"),
+			request.getHeader("Accept"), request.getHeader("Content-Type"), request.getHeader("Cookie"), request.getHeader(WS_USER_PROPERTIES_HEADER));
+	}
+
+	/**
+	 * The max-age in seconds when the solution set the response as cacheable, -1 otherwise.
+	 */
+	private static long getCacheableMaxAge(HttpServletResponse response)
+	{
+		String cacheControl = response.getHeader("Cache-Control");
+		if (cacheControl == null || response.containsHeader("Set-Cookie"))
+		{
+			return -1;
+		}
+		long maxAge = -1;
+		for (String directive : cacheControl.split(","))
+		{
+			directive = directive.trim().toLowerCase();
+			if (directive.equals("no-store") || directive.equals("no-cache"))
+			{
+				return -1;
+			}
+			if (directive.startsWith("max-age="))
+			{
+				maxAge = Utils.getAsInteger(directive.substring("max-age=".length()), -1);
+			}
+		}
+		return maxAge;
+	}
+
+	/**
+	 * Response headers that are replayed for a cached response, CORS headers are set per request.
+	 */
+	private static List<Pair<String, String>> getCacheableHeaders(HttpServletResponse response)
+	{
+		List<Pair<String, String>> headers = new ArrayList<>();
+		for (String name : new LinkedHashSet<>(response.getHeaderNames()))
+		{
+			if (!name.equalsIgnoreCase("Content-Type") && !name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Vary") &&
+				!name.toLowerCase().startsWith("access-control-"))
+			{
+				for (String value : response.getHeaders(name))
+				{
+					headers.add(new Pair<String, String>(name, value));
+				}
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * A weak ETag, the same body can be sent compressed or not.
+	 */
+	private static String createETag(byte[] body)
+	{
+		try
+		{
+			return "W/\"" + Utils.encodeBASE64(MessageDigest.getInstance("SHA-256").digest(body)) + '"';
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every jvm supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Check the conditional request headers, If-None-Match takes precedence over If-Modified-Since.
+	 */
+	private static boolean isNotModified(HttpServletRequest request, String etag, String lastModified)
+	{
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+		{
+			if (etag == null)
+			{
+				return false;
+			}
+			String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+			for (String tag : ifNoneMatch.split(","))
+			{
+				tag = tag.trim();
+				if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaqueTag))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		if (lastModified != null)
+		{
+			try
+			{
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				if (ifModifiedSince != -1)
+				{
+					long lastModifiedTime = ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+					// http dates have a precision of seconds
+					return lastModifiedTime / 1000 <= ifModifiedSince / 1000;
+				}
+			}
+			catch (IllegalArgumentException | DateTimeParseException e)
+			{
+				// invalid date, send the full response
 			}
 		}
+		return false;
 	}
 
 	/**
@@ -237,13 +747,28 @@ public class RestWSServlet extends HttpServlet
 	 */
 	private Pair<IHeadlessClient, String> getClient(HttpServletRequest request) throws Exception
 	{
-		WsRequestPath wsRequestPath = parsePath(request);
-		boolean nodebug = getNodebugHeadderValue(request);
-		String solutionName = nodebug ? wsRequestPath.solutionName + ":nodebug" : wsRequestPath.solutionName;
+		if (request instanceof BatchRequest)
+		{
+			// all requests of a batch use the client of the batch
+			return ((BatchRequest)request).getBatch().client;
+		}
+
+		Object borrowedClient = request.getAttribute(CLIENT_ATTRIBUTE);
+		if (borrowedClient instanceof Pair)
+		{
+			// client was already borrowed when the request was queued
+			request.removeAttribute(CLIENT_ATTRIBUTE);
+			recordTimeSinceRequestStart(request, RestWSMetrics.PHASE_BORROW_WAIT);
+			return (Pair<IHeadlessClient, String>)borrowedClient;
+		}
+
+		String solutionName = getPoolKey(request);
 		IHeadlessClient client;
 		try
 		{
+			long start = System.nanoTime();
 			client = plugin.getClient(solutionName.toString());
+			recordTime(request, RestWSMetrics.PHASE_BORROW_WAIT, start);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -253,6 +778,119 @@ public class RestWSServlet extends HttpServlet
 		return new Pair<IHeadlessClient, String>(client, solutionName);
 	}
 
+	private void releaseClient(HttpServletRequest request, Pair<IHeadlessClient, String> client, boolean reloadSolution)
+	{
+		if (request instanceof BatchRequest)
+		{
+			// the client is released when the batch is done
+			BatchRequest.Batch batch = ((BatchRequest)request).getBatch();
+			batch.reloadSolution = batch.reloadSolution || reloadSolution;
+		}
+		else
+		{
+			plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+		}
+	}
+
+	private void recordTimeSinceRequestStart(HttpServletRequest request, String phase)
+	{
+		Object requestStart = request.getAttribute(REQUEST_START_ATTRIBUTE);
+		if (requestStart instanceof Long)
+		{
+			recordTime(request, phase, ((Long)requestStart).longValue());
+		}
+	}
+
+	/**
+	 * Record the time since start (System.nanoTime()) for the phase of the request, when metrics are enabled.<br/>
+	 * The path of the request is only used as route when it was resolved to an existing function of an authenticated request,
+	 * until then the times are kept in the request so any path cannot add routes to the metrics.
+	 */
+	private void recordTime(HttpServletRequest request, String phase, long start)
+	{
+		RestWSMetrics metrics = plugin.getMetrics();
+		if (metrics == null)
+		{
+			return;
+		}
+		long time = System.nanoTime() - start;
+		Object wsRequestPath = request.getAttribute(REQUEST_PATH_ATTRIBUTE);
+		if (wsRequestPath instanceof WsRequestPath && Boolean.TRUE.equals(request.getAttribute(ROUTE_RESOLVED_ATTRIBUTE)))
+		{
+			metrics.record(((WsRequestPath)wsRequestPath).solutionName, ((WsRequestPath)wsRequestPath).scope_or_form, request.getMethod(), phase, time);
+		}
+		else
+		{
+			List<Pair<String, Long>> pending = (List<Pair<String, Long>>)request.getAttribute(PENDING_PHASE_TIMES_ATTRIBUTE);
+			if (pending == null)
+			{
+				pending = new ArrayList<>();
+				request.setAttribute(PENDING_PHASE_TIMES_ATTRIBUTE, pending);
+			}
+			pending.add(new Pair<>(phase, Long.valueOf(time)));
+		}
+	}
+
+	/**
+	 * Mark the path of the request as existing route, the phase times recorded before are recorded for the route.
+	 */
+	private void resolveRoute(HttpServletRequest request)
+	{
+		if (plugin.getMetrics() == null)
+		{
+			return;
+		}
+		request.setAttribute(REQUEST_PATH_ATTRIBUTE, parsePath(request));
+		request.setAttribute(ROUTE_RESOLVED_ATTRIBUTE, Boolean.TRUE);
+		recordPendingPhaseTimes(request);
+	}
+
+	/**
+	 * Record the phase times of a request that did not resolve to an existing route under one unknown route.
+	 */
+	private void recordUnresolvedPhaseTimes(HttpServletRequest request)
+	{
+		if (request.getAttribute(PENDING_PHASE_TIMES_ATTRIBUTE) != null)
+		{
+			request.removeAttribute(REQUEST_PATH_ATTRIBUTE);
+			recordPendingPhaseTimes(request);
+		}
+	}
+
+	private void recordPendingPhaseTimes(HttpServletRequest request)
+	{
+		RestWSMetrics metrics = plugin.getMetrics();
+		List<Pair<String, Long>> pending = (List<Pair<String, Long>>)request.getAttribute(PENDING_PHASE_TIMES_ATTRIBUTE);
+		if (metrics == null || pending == null)
+		{
+			return;
+		}
+		request.removeAttribute(PENDING_PHASE_TIMES_ATTRIBUTE);
+		Object wsRequestPath = request.getAttribute(REQUEST_PATH_ATTRIBUTE);
+		for (Pair<String, Long> phaseTime : pending)
+		{
+			if (wsRequestPath instanceof WsRequestPath)
+			{
+				metrics.record(((WsRequestPath)wsRequestPath).solutionName, ((WsRequestPath)wsRequestPath).scope_or_form, request.getMethod(),
+					phaseTime.getLeft(), phaseTime.getRight().longValue());
+			}
+			else
+			{
+				metrics.recordUnknownRoute(request.getMethod(), phaseTime.getLeft(), phaseTime.getRight().longValue());
+			}
+		}
+	}
+
+	/**
+	 * The key of the client pool for the request, the solution name with ":nodebug" when the nodebug header is set.
+	 */
+	private String getPoolKey(HttpServletRequest request)
+	{
+		WsRequestPath wsRequestPath = parsePath(request);
+		boolean nodebug = getNodebugHeadderValue(request);
+		return nodebug ? wsRequestPath.solutionName + ":nodebug" : wsRequestPath.solutionName;
+	}
+
 	private void handleException(Exception e, HttpServletRequest request, HttpServletResponse response, IHeadlessClient headlessClient) throws IOException
 	{
 		final int errorCode;
@@ -343,58 +981,263 @@ public class RestWSServlet extends HttpServlet
 		}
 		finally
 		{
-			if (client != null)
+			if (client != null)
+			{
+				releaseClient(request, client, reloadSolution);
+			}
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		if (isBatchRequest(request))
+		{
+			doBatch(request, response);
+			return;
+		}
+
+		Pair<IHeadlessClient, String> client = null;
+		boolean reloadSolution = plugin.shouldReloadSolutionAfterRequest();
+		try
+		{
+			int contentType = CONTENT_OTHER;
+			File bodyFile = spoolBody(request);
+			byte[] contents = bodyFile == null ? getBody(request) : null;
+			if (bodyFile != null)
+			{
+				contentType = CONTENT_BINARY;
+			}
+			else if (contents != null && contents.length != 0)
+			{
+				contentType = getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
+				if (contentType == CONTENT_OTHER && contents != null)
+				{
+					sendError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+					return;
+				}
+			}
+			client = getClient(request);
+			String charset = getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT);
+			Object body = bodyFile != null ? bodyFile : decodeContent(request.getContentType(), contentType, contents, charset);
+			Object result = wsService(WS_CREATE, new Object[] { body }, request, response, client.getLeft());
+			HTTPUtils.setNoCacheHeaders(response);
+			if (result != null && result != Undefined.instance)
+			{
+				sendResult(request, response, result, contentType);
+			}
+		}
+		catch (ExecFailedException e)
+		{
+			handleException(e.getCause(), request, response, client != null ? client.getLeft() : null);
+			// do not reload solution when the error was thrown in solution code
+			if (!reloadSolution) reloadSolution = !e.isUserScriptException();
+		}
+		catch (Exception e)
+		{
+			handleException(e, request, response, client != null ? client.getLeft() : null);
+		}
+		finally
+		{
+			if (client != null)
+			{
+				releaseClient(request, client, reloadSolution);
+			}
+		}
+	}
+
+	private boolean isBatchRequest(HttpServletRequest request)
+	{
+		if (request instanceof BatchRequest)
+		{
+			// no nested batches
+			return false;
+		}
+		try
+		{
+			WsRequestPath wsRequestPath = parsePath(request);
+			return WS_BATCH.equals(wsRequestPath.scope_or_form) && wsRequestPath.args.length == 0;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Execute the requests of a batch in order on one client, the response is an array with the status, headers and body of each request.
+	 */
+	private void doBatch(HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		Pair<IHeadlessClient, String> client = null;
+		BatchRequest.Batch batch = null;
+		try
+		{
+			plugin.log.trace("BATCH");
+			JSONArray requests;
+			try
+			{
+				requests = new JSONArray(new String(getBody(request), getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT)));
+			}
+			catch (JSONException e)
+			{
+				plugin.log.info("Could not parse batch request: " + e.getMessage());
+				sendError(response, HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			if (requests.length() > plugin.getBatchMaxSize())
+			{
+				plugin.log.info("Batch request with " + requests.length() + " requests is rejected, max batch size is " + plugin.getBatchMaxSize());
+				sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				return;
+			}
+
+			client = getClient(request);
+			batch = new BatchRequest.Batch(client);
+			resolveRoute(request);
+			String solutionName = parsePath(request).solutionName;
+			JSONArray results = new JSONArray();
+			for (int i = 0; i < requests.length(); i++)
+			{
+				results.put(executeBatchRequest(request, response, batch, solutionName, requests.optJSONObject(i)));
+			}
+
+			HTTPUtils.setNoCacheHeaders(response);
+			response.setStatus(SC_MULTI_STATUS);
+			response.setHeader("Content-Type", "application/json;charset=" + CHARSET_DEFAULT);
+			writeJSON(response, results, CHARSET_DEFAULT);
+		}
+		catch (Exception e)
+		{
+			handleException(e, request, response, client != null ? client.getLeft() : null);
+		}
+		finally
+		{
+			if (client != null)
+			{
+				plugin.releaseClient(client.getRight(), client.getLeft(), plugin.shouldReloadSolutionAfterRequest() || (batch != null && batch.reloadSolution));
+			}
+		}
+	}
+
+	private JSONObject executeBatchRequest(HttpServletRequest request, HttpServletResponse response, BatchRequest.Batch batch, String solutionName,
+		JSONObject batchRequestJSON) throws Exception
+	{
+		JSONObject result = new JSONObject();
+		if (batchRequestJSON == null || !batchRequestJSON.has("path"))
+		{
+			result.put("status", HttpServletResponse.SC_BAD_REQUEST);
+			return result;
+		}
+
+		String method = batchRequestJSON.optString("method", "GET").toUpperCase();
+		String path = batchRequestJSON.getString("path");
+		String queryString = null;
+		int queryIndex = path.indexOf('?');
+		if (queryIndex >= 0)
+		{
+			queryString = path.substring(queryIndex + 1);
+			path = path.substring(0, queryIndex);
+		}
+
+		Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		JSONObject headersJSON = batchRequestJSON.optJSONObject("headers");
+		if (headersJSON != null)
+		{
+			Iterator< ? > names = headersJSON.keys();
+			while (names.hasNext())
+			{
+				String name = (String)names.next();
+				headers.put(name, headersJSON.get(name).toString());
+			}
+		}
+
+		byte[] body = null;
+		if (batchRequestJSON.has("body"))
+		{
+			Object bodyJSON = batchRequestJSON.get("body");
+			if (bodyJSON instanceof String)
+			{
+				body = ((String)bodyJSON).getBytes(CHARSET_DEFAULT);
+				if (!headers.containsKey("Content-Type")) headers.put("Content-Type", "text/plain;charset=" + CHARSET_DEFAULT);
+			}
+			else
 			{
-				plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+				body = bodyJSON.toString().getBytes(CHARSET_DEFAULT);
+				if (!headers.containsKey("Content-Type")) headers.put("Content-Type", "application/json;charset=" + CHARSET_DEFAULT);
 			}
 		}
-	}
 
-	@Override
-	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
-	{
-		Pair<IHeadlessClient, String> client = null;
-		boolean reloadSolution = plugin.shouldReloadSolutionAfterRequest();
+		BatchRequest batchRequest = new BatchRequest(request, batch, method, '/' + webServiceName + '/' + solutionName + (path.startsWith("/") ? path : '/' + path),
+			queryString, headers, body);
+		BatchResponse batchResponse = new BatchResponse(response);
 		try
 		{
-			int contentType = CONTENT_OTHER;
-			byte[] contents = getBody(request);
-			if (contents != null && contents.length != 0)
-			{
-				contentType = getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
-				if (contentType == CONTENT_OTHER && contents != null)
-				{
-					sendError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
-					return;
-				}
-			}
-			client = getClient(request);
-			String charset = getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT);
-			Object result = wsService(WS_CREATE, new Object[] { decodeContent(request.getContentType(), contentType, contents, charset) }, request, response,
-				client.getLeft());
-			HTTPUtils.setNoCacheHeaders(response);
-			if (result != null && result != Undefined.instance)
+			switch (method)
 			{
-				sendResult(request, response, result, contentType);
+				case "GET" :
+					doGet(batchRequest, batchResponse);
+					break;
+				case "POST" :
+					doPost(batchRequest, batchResponse);
+					break;
+				case "PUT" :
+					doPut(batchRequest, batchResponse);
+					break;
+				case "PATCH" :
+					doPatch(batchRequest, batchResponse);
+					break;
+				case "DELETE" :
+					doDelete(batchRequest, batchResponse);
+					break;
+				default :
+					batchResponse.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
 			}
 		}
-		catch (ExecFailedException e)
+		finally
 		{
-			handleException(e.getCause(), request, response, client != null ? client.getLeft() : null);
-			// do not reload solution when the error was thrown in solution code
-			if (!reloadSolution) reloadSolution = !e.isUserScriptException();
+			recordUnresolvedPhaseTimes(batchRequest);
+			deleteBodyFile(batchRequest);
 		}
-		catch (Exception e)
+
+		result.put("status", batchResponse.getStatus());
+		JSONObject resultHeaders = new JSONObject();
+		for (String name : batchResponse.getHeaderNames())
 		{
-			handleException(e, request, response, client != null ? client.getLeft() : null);
+			resultHeaders.put(name, batchResponse.getHeader(name));
 		}
-		finally
+		result.put("headers", resultHeaders);
+
+		byte[] resultBody = batchResponse.getBody();
+		if (resultBody.length > 0)
 		{
-			if (client != null)
+			String contentType = batchResponse.getContentType();
+			String charset = getHeaderKey(contentType, "charset", CHARSET_DEFAULT);
+			switch (getContentType(contentType))
 			{
-				plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+				case CONTENT_JSON :
+					String json = new String(resultBody, charset);
+					try
+					{
+						result.put("body", new JSONTokener(json).nextValue());
+					}
+					catch (JSONException e)
+					{
+						result.put("body", json);
+					}
+					break;
+
+				case CONTENT_BINARY :
+				case CONTENT_MULTIPART :
+					result.put("body", Utils.encodeBASE64(resultBody));
+					result.put("bodyEncoding", "base64");
+					break;
+
+				default :
+					result.put("body", new String(resultBody, charset));
 			}
 		}
+		return result;
 	}
 
 	@Override
@@ -404,13 +1247,14 @@ public class RestWSServlet extends HttpServlet
 		boolean reloadSolution = plugin.shouldReloadSolutionAfterRequest();
 		try
 		{
-			byte[] contents = getBody(request);
-			if (contents == null || contents.length == 0)
+			File bodyFile = spoolBody(request);
+			byte[] contents = bodyFile == null ? getBody(request) : null;
+			if (bodyFile == null ? contents == null || contents.length == 0 : bodyFile.length() == 0)
 			{
 				sendError(response, HttpServletResponse.SC_NO_CONTENT);
 				return;
 			}
-			int contentType = getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
+			int contentType = bodyFile != null ? CONTENT_BINARY : getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
 			if (contentType == CONTENT_OTHER)
 			{
 				sendError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
@@ -418,8 +1262,8 @@ public class RestWSServlet extends HttpServlet
 			}
 			client = getClient(request);
 			String charset = getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT);
-			Object result = wsService(WS_UPDATE, new Object[] { decodeContent(request.getContentType(), contentType, contents, charset) }, request, response,
-				client.getLeft());
+			Object body = bodyFile != null ? bodyFile : decodeContent(request.getContentType(), contentType, contents, charset);
+			Object result = wsService(WS_UPDATE, new Object[] { body }, request, response, client.getLeft());
 			if (Boolean.FALSE.equals(result))
 			{
 				sendError(response, HttpServletResponse.SC_NOT_FOUND);
@@ -444,7 +1288,7 @@ public class RestWSServlet extends HttpServlet
 		{
 			if (client != null)
 			{
-				plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+				releaseClient(request, client, reloadSolution);
 			}
 		}
 	}
@@ -455,13 +1299,14 @@ public class RestWSServlet extends HttpServlet
 		boolean reloadSolution = plugin.shouldReloadSolutionAfterRequest();
 		try
 		{
-			byte[] contents = getBody(request);
-			if (contents == null || contents.length == 0)
+			File bodyFile = spoolBody(request);
+			byte[] contents = bodyFile == null ? getBody(request) : null;
+			if (bodyFile == null ? contents == null || contents.length == 0 : bodyFile.length() == 0)
 			{
 				sendError(response, HttpServletResponse.SC_NO_CONTENT);
 				return;
 			}
-			int contentType = getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
+			int contentType = bodyFile != null ? CONTENT_BINARY : getRequestContentType(request, "Content-Type", contents, CONTENT_OTHER);
 			if (contentType == CONTENT_OTHER)
 			{
 				sendError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
@@ -469,8 +1314,8 @@ public class RestWSServlet extends HttpServlet
 			}
 			client = getClient(request);
 			String charset = getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT);
-			Object result = wsService(WS_PATCH, new Object[] { decodeContent(request.getContentType(), contentType, contents, charset) }, request, response,
-				client.getLeft());
+			Object body = bodyFile != null ? bodyFile : decodeContent(request.getContentType(), contentType, contents, charset);
+			Object result = wsService(WS_PATCH, new Object[] { body }, request, response, client.getLeft());
 			if (Boolean.FALSE.equals(result))
 			{
 				sendError(response, HttpServletResponse.SC_NOT_FOUND);
@@ -495,7 +1340,7 @@ public class RestWSServlet extends HttpServlet
 		{
 			if (client != null)
 			{
-				plugin.releaseClient(client.getRight(), client.getLeft(), reloadSolution);
+				releaseClient(request, client, reloadSolution);
 			}
 		}
 	}
@@ -578,11 +1423,11 @@ public class RestWSServlet extends HttpServlet
 	 * @param wsRequestPath
 	 * @return
 	 */
-	private static boolean testWsMethod(IHeadlessClient client, WsRequestPath wsRequestPath, String wsMethod)
+	private boolean testWsMethod(IHeadlessClient client, WsRequestPath wsRequestPath, String wsMethod)
 	{
 		String context = getContext(client, wsRequestPath.scope_or_form);
 		Pair<FunctionDefinition, String[]> call = getFunctioncall(wsMethod, client.getPluginAccess(), wsRequestPath, context);
-		return call.getLeft().exists(client.getPluginAccess()) == FunctionDefinition.Exist.METHOD_FOUND;
+		return methodExists(client.getPluginAccess(), context, call.getLeft().getMethodName()) == FunctionDefinition.Exist.METHOD_FOUND;
 	}
 
 	public WsRequestPath parsePath(HttpServletRequest request)
@@ -681,16 +1526,17 @@ public class RestWSServlet extends HttpServlet
 
 		WsRequestPath wsRequestPath = parsePath(request);
 
-		Object ws_authenticate_result = checkAuthorization(request, client, wsRequestPath.solutionName, wsRequestPath.scope_or_form);
+		Object ws_authenticate_result = authenticate(request, client, wsRequestPath);
 
 		String context = getContext(client, wsRequestPath.scope_or_form);
 
 		Pair<FunctionDefinition, String[]> functionCall = getExistingFunctioncall(wsMethod, request.getPathInfo(), client.getPluginAccess(), wsRequestPath,
 			context);
+		resolveRoute(request);
 
-		FunctionDefinition fd_headers = new FunctionDefinition(context, WS_RESPONSE_HEADERS);
-		if (fd_headers.exists(client.getPluginAccess()) == FunctionDefinition.Exist.METHOD_FOUND)
+		if (methodExists(client.getPluginAccess(), context, WS_RESPONSE_HEADERS) == FunctionDefinition.Exist.METHOD_FOUND)
 		{
+			FunctionDefinition fd_headers = new FunctionDefinition(context, WS_RESPONSE_HEADERS);
 			Object result = fd_headers.executeSync(client.getPluginAccess(), null);
 
 			if (result instanceof Object[])
@@ -736,6 +1582,7 @@ public class RestWSServlet extends HttpServlet
 		if (plugin.log.isDebugEnabled()) plugin.log.debug("executeMethod('" + context + "', '" + wsMethod + "', <args>)");
 		// DO NOT USE FunctionDefinition here! we want to be able to catch possible exceptions!
 		Object result;
+		long executeStart = System.nanoTime();
 		try
 		{
 			result = client.getPluginAccess().executeMethod(context, functionCall.getLeft().getMethodName(), args, false);
@@ -745,12 +1592,38 @@ public class RestWSServlet extends HttpServlet
 			plugin.log.info("Method execution failed: executeMethod('" + context + "', '" + functionCall.getLeft().getMethodName() + "', <args>)", e);
 			throw new ExecFailedException(e);
 		}
+		finally
+		{
+			recordTime(request, RestWSMetrics.PHASE_EXECUTE, executeStart);
+		}
 		if (plugin.log.isDebugEnabled()) plugin.log.debug("result = " + (result == null ? "<NULL>" : ("'" + result + '\'')));
 		// flush updated cookies from the application
 		setResponseUserProperties(request, response, client.getPluginAccess());
 		return result;
 	}
 
+	/**
+	 * Check the authorization of the request, the requests of a batch are authorized once per form or scope.
+	 */
+	private Object authenticate(HttpServletRequest request, IHeadlessClient client, WsRequestPath wsRequestPath) throws Exception
+	{
+		Map<String, Object> batchAuthentications = request instanceof BatchRequest ? ((BatchRequest)request).getBatch().authentications : null;
+		if (batchAuthentications != null && batchAuthentications.containsKey(wsRequestPath.scope_or_form))
+		{
+			return batchAuthentications.get(wsRequestPath.scope_or_form);
+		}
+
+		long start = System.nanoTime();
+		Object ws_authenticate_result = checkAuthorization(request, client, wsRequestPath.solutionName, wsRequestPath.scope_or_form);
+		recordTime(request, RestWSMetrics.PHASE_AUTHENTICATE, start);
+
+		if (batchAuthentications != null)
+		{
+			batchAuthentications.put(wsRequestPath.scope_or_form, ws_authenticate_result);
+		}
+		return ws_authenticate_result;
+	}
+
 	/**
 	 * @param wsMethod
 	 * @param pathInfo
@@ -760,12 +1633,12 @@ public class RestWSServlet extends HttpServlet
 	 * @return
 	 * @throws WebServiceException
 	 */
-	private static Pair<FunctionDefinition, String[]> getExistingFunctioncall(String wsMethod, String pathInfo, IClientPluginAccess pluginAccess,
+	private Pair<FunctionDefinition, String[]> getExistingFunctioncall(String wsMethod, String pathInfo, IClientPluginAccess pluginAccess,
 		WsRequestPath wsRequestPath, String context) throws WebServiceException
 	{
 		Pair<FunctionDefinition, String[]> call = getFunctioncall(wsMethod, pluginAccess, wsRequestPath, context);
 
-		Exist functionExists = call.getLeft().exists(pluginAccess);
+		Exist functionExists = methodExists(pluginAccess, context, call.getLeft().getMethodName());
 		if (functionExists == FunctionDefinition.Exist.NO_SOLUTION)
 		{
 			throw new WebServiceException("Solution " + wsRequestPath.solutionName + " not loaded", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
@@ -786,27 +1659,87 @@ public class RestWSServlet extends HttpServlet
 	 * @param context
 	 * @return
 	 */
-	private static Pair<FunctionDefinition, String[]> getFunctioncall(String wsMethod, IClientPluginAccess pluginAccess, WsRequestPath wsRequestPath,
+	private Pair<FunctionDefinition, String[]> getFunctioncall(String wsMethod, IClientPluginAccess pluginAccess, WsRequestPath wsRequestPath,
 		String context)
 	{
-		return wsRequestPath.getPossibleMethods() //
-			.map(method -> new Pair<>(new FunctionDefinition(context, wsMethod + method.name), method.getArgs())) //
-			.filter(pair -> pair.getLeft().exists(pluginAccess) == FunctionDefinition.Exist.METHOD_FOUND) //
-			.findFirst() //
-			.orElseGet(() -> new Pair<>(new FunctionDefinition(context, wsMethod), wsRequestPath.args));
+		for (Method method : (Iterable<Method>)wsRequestPath.getPossibleMethods()::iterator)
+		{
+			Exist exist = methodExists(pluginAccess, context, wsMethod + method.name);
+			if (exist == FunctionDefinition.Exist.METHOD_FOUND)
+			{
+				return new Pair<>(new FunctionDefinition(context, wsMethod + method.name), method.getArgs());
+			}
+		}
+		return new Pair<>(new FunctionDefinition(context, wsMethod), wsRequestPath.args);
+	}
+
+	/**
+	 * Check if the method exists, the ws_ functions of the context are cached per solution.
+	 */
+	private Exist methodExists(IClientPluginAccess pluginAccess, String context, String methodName)
+	{
+		Set<String> functions = plugin.getRouteCache().getFunctions(pluginAccess.getSolutionName(), context,
+			() -> getFunctionNames(pluginAccess, context));
+		if (functions == null)
+		{
+			// the functions could not be listed, for example because the solution is not loaded or the form does not exist
+			return new FunctionDefinition(context, methodName).exists(pluginAccess);
+		}
+		return functions.contains(methodName) ? FunctionDefinition.Exist.METHOD_FOUND : FunctionDefinition.Exist.METHOD_NOT_FOUND;
 	}
 
-	private static String getContext(IHeadlessClient client, String scope_or_form)
+	/**
+	 * Get the names of the ws_ functions of the form or scope, the same way as FunctionDefinition looks up a function.
+	 *
+	 * @return the function names, null when they cannot be listed
+	 */
+	private static Set<String> getFunctionNames(IClientPluginAccess pluginAccess, String context)
 	{
-		String[] retVal = new String[] { scope_or_form };
-		client.invokeAndWait(() -> {
-			if (client.getPluginAccess().getFormManager().getForm(scope_or_form) == null)
+		if (!(pluginAccess instanceof ClientPluginAccessProvider))
+		{
+			return null;
+		}
+		IApplication application = ((ClientPluginAccessProvider)pluginAccess).getApplication();
+		Set<String> names = new HashSet<>();
+		boolean[] listed = new boolean[1];
+		application.invokeAndWait(() -> {
+			if (application.getSolution() == null) return;
+			Scriptable scope;
+			if (context.startsWith(ScriptVariable.SCOPES_DOT_PREFIX))
+			{
+				scope = application.getScriptEngine().getScopesScope().getGlobalScope(context.substring(ScriptVariable.SCOPES_DOT_PREFIX.length()));
+			}
+			else
+			{
+				IFormController form = application.getFormManager().leaseFormPanel(context);
+				scope = form == null ? null : form.getFormScope();
+			}
+			if (scope == null) return;
+			for (Object id : scope.getIds())
 			{
-				// the form is not found, test then as a scope.
-				retVal[0] = ScriptVariable.SCOPES_DOT_PREFIX + scope_or_form;
+				if (id instanceof String && ((String)id).startsWith("ws_") && scope.get((String)id, scope) instanceof Function)
+				{
+					names.add((String)id);
+				}
 			}
+			listed[0] = true;
+		});
+		return listed[0] ? names : null;
+	}
+
+	private String getContext(IHeadlessClient client, String scope_or_form)
+	{
+		return plugin.getRouteCache().getContext(client.getPluginAccess().getSolutionName(), scope_or_form, () -> {
+			String[] retVal = new String[] { scope_or_form };
+			client.invokeAndWait(() -> {
+				if (client.getPluginAccess().getFormManager().getForm(scope_or_form) == null)
+				{
+					// the form is not found, test then as a scope.
+					retVal[0] = ScriptVariable.SCOPES_DOT_PREFIX + scope_or_form;
+				}
+			});
+			return retVal[0];
 		});
-		return retVal[0];
 	}
 
 	private void addHeaderToResponse(HttpServletResponse response, Object headerItem, WsRequestPath wsRequestPath)
@@ -849,7 +1782,7 @@ public class RestWSServlet extends HttpServlet
 
 		String[] authorizedGroups = plugin.getAuthorizedGroups();
 		FunctionDefinition fd = new FunctionDefinition(context, WS_AUTHENTICATE);
-		Exist authMethodExists = fd.exists(client.getPluginAccess());
+		Exist authMethodExists = methodExists(client.getPluginAccess(), context, WS_AUTHENTICATE);
 		if (authorizedGroups == null && authMethodExists != FunctionDefinition.Exist.METHOD_FOUND)
 		{
 			plugin.log.debug("No authorization to check, allow all access");
@@ -891,27 +1824,57 @@ public class RestWSServlet extends HttpServlet
 			throw new NotAuthenticatedException(solutionName);
 		}
 
+		AuthenticationCache authenticationCache = plugin.getAuthenticationCache();
+		boolean useCache = authenticationCache != null && authenticationCache.isEnabled();
+
 		//Process the Authentication Header values
 		if (authMethodExists == FunctionDefinition.Exist.METHOD_FOUND)
 		{
-			//TODO: we should cache the (user,pass,retval) for an hour (across all rest clients), and not invoke WS_AUTHENTICATE function each time! (since authenticate might be expensive like LDAP)
+			String cacheKey = useCache ? authenticationCache.createKey(solutionName, context, user, password) : null;
+			AuthenticationCache.Entry cached = cacheKey == null ? null : authenticationCache.get(cacheKey);
+			if (cached != null)
+			{
+				if (plugin.log.isDebugEnabled()) plugin.log.debug("Using cached authentication for user " + user);
+				return fromCachedAuthenticateResult(cached.getValue());
+			}
+
 			Object retval = fd.executeSync(client.getPluginAccess(), new String[] { user, password });
 			if (retval != null && !Boolean.FALSE.equals(retval) && retval != Undefined.instance)
 			{
-				return retval instanceof Boolean ? null : retval;
+				Object result = retval instanceof Boolean ? null : retval;
+				if (cacheKey != null)
+				{
+					cacheAuthenticateResult(authenticationCache, cacheKey, solutionName, user, result);
+				}
+				return result;
 			}
 			if (plugin.log.isDebugEnabled()) plugin.log.debug("Authentication method " + WS_AUTHENTICATE + " denied authentication");
 			throw new NotAuthenticatedException(solutionName);
 		}
 
-		String userUid = plugin.getServerAccess().checkPasswordForUserName(user, password);
-		if (userUid == null)
+		String cacheKey = useCache ? authenticationCache.createKey(solutionName, null, user, password) : null;
+		AuthenticationCache.Entry cached = cacheKey == null ? null : authenticationCache.get(cacheKey);
+		String[] userGroups;
+		if (cached != null)
 		{
-			plugin.log.debug("Supplied credentails not valid");
-			throw new NotAuthenticatedException(user);
+			if (plugin.log.isDebugEnabled()) plugin.log.debug("Using cached groups for user " + user);
+			userGroups = (String[])cached.getValue();
 		}
+		else
+		{
+			String userUid = plugin.getServerAccess().checkPasswordForUserName(user, password);
+			if (userUid == null)
+			{
+				plugin.log.debug("Supplied credentails not valid");
+				throw new NotAuthenticatedException(user);
+			}
 
-		String[] userGroups = plugin.getServerAccess().getUserGroups(userUid);
+			userGroups = plugin.getServerAccess().getUserGroups(userUid);
+			if (cacheKey != null)
+			{
+				authenticationCache.put(cacheKey, solutionName, user, userGroups);
+			}
+		}
 		// find a match in groups
 		if (userGroups != null)
 		{
@@ -935,13 +1898,45 @@ public class RestWSServlet extends HttpServlet
 		throw new NotAuthorizedException("User not authorized");
 	}
 
+	/**
+	 * Cache the ws_authenticate result, script objects belong to the client that created them so those are cached in serialized form.
+	 */
+	private void cacheAuthenticateResult(AuthenticationCache authenticationCache, String cacheKey, String solutionName, String user, Object result)
+	{
+		Object value = result;
+		if (result != null && !(result instanceof String || result instanceof Number || result instanceof Boolean))
+		{
+			try
+			{
+				value = new SerializedAuthenticateResult(plugin.getJSONSerializer().toJSON(result));
+			}
+			catch (Exception e)
+			{
+				plugin.log.debug("Cannot cache result of " + WS_AUTHENTICATE + ", result cannot be serialized", e);
+				return;
+			}
+		}
+		authenticationCache.put(cacheKey, solutionName, user, value);
+	}
+
+	private Object fromCachedAuthenticateResult(Object value) throws Exception
+	{
+		if (value instanceof SerializedAuthenticateResult)
+		{
+			return plugin.getJSONSerializer().fromJSON(((SerializedAuthenticateResult)value).json);
+		}
+		return value;
+	}
+
 	private byte[] getBody(HttpServletRequest request) throws IOException
 	{
 		try (InputStream is = request.getInputStream())
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			int contentLength = request.getContentLength();
+			// the buffer grows as the bytes arrive beyond the presize
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(contentLength > 0 ? Math.min(contentLength, MAX_BODY_PRESIZE) : BUFFER_SIZE);
 
-			byte[] buffer = new byte[128];
+			byte[] buffer = new byte[BUFFER_SIZE];
 			int length;
 			while ((length = is.read(buffer)) >= 0)
 			{
@@ -952,6 +1947,35 @@ public class RestWSServlet extends HttpServlet
 		}
 	}
 
+	/**
+	 * Write a large binary request body to a temporary file instead of keeping it in memory, when enabled with rest_ws_plugin_request_body_file_threshold.
+	 * The file is passed as argument to the ws_ method and deleted when the request is finished.
+	 *
+	 * @return the file or null when the body was not written to a file
+	 */
+	private File spoolBody(HttpServletRequest request) throws IOException
+	{
+		long threshold = plugin.getRequestBodyFileThreshold();
+		if (threshold < 0 || getContentType(request.getHeader("Content-Type")) != CONTENT_BINARY)
+		{
+			return null;
+		}
+		long contentLength = request.getContentLengthLong();
+		if (contentLength >= 0 && contentLength <= threshold)
+		{
+			return null;
+		}
+
+		File file = File.createTempFile("rest_ws", ".body");
+		request.setAttribute(BODY_FILE_ATTRIBUTE, file);
+		try (InputStream is = request.getInputStream())
+		{
+			Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (plugin.log.isDebugEnabled()) plugin.log.debug("Request body of " + file.length() + " bytes written to " + file);
+		return file;
+	}
+
 	private int getContentType(String headerValue)
 	{
 		if (headerValue != null)
@@ -998,7 +2022,9 @@ public class RestWSServlet extends HttpServlet
 		if (contentType != CONTENT_OTHER) return contentType;
 		if (contents != null)
 		{
-			String stringContent = new String(contents, getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT));
+			// only the first character is used for guessing, do not decode the whole body
+			String stringContent = new String(contents, 0, Math.min(contents.length, 16),
+				getHeaderKey(request.getHeader("Content-Type"), "charset", CHARSET_DEFAULT));
 			return guessContentType(stringContent, defaultContentType);
 		}
 		return defaultContentType;
@@ -1266,10 +2292,21 @@ public class RestWSServlet extends HttpServlet
 
 	private void sendResult(HttpServletRequest request, HttpServletResponse response, Object result, int defaultContentType) throws Exception
 	{
-		byte[] bytes;
+		long start = System.nanoTime();
+		try
+		{
+			doSendResult(request, response, result, defaultContentType);
+		}
+		finally
+		{
+			recordTime(request, RestWSMetrics.PHASE_SERIALIZE, start);
+		}
+	}
 
+	private void doSendResult(HttpServletRequest request, HttpServletResponse response, Object result, int defaultContentType) throws Exception
+	{
 		String charset;
-		if (response instanceof RestWSServletResponse && ((RestWSServletResponse)response).characterEncodingSet)
+		if (isCharacterEncodingSet(response))
 		{
 			// characterEncoding was set using rest_ws client plugin
 			charset = response.getCharacterEncoding();
@@ -1284,13 +2321,19 @@ public class RestWSServlet extends HttpServlet
 		if (resultContentType != null)
 		{
 			// content type was set using rest_ws client plugin
-			String content = getContent(response, result, false, getContentType(resultContentType));
-			bytes = content.getBytes(charset);
+			writeContent(response, getContent(response, result, false, getContentType(resultContentType)), charset);
 		}
 		else if (result instanceof byte[])
 		{
-			bytes = (byte[])result;
+			byte[] bytes = (byte[])result;
 			resultContentType = getBytesContentType(request, bytes);
+
+			response.setContentLength(bytes.length);
+			try (ServletOutputStream outputStream = response.getOutputStream())
+			{
+				outputStream.write(bytes);
+				outputStream.flush();
+			}
 		}
 		else
 		{
@@ -1302,12 +2345,20 @@ public class RestWSServlet extends HttpServlet
 				return;
 			}
 
+			String callback = contentType == CONTENT_JSON ? request.getParameter("callback") : null;
+			if (contentType == CONTENT_JSON && (callback == null || callback.equals("")) && result != null && !(result instanceof XMLObject))
+			{
+				// serialize json straight to the response
+				response.setHeader("Content-Type", "application/json;charset=" + charset);
+				writeJSON(response, getJSON(result), charset);
+				return;
+			}
+
 			String content = getContent(response, result, true, contentType);
 
 			switch (contentType)
 			{
 				case CONTENT_JSON :
-					String callback = request.getParameter("callback");
 					if (callback != null && !callback.equals(""))
 					{
 						content = callback + '(' + content + ')';
@@ -1356,16 +2407,55 @@ public class RestWSServlet extends HttpServlet
 
 			response.setHeader("Content-Type", resultContentType);
 
-			bytes = content.getBytes(charset);
+			writeContent(response, content, charset);
+		}
+	}
 
+	/**
+	 * Write the content encoded to the response, the servlet container sets the content length when the content fits in its buffer,
+	 * larger content is sent chunked without creating an encoded copy of the whole content.
+	 */
+	private static void writeContent(HttpServletResponse response, String content, String charset) throws IOException
+	{
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), charset), BUFFER_SIZE))
+		{
+			writer.write(content);
 		}
+	}
 
-		response.setContentLength(bytes.length);
+	private static void writeJSON(HttpServletResponse response, Object json, String charset) throws Exception
+	{
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), charset), BUFFER_SIZE))
+		{
+			if (json instanceof JSONObject)
+			{
+				((JSONObject)json).write(writer);
+			}
+			else if (json instanceof JSONArray)
+			{
+				((JSONArray)json).write(writer);
+			}
+			else
+			{
+				writer.write(json.toString());
+			}
+		}
+	}
 
-		try (ServletOutputStream outputStream = response.getOutputStream())
+	private Object getJSON(Object result) throws Exception
+	{
+		if (result instanceof JSONObject || result instanceof JSONArray)
+		{
+			return result;
+		}
+		try
+		{
+			return plugin.getJSONSerializer().toJSON(result);
+		}
+		catch (Exception e)
 		{
-			outputStream.write(bytes);
-			outputStream.flush();
+			Debug.error("Failed to convert " + result + " to a json structure", e);
+			throw e;
 		}
 	}
 
@@ -1404,17 +2494,9 @@ public class RestWSServlet extends HttpServlet
 			return XML.toString(json, null);
 		}
 
-		if (interpretResult && !(result instanceof JSONObject || result instanceof JSONArray))
+		if (interpretResult)
 		{
-			try
-			{
-				return plugin.getJSONSerializer().toJSON(result).toString();
-			}
-			catch (Exception e)
-			{
-				Debug.error("Failed to convert " + result + " to a json structure", e);
-				throw e;
-			}
+			return getJSON(result).toString();
 		}
 
 		return result.toString();
@@ -1550,7 +2632,105 @@ public class RestWSServlet extends HttpServlet
 		}
 	}
 
-	private static class RestWSServletResponse extends HttpServletResponseWrapper
+	private static boolean isCharacterEncodingSet(ServletResponse response)
+	{
+		ServletResponse res = response;
+		while (res instanceof ServletResponseWrapper)
+		{
+			if (res instanceof RestWSServletResponse)
+			{
+				return ((RestWSServletResponse)res).characterEncodingSet;
+			}
+			res = ((ServletResponseWrapper)res).getResponse();
+		}
+		return false;
+	}
+
+	/**
+	 * Response that keeps the body in memory, so it can be checked before it is sent.
+	 */
+	private static class BufferedResponse extends HttpServletResponseWrapper
+	{
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+		private ServletOutputStream outputStream;
+		private PrintWriter writer;
+
+		BufferedResponse(HttpServletResponse response)
+		{
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream()
+		{
+			if (outputStream == null)
+			{
+				outputStream = new ServletOutputStream()
+				{
+					@Override
+					public void write(int b)
+					{
+						buffer.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len)
+					{
+						buffer.write(b, off, len);
+					}
+
+					@Override
+					public boolean isReady()
+					{
+						return true;
+					}
+
+					@Override
+					public void setWriteListener(WriteListener writeListener)
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			return outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws UnsupportedEncodingException
+		{
+			if (writer == null)
+			{
+				writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void setContentLength(int len)
+		{
+			// set when the buffered body is sent
+		}
+
+		@Override
+		public void setContentLengthLong(long len)
+		{
+			// set when the buffered body is sent
+		}
+
+		@Override
+		public void flushBuffer()
+		{
+			if (writer != null) writer.flush();
+		}
+
+		byte[] toByteArray()
+		{
+			if (writer != null) writer.flush();
+			return buffer.toByteArray();
+		}
+	}
+
+	static class RestWSServletResponse extends HttpServletResponseWrapper
 	{
 		boolean characterEncodingSet;
 
@@ -1644,6 +2824,16 @@ public class RestWSServlet extends HttpServlet
 		}
 	}
 
+	private static class SerializedAuthenticateResult
+	{
+		final Object json;
+
+		SerializedAuthenticateResult(Object json)
+		{
+			this.json = json;
+		}
+	}
+
 	public static class WebServiceException extends Exception
 	{
 		public final int httpResponseCode;